@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.benchmark;
+
+import com.microsoft.jenkins.function.util.ReproducibleZipArchiver;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to build the ZipDeploy package of a source tree, by tree shape and number of compressing threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ArchiveBenchmark {
+
+    private static final int LEVEL = 6;
+
+    @Param({"SMALL_FILES", "LARGE_FILES"})
+    private BenchmarkTrees tree;
+
+    @Param({"1", "4"})
+    private int threads;
+
+    private File dir;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("archive-benchmark").toFile();
+        tree.generate(dir);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Benchmark
+    public int archive() throws IOException, InterruptedException {
+        return new ReproducibleZipArchiver("**/*", "", LEVEL, threads).archive(dir, new NullOutputStream());
+    }
+}
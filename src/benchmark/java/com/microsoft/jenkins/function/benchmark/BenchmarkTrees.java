@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.benchmark;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Synthetic source trees shaped like the packages deployed to function apps.
+ */
+public enum BenchmarkTrees {
+    /**
+     * A script function app with node_modules, thousands of small files.
+     */
+    SMALL_FILES(5000, 2 * 1024, 0),
+
+    /**
+     * A Java function app, a few large jars next to some classes.
+     */
+    LARGE_FILES(40, 2 * 1024 * 1024, 4);
+
+    private static final int KILOBYTE = 1024;
+    private static final int DIRECTORIES = 16;
+    private static final int WORDS = 256;
+    private static final int WORD_CHOICES = 16;
+    private static final int WORD_SPAN = 64;
+
+    private final int fileCount;
+    private final int fileSize;
+    private final int jarEvery;
+
+    BenchmarkTrees(final int fileCount, final int fileSize, final int jarEvery) {
+        this.fileCount = fileCount;
+        this.fileSize = fileSize;
+        this.jarEvery = jarEvery;
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * Generate the tree. The content is the same on every call, so runs can be compared.
+     *
+     * Text-like files compress about as well as source and compiled code; jars are random bytes, as they are already
+     * compressed.
+     *
+     * @param dir Directory to generate the tree in
+     * @throws IOException If a file can't be written
+     */
+    public void generate(final File dir) throws IOException {
+        final Random random = new Random(0);
+        final byte[] words = new byte[WORDS];
+        random.nextBytes(words);
+        for (int i = 0; i < fileCount; i++) {
+            final boolean jar = jarEvery > 0 && i % jarEvery == 0;
+            final byte[] data = new byte[fileSize];
+            if (jar) {
+                random.nextBytes(data);
+            } else {
+                for (int j = 0; j < data.length; j++) {
+                    data[j] = words[random.nextInt(WORD_CHOICES) + (j / WORD_SPAN) % (WORDS - WORD_CHOICES)];
+                }
+            }
+            final String name = jar ? "lib/f" + i + ".jar" : "d" + (i % DIRECTORIES) + "/s" + (i / KILOBYTE) + "/f" + i
+                    + (i % 2 == 0 ? ".js" : ".json");
+            FileUtils.writeByteArrayToFile(new File(dir, name), data);
+        }
+    }
+
+    /**
+     * Rewrite some of the text-like files of a generated tree, as a new build would.
+     *
+     * @param dir   Directory the tree was generated in
+     * @param count Number of files to rewrite
+     * @param seed  Seed of the new content
+     * @throws IOException If a file can't be written
+     */
+    public void modify(final File dir, final int count, final long seed) throws IOException {
+        final Random random = new Random(seed);
+        int modified = 0;
+        for (int i = 1; i < fileCount && modified < count; i += 2) {
+            if (jarEvery > 0 && i % jarEvery == 0) {
+                continue;
+            }
+            final File file = new File(dir, "d" + (i % DIRECTORIES) + "/s" + (i / KILOBYTE) + "/f" + i + ".json");
+            FileUtils.writeStringToFile(file, "{\"build\": " + random.nextLong() + "}", "UTF-8");
+            modified++;
+        }
+    }
+}
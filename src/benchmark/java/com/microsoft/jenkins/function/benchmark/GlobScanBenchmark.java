@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.benchmark;
+
+import com.microsoft.jenkins.function.util.FilePathUtils;
+import com.microsoft.jenkins.function.util.SourceManifest;
+import hudson.FilePath;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to select the files to deploy with an Ant pattern, and to turn them into paths relative to the source
+ * directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GlobScanBenchmark {
+
+    @Param({"SMALL_FILES", "LARGE_FILES"})
+    private BenchmarkTrees tree;
+
+    @Param({"**/*", "**/*.js,**/*.jar"})
+    private String pattern;
+
+    private File dir;
+    private FilePath sourceDir;
+    private FilePath[] files;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        dir = Files.createTempDirectory("glob-benchmark").toFile();
+        tree.generate(dir);
+        sourceDir = new FilePath(dir);
+        files = sourceDir.list(pattern);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Benchmark
+    public FilePath[] list() throws IOException, InterruptedException {
+        return sourceDir.list(pattern);
+    }
+
+    @Benchmark
+    public SourceManifest scan() throws IOException, InterruptedException {
+        return SourceManifest.scan(sourceDir, pattern);
+    }
+
+    @Benchmark
+    public void trimDirectoryPrefix(final Blackhole blackhole) {
+        for (final FilePath file : files) {
+            blackhole.consume(FilePathUtils.trimDirectoryPrefix(sourceDir, file));
+        }
+    }
+}
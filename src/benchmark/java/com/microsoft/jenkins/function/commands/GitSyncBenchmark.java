@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.commands;
+
+import com.microsoft.jenkins.function.benchmark.BenchmarkTrees;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Repository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to bring the working tree and index of the deploy repository in line with the source files, for a
+ * redeployment of the same build and for a build that changed some files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GitSyncBenchmark {
+
+    private static final int MODIFIED_FILES = 50;
+
+    @Benchmark
+    public SyncWorkingTreeCallback.Summary unchanged(final Deployment deployment)
+            throws IOException, InterruptedException {
+        return deployment.sync();
+    }
+
+    @Benchmark
+    public SyncWorkingTreeCallback.Summary modified(final Deployment deployment, final Changes changes)
+            throws IOException, InterruptedException {
+        return deployment.sync();
+    }
+
+    /**
+     * A source tree and the deploy repository it was synced to once.
+     */
+    @State(Scope.Benchmark)
+    public static class Deployment {
+        @Param({"SMALL_FILES", "LARGE_FILES"})
+        private BenchmarkTrees tree;
+
+        private File sourceDir;
+        private File repoDir;
+        private Repository repo;
+
+        @Setup
+        public void setUp() throws IOException, InterruptedException, GitAPIException {
+            sourceDir = Files.createTempDirectory("git-benchmark-source").toFile();
+            repoDir = Files.createTempDirectory("git-benchmark-repo").toFile();
+            tree.generate(sourceDir);
+            repo = Git.init().setDirectory(repoDir).call().getRepository();
+            sync();
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            repo.close();
+            FileUtils.deleteDirectory(sourceDir);
+            FileUtils.deleteDirectory(repoDir);
+        }
+
+        SyncWorkingTreeCallback.Summary sync() throws IOException, InterruptedException {
+            return new SyncWorkingTreeCallback(sourceDir.getAbsolutePath(), "", "**/*").invoke(repo, null);
+        }
+    }
+
+    /**
+     * Rewrite some source files before each sync, so they differ from the index again.
+     */
+    @State(Scope.Benchmark)
+    public static class Changes {
+        private long seed;
+
+        @Setup(Level.Invocation)
+        public void modify(final Deployment deployment) throws IOException {
+            deployment.tree.modify(deployment.sourceDir, MODIFIED_FILES, ++seed);
+        }
+    }
+}
@@ -1,17 +1,38 @@
 package com.microsoft.jenkins.function;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.microsoft.jenkins.azurecommons.telemetry.AppInsightsClientFactory;
+import com.microsoft.jenkins.azurecommons.telemetry.AppInsightsUtils;
 import com.microsoft.jenkins.azurecommons.telemetry.AzureHttpRecorder;
+import com.microsoft.jenkins.function.util.TelemetryQueue;
 import hudson.Plugin;
 import okhttp3.Interceptor;
 import okhttp3.Request;
 import okhttp3.Response;
 
 import java.io.IOException;
+import java.net.URI;
 import java.util.HashMap;
 import java.util.Map;
 
 public class AzureFunctionPlugin extends Plugin {
+    private static final int HASH_CACHE_SIZE = 1000;
+
+    /**
+     * Hashes of the values sent with events, such as run URLs and resource names, which repeat for every event of a
+     * deployment.
+     */
+    private static final LoadingCache<String, String> HASHES = CacheBuilder.newBuilder()
+            .maximumSize(HASH_CACHE_SIZE)
+            .build(new CacheLoader<String, String>() {
+                @Override
+                public String load(final String value) {
+                    return AppInsightsUtils.hash(value);
+                }
+            });
+
     public static void sendEvent(final String item, final String action, final String... properties) {
         final Map<String, String> props = new HashMap<>();
         for (int i = 1; i < properties.length; i += 2) {
@@ -21,8 +42,26 @@ public class AzureFunctionPlugin extends Plugin {
     }
 
     public static void sendEvent(final String item, final String action, final Map<String, String> properties) {
-        AppInsightsClientFactory.getInstance(AzureFunctionPlugin.class)
-                .sendEvent(item, action, properties, false);
+        TelemetryQueue.get().submit(new Runnable() {
+            @Override
+            public void run() {
+                AppInsightsClientFactory.getInstance(AzureFunctionPlugin.class)
+                        .sendEvent(item, action, properties, false);
+            }
+        });
+    }
+
+    /**
+     * Hash a value sent with an event, reusing the hash of values seen recently.
+     *
+     * @param value Value to hash, may be null
+     * @return Hash of the value
+     */
+    public static String hash(final String value) {
+        if (value == null) {
+            return AppInsightsUtils.hash(null);
+        }
+        return HASHES.getUnchecked(value);
     }
 
     public static class AzureTelemetryInterceptor implements Interceptor {
@@ -30,14 +69,25 @@ public class AzureFunctionPlugin extends Plugin {
         public Response intercept(final Chain chain) throws IOException {
             final Request request = chain.request();
             final Response response = chain.proceed(request);
-            new AzureHttpRecorder(AppInsightsClientFactory.getInstance(AzureFunctionPlugin.class))
-                    .record(new AzureHttpRecorder.HttpRecordable()
-                            .withHttpCode(response.code())
-                            .withHttpMessage(response.message())
-                            .withHttpMethod(request.method())
-                            .withRequestUri(request.url().uri())
-                            .withRequestId(response.header("x-ms-request-id"))
-                    );
+            // Only capture what is needed here, recording is left to the telemetry thread
+            final int code = response.code();
+            final String message = response.message();
+            final String method = request.method();
+            final URI uri = request.url().uri();
+            final String requestId = response.header("x-ms-request-id");
+            TelemetryQueue.get().submit(new Runnable() {
+                @Override
+                public void run() {
+                    new AzureHttpRecorder(AppInsightsClientFactory.getInstance(AzureFunctionPlugin.class))
+                            .record(new AzureHttpRecorder.HttpRecordable()
+                                    .withHttpCode(code)
+                                    .withHttpMessage(message)
+                                    .withHttpMethod(method)
+                                    .withRequestUri(uri)
+                                    .withRequestId(requestId)
+                            );
+                }
+            });
             return response;
         }
     }
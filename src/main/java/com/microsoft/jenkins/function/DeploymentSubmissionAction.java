@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function;
+
+import com.microsoft.jenkins.function.util.KuduZipDeployer;
+import hudson.model.InvisibleAction;
+
+/**
+ * Deployment queued by an azureFunctionAppDeploy step, saved with the build as soon as the function app accepts the
+ * package so that the step can resume polling its status after a restart.
+ */
+public class DeploymentSubmissionAction extends InvisibleAction {
+
+    private final String executionId;
+    private final KuduZipDeployer.Submission submission;
+
+    public DeploymentSubmissionAction(final String executionId, final KuduZipDeployer.Submission submission) {
+        this.executionId = executionId;
+        this.submission = submission;
+    }
+
+    /**
+     * @return Id of the step execution which queued the deployment
+     */
+    public String getExecutionId() {
+        return executionId;
+    }
+
+    public KuduZipDeployer.Submission getSubmission() {
+        return submission;
+    }
+}
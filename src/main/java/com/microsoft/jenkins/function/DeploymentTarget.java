@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.Serializable;
+
+/**
+ * Additional function app the same package is deployed to.
+ */
+public class DeploymentTarget extends AbstractDescribableImpl<DeploymentTarget> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String resourceGroup;
+    private final String appName;
+
+    @DataBoundConstructor
+    public DeploymentTarget(final String resourceGroup, final String appName) {
+        this.resourceGroup = resourceGroup;
+        this.appName = appName;
+    }
+
+    public String getResourceGroup() {
+        return resourceGroup;
+    }
+
+    public String getAppName() {
+        return appName;
+    }
+
+    @Override
+    public String toString() {
+        return resourceGroup + "/" + appName;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<DeploymentTarget> {
+        @Override
+        public String getDisplayName() {
+            return "Function App";
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function;
+
+import com.microsoft.jenkins.function.util.DeploymentTimings;
+import hudson.Functions;
+import hudson.Util;
+import hudson.model.InvisibleAction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Where the time of a deployment to a function app went, shown as a table on the build page.
+ */
+public class DeploymentTimingsAction extends InvisibleAction {
+
+    private final String target;
+    private final boolean succeeded;
+    private final List<PhaseTiming> phases;
+
+    public DeploymentTimingsAction(final String target, final boolean succeeded, final DeploymentTimings timings) {
+        this.target = target;
+        this.succeeded = succeeded;
+        this.phases = new ArrayList<>();
+        for (final DeploymentTimings.Phase phase : timings.getPhases()) {
+            phases.add(new PhaseTiming(phase.getName(), phase.getDurationMillis(), phase.getBytes()));
+        }
+    }
+
+    /**
+     * @return Function app deployed to, as resource group/name
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    public boolean isSucceeded() {
+        return succeeded;
+    }
+
+    public List<PhaseTiming> getPhases() {
+        return Collections.unmodifiableList(phases);
+    }
+
+    public long getTotalMillis() {
+        long total = 0;
+        for (final PhaseTiming phase : phases) {
+            total += Math.max(phase.getDurationMillis(), 0);
+        }
+        return total;
+    }
+
+    public String getTotalDuration() {
+        return Util.getTimeSpanString(getTotalMillis());
+    }
+
+    /**
+     * Timing of a phase, as persisted with the build.
+     */
+    public static final class PhaseTiming {
+        private final String name;
+        private final long durationMillis;
+        private final long bytes;
+
+        PhaseTiming(final String name, final long durationMillis, final long bytes) {
+            this.name = name;
+            this.durationMillis = durationMillis;
+            this.bytes = bytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public String getDuration() {
+            return durationMillis < 0 ? "-" : Util.getTimeSpanString(durationMillis);
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public String getSize() {
+            return bytes > 0 ? Functions.humanReadableByteSize(bytes) : "";
+        }
+    }
+}
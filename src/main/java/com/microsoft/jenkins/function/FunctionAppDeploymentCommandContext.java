@@ -5,8 +5,6 @@
  */
 package com.microsoft.jenkins.function;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.microsoft.azure.management.appservice.FunctionApp;
 import com.microsoft.azure.management.appservice.PublishingProfile;
 import com.microsoft.azure.management.appservice.WebAppBase;
@@ -16,8 +14,12 @@ import com.microsoft.jenkins.azurecommons.command.CommandService;
 import com.microsoft.jenkins.azurecommons.command.IBaseCommandData;
 import com.microsoft.jenkins.azurecommons.command.ICommand;
 import com.microsoft.jenkins.exceptions.AzureCloudException;
+import com.microsoft.jenkins.function.commands.FTPDeployCommand;
 import com.microsoft.jenkins.function.commands.GitDeployCommand;
 import com.microsoft.jenkins.function.commands.ZipDeployCommand;
+import com.microsoft.jenkins.function.util.DeploymentTimings;
+import com.microsoft.jenkins.function.util.KuduZipDeployer;
+import com.microsoft.jenkins.function.util.SourceManifest;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.Util;
@@ -30,11 +32,30 @@ import java.io.IOException;
 import java.io.InputStream;
 
 public class FunctionAppDeploymentCommandContext extends BaseCommandContext
-        implements ZipDeployCommand.IZipDeployCommandData, GitDeployCommand.IGitDeployCommandData {
+        implements ZipDeployCommand.IZipDeployCommandData, GitDeployCommand.IGitDeployCommandData,
+        FTPDeployCommand.IFTPDeployCommandData {
 
     private final String filePath;
     private String sourceDirectory;
     private String targetDirectory;
+    private boolean streamArchive;
+    private boolean cacheDeployRepository;
+    private boolean commitWithoutCheckout;
+    private boolean forceRedeploy;
+    private int archiveThreads;
+    private FilePath prebuiltArchive;
+    private String packageDigest;
+    private boolean agentUpload;
+    private String deployRepositoryName;
+    private boolean asyncDeploy;
+    private int asyncDeployTimeout;
+    private SubmissionListener submissionListener;
+    private boolean ftpDeploy;
+    private int ftpConnections;
+    private boolean incrementalFtpDeploy;
+    private boolean stagedFtpDeploy;
+    private SourceManifest sourceManifest;
+    private final DeploymentTimings timings = new DeploymentTimings();
     private PublishingProfile pubProfile;
     private FunctionApp functionApp;
 
@@ -52,25 +73,99 @@ public class FunctionAppDeploymentCommandContext extends BaseCommandContext
         this.targetDirectory = Util.fixNull(targetDirectory);
     }
 
+    public void setStreamArchive(final boolean streamArchive) {
+        this.streamArchive = streamArchive;
+    }
+
+    public void setCacheDeployRepository(final boolean cacheDeployRepository) {
+        this.cacheDeployRepository = cacheDeployRepository;
+    }
+
+    public void setCommitWithoutCheckout(final boolean commitWithoutCheckout) {
+        this.commitWithoutCheckout = commitWithoutCheckout;
+    }
+
+    public void setForceRedeploy(final boolean forceRedeploy) {
+        this.forceRedeploy = forceRedeploy;
+    }
+
+    public void setArchiveThreads(final int archiveThreads) {
+        this.archiveThreads = archiveThreads;
+    }
+
+    public void setPrebuiltArchive(final FilePath prebuiltArchive) {
+        this.prebuiltArchive = prebuiltArchive;
+    }
+
+    public void setPackageDigest(final String packageDigest) {
+        this.packageDigest = packageDigest;
+    }
+
+    public void setDeployRepositoryName(final String deployRepositoryName) {
+        this.deployRepositoryName = deployRepositoryName;
+    }
+
+    public void setSourceManifest(final SourceManifest sourceManifest) {
+        this.sourceManifest = sourceManifest;
+    }
+
+    public void setAgentUpload(final boolean agentUpload) {
+        this.agentUpload = agentUpload;
+    }
+
+    public void setAsyncDeploy(final boolean asyncDeploy) {
+        this.asyncDeploy = asyncDeploy;
+    }
+
+    public void setAsyncDeployTimeout(final int asyncDeployTimeout) {
+        this.asyncDeployTimeout = asyncDeployTimeout;
+    }
+
+    public void setSubmissionListener(final SubmissionListener submissionListener) {
+        this.submissionListener = submissionListener;
+    }
+
+    public void setFtpDeploy(final boolean ftpDeploy) {
+        this.ftpDeploy = ftpDeploy;
+    }
+
+    public void setFtpConnections(final int ftpConnections) {
+        this.ftpConnections = ftpConnections;
+    }
+
+    public void setIncrementalFtpDeploy(final boolean incrementalFtpDeploy) {
+        this.incrementalFtpDeploy = incrementalFtpDeploy;
+    }
+
+    public void setStagedFtpDeploy(final boolean stagedFtpDeploy) {
+        this.stagedFtpDeploy = stagedFtpDeploy;
+    }
+
     public void configure(
             final Run<?, ?> run,
             final FilePath workspace,
             final Launcher launcher,
             final TaskListener listener,
             final FunctionApp app) throws AzureCloudException {
-        this.functionApp = app;
+        configure(run, workspace, launcher, listener, app, app.getPublishingProfile());
+    }
 
-        pubProfile = app.getPublishingProfile();
+    public void configure(
+            final Run<?, ?> run,
+            final FilePath workspace,
+            final Launcher launcher,
+            final TaskListener listener,
+            final FunctionApp app,
+            final PublishingProfile publishingProfile) throws AzureCloudException {
+        this.functionApp = app;
 
-        boolean isJava = false;
-        try {
-            isJava = isJavaFunction(workspace, sourceDirectory, filePath);
-        } catch (IOException | InterruptedException e) {
-            throw new AzureCloudException(e);
-        }
+        pubProfile = publishingProfile;
 
         CommandService.Builder builder = CommandService.builder();
-        if (isJava) {
+        if (ftpDeploy) {
+            // Upload the files as they are over FTP, whatever the runtime
+            builder.withStartCommand(FTPDeployCommand.class);
+        } else if (detectJavaFunction(workspace)) {
             // For Java function, use FTP-based deployment as it's the recommended way
             builder.withStartCommand(ZipDeployCommand.class);
         } else {
@@ -82,34 +177,29 @@ public class FunctionAppDeploymentCommandContext extends BaseCommandContext
         super.configure(jobContext, builder.build());
     }
 
-    static boolean isJavaFunction(final FilePath workspace, final String sourceDirectory, final String filePath)
-            throws IOException, InterruptedException {
-        FilePath sourceDir = workspace.child(Util.fixNull(sourceDirectory));
-        FilePath[] files = sourceDir.list(filePath);
-
-        for (final FilePath file : files) {
-            String fileName = file.getName();
-            if (fileName.equals("function.json")) {
-                String scriptPath = getScriptFileFromConfig(file);
-                if (scriptPath.toLowerCase().endsWith(".jar")) {
-                    return true;
-                }
+    private boolean detectJavaFunction(final FilePath workspace) throws AzureCloudException {
+        if (sourceManifest == null) {
+            final DeploymentTimings.Phase phase = timings.start("Detect runtime");
+            try {
+                sourceManifest = SourceManifest.scan(workspace.child(sourceDirectory), filePath);
+                phase.addBytes(sourceManifest.getTotalSize());
+            } catch (IOException | InterruptedException e) {
+                throw new AzureCloudException(e);
+            } finally {
+                phase.end();
             }
         }
+        return sourceManifest.isJavaFunction();
+    }
 
-        return false;
+    static boolean isJavaFunction(final FilePath workspace, final String sourceDirectory, final String filePath)
+            throws IOException, InterruptedException {
+        return SourceManifest.scan(workspace.child(Util.fixNull(sourceDirectory)), filePath).isJavaFunction();
     }
 
     static String getScriptFileFromConfig(final FilePath filePath) throws IOException, InterruptedException {
-        ObjectMapper mapper = new ObjectMapper();
         try (InputStream stream = filePath.read()) {
-            JsonNode root = mapper.readTree(stream);
-            JsonNode scriptPathNode = root.get("scriptFile");
-            if (scriptPathNode == null) {
-                return "";
-            }
-
-            return scriptPathNode.asText("");
+            return SourceManifest.getScriptFile(stream);
         }
     }
 
@@ -138,6 +228,93 @@ public class FunctionAppDeploymentCommandContext extends BaseCommandContext
         return targetDirectory;
     }
 
+    @Override
+    public boolean isStreamArchive() {
+        return streamArchive;
+    }
+
+    @Override
+    public boolean isCacheDeployRepository() {
+        return cacheDeployRepository;
+    }
+
+    @Override
+    public boolean isCommitWithoutCheckout() {
+        return commitWithoutCheckout;
+    }
+
+    @Override
+    public boolean isForceRedeploy() {
+        return forceRedeploy;
+    }
+
+    @Override
+    public int getArchiveThreads() {
+        return archiveThreads;
+    }
+
+    @Override
+    public FilePath getPrebuiltArchive() {
+        return prebuiltArchive;
+    }
+
+    @Override
+    public String getPackageDigest() {
+        return packageDigest;
+    }
+
+    @Override
+    public String getDeployRepositoryName() {
+        return deployRepositoryName;
+    }
+
+    @Override
+    public SourceManifest getSourceManifest() {
+        return sourceManifest;
+    }
+
+    @Override
+    public boolean isAgentUpload() {
+        return agentUpload;
+    }
+
+    @Override
+    public DeploymentTimings getTimings() {
+        return timings;
+    }
+
+    @Override
+    public boolean isAsyncDeploy() {
+        return asyncDeploy;
+    }
+
+    @Override
+    public int getAsyncDeployTimeout() {
+        return asyncDeployTimeout;
+    }
+
+    @Override
+    public int getParallelism() {
+        return ftpConnections;
+    }
+
+    @Override
+    public boolean isIncremental() {
+        return incrementalFtpDeploy;
+    }
+
+    @Override
+    public boolean isStagedDeploy() {
+        return stagedFtpDeploy;
+    }
+
+    @Override
+    public void onDeploymentSubmitted(final KuduZipDeployer.Submission submission) {
+        if (submissionListener != null) {
+            submissionListener.onSubmitted(submission);
+        }
+    }
+
     @Override
     public PublishingProfile getPublishingProfile() {
         return pubProfile;
@@ -147,4 +324,14 @@ public class FunctionAppDeploymentCommandContext extends BaseCommandContext
     public WebAppBase getWebAppBase() {
         return functionApp;
     }
+
+    /**
+     * Told when an asynchronous deployment is queued by the function app.
+     */
+    public interface SubmissionListener {
+        /**
+         * @param submission Queued deployment, with the URL of its status to poll until the deployment completes
+         */
+        void onSubmitted(KuduZipDeployer.Submission submission);
+    }
 }
@@ -6,33 +6,81 @@
 
 package com.microsoft.jenkins.function;
 
+import com.microsoft.azure.CloudException;
 import com.microsoft.azure.management.Azure;
 import com.microsoft.azure.management.appservice.FunctionApp;
+import com.microsoft.azure.management.appservice.PublishingProfile;
+import com.microsoft.azure.management.resources.ResourceGroup;
 import com.microsoft.jenkins.appservice.BaseDeploymentRecorder;
-import com.microsoft.jenkins.azurecommons.telemetry.AppInsightsUtils;
 import com.microsoft.jenkins.exceptions.AzureCloudException;
+import com.microsoft.jenkins.function.commands.ZipDeployCommand;
 import com.microsoft.jenkins.function.util.AzureUtils;
 import com.microsoft.jenkins.function.util.Constants;
+import com.microsoft.jenkins.function.util.DeploymentMetrics;
+import com.microsoft.jenkins.function.util.DeploymentTimings;
+import com.microsoft.jenkins.function.util.FunctionAppCache;
+import com.microsoft.jenkins.function.util.ResourceNameCache;
+import com.microsoft.jenkins.function.util.SourceManifest;
 import hudson.AbortException;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Util;
+import hudson.console.LineTransformationOutputStream;
+import hudson.model.AbstractProject;
 import hudson.model.Item;
 import hudson.model.Result;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.util.ListBoxModel;
+import hudson.util.StreamTaskListener;
 import org.apache.commons.lang.StringUtils;
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class FunctionAppDeploymentRecorder extends BaseDeploymentRecorder {
 
+    private static final Logger LOGGER = Logger.getLogger(FunctionAppDeploymentRecorder.class.getName());
+
+    private static final int DEFAULT_MAX_CONCURRENT_DEPLOYMENTS = 8;
+    private static final String TARGET_DEPLOY_REPO_PREFIX = ".azure-deploy-";
+
+    private boolean streamArchive;
+    private boolean cacheDeployRepository;
+    private boolean commitWithoutCheckout;
+    private boolean forceRedeploy;
+    private int archiveThreads;
+    private List<DeploymentTarget> additionalTargets = new ArrayList<>();
+    private int maxConcurrentDeployments;
+    private boolean agentUpload;
+    private boolean asyncDeploy;
+    private int asyncDeployTimeout;
+    private boolean ftpDeploy;
+    private int ftpConnections;
+    private boolean incrementalFtpDeploy;
+    private boolean stagedFtpDeploy;
+
     @DataBoundConstructor
     public FunctionAppDeploymentRecorder(
             final String azureCredentialsId,
@@ -41,12 +89,152 @@ public class FunctionAppDeploymentRecorder extends BaseDeploymentRecorder {
         super(azureCredentialsId, resourceGroup, appName);
     }
 
+    public boolean isStreamArchive() {
+        return streamArchive;
+    }
+
+    @DataBoundSetter
+    public void setStreamArchive(final boolean streamArchive) {
+        this.streamArchive = streamArchive;
+    }
+
+    public boolean isCacheDeployRepository() {
+        return cacheDeployRepository;
+    }
+
+    @DataBoundSetter
+    public void setCacheDeployRepository(final boolean cacheDeployRepository) {
+        this.cacheDeployRepository = cacheDeployRepository;
+    }
+
+    public boolean isCommitWithoutCheckout() {
+        return commitWithoutCheckout;
+    }
+
+    @DataBoundSetter
+    public void setCommitWithoutCheckout(final boolean commitWithoutCheckout) {
+        this.commitWithoutCheckout = commitWithoutCheckout;
+    }
+
+    public boolean isForceRedeploy() {
+        return forceRedeploy;
+    }
+
+    @DataBoundSetter
+    public void setForceRedeploy(final boolean forceRedeploy) {
+        this.forceRedeploy = forceRedeploy;
+    }
+
+    public int getArchiveThreads() {
+        return archiveThreads;
+    }
+
+    @DataBoundSetter
+    public void setArchiveThreads(final int archiveThreads) {
+        this.archiveThreads = archiveThreads;
+    }
+
+    public List<DeploymentTarget> getAdditionalTargets() {
+        return additionalTargets == null ? Collections.<DeploymentTarget>emptyList() : additionalTargets;
+    }
+
+    @DataBoundSetter
+    public void setAdditionalTargets(final List<DeploymentTarget> additionalTargets) {
+        this.additionalTargets = additionalTargets == null
+                ? new ArrayList<DeploymentTarget>() : new ArrayList<>(additionalTargets);
+    }
+
+    public int getMaxConcurrentDeployments() {
+        return maxConcurrentDeployments;
+    }
+
+    @DataBoundSetter
+    public void setMaxConcurrentDeployments(final int maxConcurrentDeployments) {
+        this.maxConcurrentDeployments = maxConcurrentDeployments;
+    }
+
+    public boolean isAgentUpload() {
+        return agentUpload;
+    }
+
+    @DataBoundSetter
+    public void setAgentUpload(final boolean agentUpload) {
+        this.agentUpload = agentUpload;
+    }
+
+    public boolean isAsyncDeploy() {
+        return asyncDeploy;
+    }
+
+    @DataBoundSetter
+    public void setAsyncDeploy(final boolean asyncDeploy) {
+        this.asyncDeploy = asyncDeploy;
+    }
+
+    public int getAsyncDeployTimeout() {
+        return asyncDeployTimeout;
+    }
+
+    @DataBoundSetter
+    public void setAsyncDeployTimeout(final int asyncDeployTimeout) {
+        this.asyncDeployTimeout = asyncDeployTimeout;
+    }
+
+    public boolean isFtpDeploy() {
+        return ftpDeploy;
+    }
+
+    @DataBoundSetter
+    public void setFtpDeploy(final boolean ftpDeploy) {
+        this.ftpDeploy = ftpDeploy;
+    }
+
+    public int getFtpConnections() {
+        return ftpConnections;
+    }
+
+    @DataBoundSetter
+    public void setFtpConnections(final int ftpConnections) {
+        this.ftpConnections = ftpConnections;
+    }
+
+    public boolean isIncrementalFtpDeploy() {
+        return incrementalFtpDeploy;
+    }
+
+    @DataBoundSetter
+    public void setIncrementalFtpDeploy(final boolean incrementalFtpDeploy) {
+        this.incrementalFtpDeploy = incrementalFtpDeploy;
+    }
+
+    public boolean isStagedFtpDeploy() {
+        return stagedFtpDeploy;
+    }
+
+    @DataBoundSetter
+    public void setStagedFtpDeploy(final boolean stagedFtpDeploy) {
+        this.stagedFtpDeploy = stagedFtpDeploy;
+    }
+
     @Override
     public void perform(
             @Nonnull final Run<?, ?> run,
             @Nonnull final FilePath workspace,
             @Nonnull final Launcher launcher,
             @Nonnull final TaskListener listener) throws InterruptedException, IOException {
+        perform(run, workspace, launcher, listener, null);
+    }
+
+    /**
+     * Deploy, telling the listener about asynchronous deployments queued by the function apps.
+     */
+    void perform(
+            final Run<?, ?> run,
+            final FilePath workspace,
+            final Launcher launcher,
+            final TaskListener listener,
+            final FunctionAppDeploymentCommandContext.SubmissionListener submissionListener)
+            throws InterruptedException, IOException {
         // Only deploy on build succeeds
         // Also check if result is null here because in pipeline function app deploy is not run as a post-build action.
         // In this case result is null and pipeline will stop if previous step failed. So no need to check result in
@@ -58,48 +246,268 @@ public class FunctionAppDeploymentRecorder extends BaseDeploymentRecorder {
 
         listener.getLogger().println("Starting Azure Function App Deployment");
 
-        // Get app info
         final Azure azureClient = AzureUtils.buildClient(run.getParent(), getAzureCredentialsId());
-        final String resourceGroup = getResourceGroup();
-        final String appName = getAppName();
-
-        AzureFunctionPlugin.sendEvent(Constants.AI_FUNCTION_APP, Constants.AI_START_DEPLOY,
-                "Run", AppInsightsUtils.hash(run.getUrl()),
-                "Subscription", AppInsightsUtils.hash(azureClient.subscriptionId()),
-                "ResourceGroup", AppInsightsUtils.hash(resourceGroup),
-                "FunctionApp", AppInsightsUtils.hash(appName));
+        final String expandedFilePath = run.getEnvironment(listener).expand(getFilePath());
+        final List<DeploymentTarget> targets = new ArrayList<>();
+        targets.add(new DeploymentTarget(getResourceGroup(), getAppName()));
+        targets.addAll(getAdditionalTargets());
 
-        final FunctionApp app = azureClient.appServices().functionApps().getByResourceGroup(resourceGroup, appName);
-        if (app == null) {
-            throw new AbortException(String.format("Function App %s in resource group %s not found",
-                    appName, resourceGroup));
+        if (targets.size() == 1) {
+            deploy(run, workspace, launcher, listener, azureClient, targets.get(0),
+                    createCommandContext(expandedFilePath, submissionListener));
+            listener.getLogger().println("Done Azure Function App deployment.");
+        } else {
+            deployToAll(run, workspace, launcher, listener, azureClient, targets, expandedFilePath,
+                    submissionListener);
         }
+    }
 
-        final String expandedFilePath = run.getEnvironment(listener).expand(getFilePath());
+    private FunctionAppDeploymentCommandContext createCommandContext(
+            final String expandedFilePath,
+            final FunctionAppDeploymentCommandContext.SubmissionListener submissionListener) {
         final FunctionAppDeploymentCommandContext commandContext =
                 new FunctionAppDeploymentCommandContext(expandedFilePath);
         commandContext.setSourceDirectory(getSourceDirectory());
         commandContext.setTargetDirectory(getTargetDirectory());
+        commandContext.setStreamArchive(isStreamArchive());
+        commandContext.setCommitWithoutCheckout(isCommitWithoutCheckout());
+        commandContext.setCacheDeployRepository(isCacheDeployRepository());
+        commandContext.setArchiveThreads(getArchiveThreads());
+        commandContext.setForceRedeploy(isForceRedeploy());
+        commandContext.setAgentUpload(isAgentUpload());
+        commandContext.setAsyncDeploy(isAsyncDeploy());
+        commandContext.setAsyncDeployTimeout(getAsyncDeployTimeout());
+        commandContext.setSubmissionListener(submissionListener);
+        commandContext.setFtpDeploy(isFtpDeploy());
+        commandContext.setFtpConnections(getFtpConnections());
+        commandContext.setIncrementalFtpDeploy(isIncrementalFtpDeploy());
+        commandContext.setStagedFtpDeploy(isStagedFtpDeploy());
+        return commandContext;
+    }
 
+    private void deploy(
+            final Run<?, ?> run,
+            final FilePath workspace,
+            final Launcher launcher,
+            final TaskListener listener,
+            final Azure azureClient,
+            final DeploymentTarget target,
+            final FunctionAppDeploymentCommandContext commandContext) throws InterruptedException, IOException {
+        // Get app info
+        final String resourceGroup = target.getResourceGroup();
+        final String appName = target.getAppName();
+
+        AzureFunctionPlugin.sendEvent(Constants.AI_FUNCTION_APP, Constants.AI_START_DEPLOY,
+                "Run", AzureFunctionPlugin.hash(run.getUrl()),
+                "Subscription", AzureFunctionPlugin.hash(azureClient.subscriptionId()),
+                "ResourceGroup", AzureFunctionPlugin.hash(resourceGroup),
+                "FunctionApp", AzureFunctionPlugin.hash(appName));
+
+        final FunctionAppCache appCache = FunctionAppCache.get();
+        final String credentialId = getAzureCredentialsId();
+        final String clientScope = AzureUtils.getClientScope(run.getParent(), credentialId);
+        final DeploymentTimings timings = commandContext.getTimings();
+        boolean succeeded = false;
         try {
-            commandContext.configure(run, workspace, launcher, listener, app);
-        } catch (AzureCloudException e) {
-            AzureFunctionPlugin.sendEvent(Constants.AI_FUNCTION_APP, Constants.AI_CONFIGURE_FAILED,
-                    "Run", AppInsightsUtils.hash(run.getUrl()),
-                    "Subscription", AppInsightsUtils.hash(azureClient.subscriptionId()),
-                    "ResourceGroup", AppInsightsUtils.hash(resourceGroup),
-                    "FunctionApp", AppInsightsUtils.hash(appName),
-                    "Message", e.getMessage());
+            final FunctionApp app;
+            final DeploymentTimings.Phase lookup = timings.start("Look up function app");
+            try {
+                app = appCache.getFunctionApp(azureClient, clientScope, resourceGroup, appName);
+            } catch (CloudException e) {
+                if (e.response() != null && (e.response().code() == HttpURLConnection.HTTP_UNAUTHORIZED
+                        || e.response().code() == HttpURLConnection.HTTP_FORBIDDEN)) {
+                    // Don't keep using a client whose token or service principal is no longer valid
+                    AzureUtils.invalidateClient(run.getParent(), credentialId);
+                }
+                throw e;
+            } finally {
+                lookup.end();
+            }
+            if (app == null) {
+                throw new AbortException(String.format("Function App %s in resource group %s not found",
+                        appName, resourceGroup));
+            }
+
+            final DeploymentTimings.Phase profile = timings.start("Get publishing profile");
+            final PublishingProfile pubProfile;
+            try {
+                pubProfile = appCache.getPublishingProfile(azureClient, clientScope, resourceGroup, appName);
+            } finally {
+                profile.end();
+            }
+
+            try {
+                commandContext.configure(run, workspace, launcher, listener, app, pubProfile);
+            } catch (AzureCloudException e) {
+                AzureFunctionPlugin.sendEvent(Constants.AI_FUNCTION_APP, Constants.AI_CONFIGURE_FAILED,
+                        "Run", AzureFunctionPlugin.hash(run.getUrl()),
+                        "Subscription", AzureFunctionPlugin.hash(azureClient.subscriptionId()),
+                        "ResourceGroup", AzureFunctionPlugin.hash(resourceGroup),
+                        "FunctionApp", AzureFunctionPlugin.hash(appName),
+                        "Message", e.getMessage());
+
+                throw new AbortException(e.getMessage());
+            }
+
+            commandContext.executeCommands();
 
-            throw new AbortException(e.getMessage());
+            if (commandContext.getLastCommandState().isError()) {
+                // The publishing credentials may have been reset, fetch them again next time
+                appCache.invalidate(azureClient, clientScope, resourceGroup, appName);
+                throw new AbortException("Azure Function App deployment failed.");
+            }
+            succeeded = true;
+        } finally {
+            run.addAction(new DeploymentTimingsAction(target.toString(), succeeded, timings));
+            DeploymentMetrics.publish(resourceGroup, appName, succeeded, timings);
         }
+    }
 
-        commandContext.executeCommands();
+    /**
+     * Deploy the same package to several function apps in parallel.
+     *
+     * The package of a Java function is archived once and shared by all deployments. Each function app gets its own
+     * command context, and its own deploy repository for Git deployments. Each line logged by a deployment is printed
+     * as it runs, prefixed with its function app, and the build fails if any deployment failed.
+     */
+    private void deployToAll(
+            final Run<?, ?> run,
+            final FilePath workspace,
+            final Launcher launcher,
+            final TaskListener listener,
+            final Azure azureClient,
+            final List<DeploymentTarget> targets,
+            final String expandedFilePath,
+            final FunctionAppDeploymentCommandContext.SubmissionListener submissionListener)
+            throws InterruptedException, IOException {
+        final PrintStream logger = listener.getLogger();
+        FilePath archive = null;
+        String digest = null;
+        final SourceManifest manifest =
+                SourceManifest.scan(workspace.child(Util.fixNull(getSourceDirectory())), expandedFilePath);
+        if (manifest.isJavaFunction() && !isFtpDeploy()) {
+            logger.println(String.format("Building package once for %d function apps", targets.size()));
+            archive = ZipDeployCommand.buildArchive(workspace, getSourceDirectory(), manifest, getArchiveThreads());
+            digest = ZipDeployCommand.computeDigest(workspace, getSourceDirectory(), manifest);
+        }
 
-        if (!commandContext.getLastCommandState().isError()) {
-            listener.getLogger().println("Done Azure Function App deployment.");
-        } else {
-            throw new AbortException("Azure Function App deployment failed.");
+        final int concurrency = Math.min(targets.size(),
+                maxConcurrentDeployments > 0 ? maxConcurrentDeployments : DEFAULT_MAX_CONCURRENT_DEPLOYMENTS);
+        logger.println(String.format("Deploying to %d function apps, %d at a time", targets.size(), concurrency));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        final Map<DeploymentTarget, Future<DeploymentResult>> results = new LinkedHashMap<>();
+        try {
+            for (final DeploymentTarget target : targets) {
+                final FunctionAppDeploymentCommandContext commandContext =
+                        createCommandContext(expandedFilePath, submissionListener);
+                commandContext.setSourceManifest(manifest);
+                commandContext.setPrebuiltArchive(archive);
+                commandContext.setPackageDigest(digest);
+                commandContext.setDeployRepositoryName(TARGET_DEPLOY_REPO_PREFIX + target.getAppName());
+                results.put(target, executor.submit(new Callable<DeploymentResult>() {
+                    @Override
+                    public DeploymentResult call() throws IOException {
+                        final TaskListener targetListener = new StreamTaskListener(
+                                new TargetLogStream(logger, "[" + target + "] "), StandardCharsets.UTF_8);
+                        try {
+                            deploy(run, workspace, launcher, targetListener, azureClient, target, commandContext);
+                            return DeploymentResult.succeeded();
+                        } catch (Exception e) {
+                            return DeploymentResult.failed(e);
+                        } finally {
+                            // Print the last line even if it wasn't terminated
+                            targetListener.getLogger().close();
+                        }
+                    }
+                }));
+            }
+
+            final List<String> failed = new ArrayList<>();
+            logger.println("Azure Function App deployment summary:");
+            for (final Map.Entry<DeploymentTarget, Future<DeploymentResult>> entry : results.entrySet()) {
+                DeploymentResult result;
+                try {
+                    result = entry.getValue().get();
+                } catch (ExecutionException e) {
+                    result = DeploymentResult.failed(e.getCause());
+                }
+                if (result.isFailed()) {
+                    logger.println("  " + entry.getKey() + ": failed: " + result.getErrorMessage());
+                    failed.add(entry.getKey().toString());
+                } else {
+                    logger.println("  " + entry.getKey() + ": succeeded");
+                }
+            }
+
+            if (!failed.isEmpty()) {
+                throw new AbortException(String.format("Azure Function App deployment failed for %d of %d "
+                        + "function apps: %s", failed.size(), targets.size(), StringUtils.join(failed, ", ")));
+            }
+            logger.println("Done Azure Function App deployment.");
+        } finally {
+            executor.shutdownNow();
+            if (archive != null) {
+                archive.getParent().deleteRecursive();
+            }
+        }
+    }
+
+    /**
+     * Outcome of the deployment to one function app.
+     */
+    private static final class DeploymentResult {
+        private final boolean failed;
+        private final Throwable error;
+
+        private DeploymentResult(final boolean failed, final Throwable error) {
+            this.failed = failed;
+            this.error = error;
+        }
+
+        static DeploymentResult succeeded() {
+            return new DeploymentResult(false, null);
+        }
+
+        static DeploymentResult failed(final Throwable error) {
+            return new DeploymentResult(true, error);
+        }
+
+        boolean isFailed() {
+            return failed;
+        }
+
+        /**
+         * @return Message of the error, or the error itself when it has no message, as a bare NullPointerException
+         */
+        String getErrorMessage() {
+            if (error == null) {
+                return "unknown error";
+            }
+            return StringUtils.defaultIfBlank(error.getMessage(), error.toString());
+        }
+    }
+
+    /**
+     * Print the log of one deployment into the build log line by line, prefixed with the function app, so the
+     * lines of concurrent deployments don't interleave.
+     */
+    private static final class TargetLogStream extends LineTransformationOutputStream {
+        private final PrintStream logger;
+        private final byte[] prefix;
+
+        TargetLogStream(final PrintStream logger, final String prefix) {
+            this.logger = logger;
+            this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        protected void eol(final byte[] b, final int len) {
+            synchronized (logger) {
+                logger.write(prefix, 0, prefix.length);
+                logger.write(b, 0, len);
+                logger.flush();
+            }
         }
     }
 
@@ -121,23 +529,112 @@ public class FunctionAppDeploymentRecorder extends BaseDeploymentRecorder {
             return listAzureCredentialsIdItems(owner);
         }
 
-        public ListBoxModel doFillResourceGroupItems(@AncestorInPath Item owner,
-                                                     @QueryParameter String azureCredentialsId) {
-            return listResourceGroupItems(owner, azureCredentialsId);
+        public ListBoxModel doFillResourceGroupItems(@AncestorInPath final Item owner,
+                                                     @QueryParameter final String azureCredentialsId)
+                throws InterruptedException {
+            if (StringUtils.isBlank(azureCredentialsId)) {
+                return new ListBoxModel(new ListBoxModel.Option(Constants.EMPTY_SELECTION, ""));
+            }
+            final FunctionAppDeploymentRecorder configured = getConfiguredRecorder(owner);
+            final String current = configured != null
+                    && azureCredentialsId.equals(configured.getAzureCredentialsId())
+                    ? configured.getResourceGroup() : null;
+            return listNames(owner, azureCredentialsId, null, current, new Callable<List<String>>() {
+                @Override
+                public List<String> call() {
+                    final Azure azureClient = AzureUtils.buildClient(owner, azureCredentialsId);
+                    final List<String> names = new ArrayList<>();
+                    for (ResourceGroup group : azureClient.resourceGroups().list()) {
+                        names.add(group.name());
+                    }
+                    return names;
+                }
+            });
+        }
+
+        public ListBoxModel doFillAppNameItems(@AncestorInPath final Item owner,
+                                               @QueryParameter final String azureCredentialsId,
+                                               @QueryParameter final String resourceGroup)
+                throws InterruptedException {
+            if (StringUtils.isBlank(azureCredentialsId) || StringUtils.isBlank(resourceGroup)) {
+                return new ListBoxModel(new ListBoxModel.Option(Constants.EMPTY_SELECTION, ""));
+            }
+            final FunctionAppDeploymentRecorder configured = getConfiguredRecorder(owner);
+            final String current = configured != null
+                    && azureCredentialsId.equals(configured.getAzureCredentialsId())
+                    && resourceGroup.equals(configured.getResourceGroup())
+                    ? configured.getAppName() : null;
+            return listNames(owner, azureCredentialsId, resourceGroup, current, new Callable<List<String>>() {
+                @Override
+                public List<String> call() {
+                    final Azure azureClient = AzureUtils.buildClient(owner, azureCredentialsId);
+                    final List<String> names = new ArrayList<>();
+                    for (FunctionApp app : azureClient.appServices().functionApps()
+                            .listByResourceGroup(resourceGroup)) {
+                        names.add(app.name());
+                    }
+                    return names;
+                }
+            });
+        }
+
+        /**
+         * @return The recorder saved in the configuration of a freestyle project, if any
+         */
+        private static FunctionAppDeploymentRecorder getConfiguredRecorder(final Item owner) {
+            if (owner instanceof AbstractProject) {
+                return ((AbstractProject<?, ?>) owner).getPublishersList().get(FunctionAppDeploymentRecorder.class);
+            }
+            return null;
         }
 
-        public ListBoxModel doFillAppNameItems(@AncestorInPath Item owner,
-                                               @QueryParameter String azureCredentialsId,
-                                               @QueryParameter String resourceGroup) {
+        /**
+         * List names through the controller-wide cache, so rendering a configuration page doesn't wait for Azure
+         * more than briefly. While names are loading, the page fills the dropdown again until they are listed. The
+         * currently configured name stays selected while names are loading or can't be listed, so that saving the
+         * page meanwhile doesn't clear it.
+         */
+        private static ListBoxModel listNames(
+                final Item owner,
+                final String azureCredentialsId,
+                final String resourceGroup,
+                final String current,
+                final Callable<List<String>> lister) throws InterruptedException {
             final ListBoxModel model = new ListBoxModel(new ListBoxModel.Option(Constants.EMPTY_SELECTION, ""));
-            if (StringUtils.isNotBlank(azureCredentialsId) && StringUtils.isNotBlank(resourceGroup)) {
-                final Azure azureClient = AzureUtils.buildClient(owner, azureCredentialsId);
-                for (FunctionApp app : azureClient.appServices().functionApps().listByResourceGroup(resourceGroup)) {
-                    model.add(app.name());
+            final String key;
+            try {
+                // Names listed with an older version of the credential are not served once it is updated
+                key = AzureUtils.getClientScope(owner, azureCredentialsId) + "/"
+                        + StringUtils.defaultString(resourceGroup);
+            } catch (IllegalStateException e) {
+                LOGGER.log(Level.WARNING, "Fail to read Azure credential " + azureCredentialsId, e);
+                addCurrent(model, current);
+                return model;
+            }
+            try {
+                final List<String> names = ResourceNameCache.get().getNames(key, lister);
+                if (names == null) {
+                    addCurrent(model, current);
+                    model.add(new ListBoxModel.Option(Constants.LOADING_SELECTION, ""));
+                    return model;
+                }
+                final List<String> sorted = new ArrayList<>(names);
+                Collections.sort(sorted, String.CASE_INSENSITIVE_ORDER);
+                for (final String name : sorted) {
+                    model.add(name);
                 }
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.WARNING, String.format("Fail to list Azure resources of credential %s%s",
+                        azureCredentialsId, resourceGroup == null ? "" : " in " + resourceGroup), e.getCause());
+                addCurrent(model, current);
             }
             return model;
         }
 
+        private static void addCurrent(final ListBoxModel model, final String current) {
+            if (StringUtils.isNotBlank(current)) {
+                model.add(new ListBoxModel.Option(current, current, true));
+            }
+        }
     }
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function;
+
+import com.google.common.collect.ImmutableSet;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Item;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.ListBoxModel;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.AncestorInPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import java.util.Set;
+
+/**
+ * Pipeline step deploying to a function app without holding a thread of the pipeline while the deployment runs.
+ *
+ * The network-bound work runs on a pool shared by all the builds, see {@link FunctionAppDeploymentStepExecution}.
+ * The package of a Java function is deployed asynchronously, so the step can resume polling the deployment status
+ * after a restart of Jenkins.
+ */
+public class FunctionAppDeploymentStep extends Step {
+
+    private final String azureCredentialsId;
+    private final String resourceGroup;
+    private final String appName;
+    private String filePath;
+    private String sourceDirectory;
+    private String targetDirectory;
+    private boolean forceRedeploy;
+    private int archiveThreads;
+    private boolean agentUpload;
+    private int asyncDeployTimeout;
+
+    @DataBoundConstructor
+    public FunctionAppDeploymentStep(
+            final String azureCredentialsId,
+            final String resourceGroup,
+            final String appName) {
+        this.azureCredentialsId = azureCredentialsId;
+        this.resourceGroup = resourceGroup;
+        this.appName = appName;
+    }
+
+    public String getAzureCredentialsId() {
+        return azureCredentialsId;
+    }
+
+    public String getResourceGroup() {
+        return resourceGroup;
+    }
+
+    public String getAppName() {
+        return appName;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    @DataBoundSetter
+    public void setFilePath(final String filePath) {
+        this.filePath = filePath;
+    }
+
+    public String getSourceDirectory() {
+        return sourceDirectory;
+    }
+
+    @DataBoundSetter
+    public void setSourceDirectory(final String sourceDirectory) {
+        this.sourceDirectory = sourceDirectory;
+    }
+
+    public String getTargetDirectory() {
+        return targetDirectory;
+    }
+
+    @DataBoundSetter
+    public void setTargetDirectory(final String targetDirectory) {
+        this.targetDirectory = targetDirectory;
+    }
+
+    public boolean isForceRedeploy() {
+        return forceRedeploy;
+    }
+
+    @DataBoundSetter
+    public void setForceRedeploy(final boolean forceRedeploy) {
+        this.forceRedeploy = forceRedeploy;
+    }
+
+    public int getArchiveThreads() {
+        return archiveThreads;
+    }
+
+    @DataBoundSetter
+    public void setArchiveThreads(final int archiveThreads) {
+        this.archiveThreads = archiveThreads;
+    }
+
+    public boolean isAgentUpload() {
+        return agentUpload;
+    }
+
+    @DataBoundSetter
+    public void setAgentUpload(final boolean agentUpload) {
+        this.agentUpload = agentUpload;
+    }
+
+    public int getAsyncDeployTimeout() {
+        return asyncDeployTimeout;
+    }
+
+    @DataBoundSetter
+    public void setAsyncDeployTimeout(final int asyncDeployTimeout) {
+        this.asyncDeployTimeout = asyncDeployTimeout;
+    }
+
+    /**
+     * @return Recorder doing the deployment, deploying the package of Java functions asynchronously
+     */
+    FunctionAppDeploymentRecorder createRecorder() {
+        final FunctionAppDeploymentRecorder recorder =
+                new FunctionAppDeploymentRecorder(azureCredentialsId, resourceGroup, appName);
+        recorder.setFilePath(filePath);
+        recorder.setSourceDirectory(sourceDirectory);
+        recorder.setTargetDirectory(targetDirectory);
+        recorder.setForceRedeploy(forceRedeploy);
+        recorder.setArchiveThreads(archiveThreads);
+        recorder.setAgentUpload(agentUpload);
+        recorder.setAsyncDeploy(true);
+        recorder.setAsyncDeployTimeout(asyncDeployTimeout);
+        return recorder;
+    }
+
+    @Override
+    public StepExecution start(final StepContext context) throws Exception {
+        return new FunctionAppDeploymentStepExecution(this, context);
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public String getFunctionName() {
+            return "azureFunctionAppDeploy";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Deploy to an Azure Function App";
+        }
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(Run.class, FilePath.class, Launcher.class, TaskListener.class);
+        }
+
+        public ListBoxModel doFillAzureCredentialsIdItems(@AncestorInPath final Item owner) {
+            return getRecorderDescriptor().doFillAzureCredentialsIdItems(owner);
+        }
+
+        public ListBoxModel doFillResourceGroupItems(@AncestorInPath final Item owner,
+                                                     @QueryParameter final String azureCredentialsId)
+                throws InterruptedException {
+            return getRecorderDescriptor().doFillResourceGroupItems(owner, azureCredentialsId);
+        }
+
+        public ListBoxModel doFillAppNameItems(@AncestorInPath final Item owner,
+                                               @QueryParameter final String azureCredentialsId,
+                                               @QueryParameter final String resourceGroup)
+                throws InterruptedException {
+            return getRecorderDescriptor().doFillAppNameItems(owner, azureCredentialsId, resourceGroup);
+        }
+
+        private static FunctionAppDeploymentRecorder.DescriptorImpl getRecorderDescriptor() {
+            return Jenkins.getInstance().getDescriptorByType(FunctionAppDeploymentRecorder.DescriptorImpl.class);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function;
+
+import com.microsoft.azure.management.Azure;
+import com.microsoft.azure.management.appservice.PublishingProfile;
+import com.microsoft.jenkins.function.commands.ZipDeployCommand;
+import com.microsoft.jenkins.function.util.AzureUtils;
+import com.microsoft.jenkins.function.util.DeploymentStatusPoller;
+import com.microsoft.jenkins.function.util.FunctionAppCache;
+import com.microsoft.jenkins.function.util.KuduZipDeployer;
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Run a deployment to a function app on a pool shared by all the builds, rather than on a thread of the pipeline.
+ *
+ * The pool is bounded, so many concurrent deployments queue up instead of each holding a thread. Once the function
+ * app has queued the deployment, the URL of its status is kept with the execution and saved with the build right
+ * away, as the execution itself is only saved with the program. If Jenkins restarts while the deployment runs,
+ * polling resumes from that URL; if it restarts before, the step fails and can be run again.
+ */
+public class FunctionAppDeploymentStepExecution extends StepExecution {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int POOL_SIZE =
+            Integer.getInteger(FunctionAppDeploymentStepExecution.class.getName() + ".poolSize", 10);
+
+    private static final long POOL_KEEP_ALIVE_SECONDS = 60;
+
+    private static final ExecutorService POOL = createPool();
+
+    private final transient FunctionAppDeploymentStep step;
+    private final String azureCredentialsId;
+    private final String resourceGroup;
+    private final String appName;
+    private final int asyncDeployTimeout;
+    private final String id = UUID.randomUUID().toString();
+    private volatile KuduZipDeployer.Submission submission;
+
+    private transient volatile Future<?> task;
+    private transient AtomicBoolean done;
+
+    FunctionAppDeploymentStepExecution(final FunctionAppDeploymentStep step, final StepContext context) {
+        super(context);
+        this.step = step;
+        this.azureCredentialsId = step.getAzureCredentialsId();
+        this.resourceGroup = step.getResourceGroup();
+        this.appName = step.getAppName();
+        this.asyncDeployTimeout = step.getAsyncDeployTimeout();
+    }
+
+    @Override
+    public boolean start() throws Exception {
+        final StepContext context = getContext();
+        final Run<?, ?> run = context.get(Run.class);
+        final FilePath workspace = context.get(FilePath.class);
+        final Launcher launcher = context.get(Launcher.class);
+        final TaskListener listener = context.get(TaskListener.class);
+        final FunctionAppDeploymentRecorder recorder = step.createRecorder();
+        submit(new Work() {
+            @Override
+            public void run() throws Exception {
+                recorder.perform(run, workspace, launcher, listener,
+                        new FunctionAppDeploymentCommandContext.SubmissionListener() {
+                            @Override
+                            public void onSubmitted(final KuduZipDeployer.Submission queued) {
+                                submission = queued;
+                                try {
+                                    run.addAction(new DeploymentSubmissionAction(id, queued));
+                                    run.save();
+                                } catch (IOException e) {
+                                    listener.getLogger().println("Fail to save the deployment status URL, the "
+                                            + "step can't resume after a restart: " + e.getMessage());
+                                }
+                            }
+                        });
+            }
+        });
+        return false;
+    }
+
+    @Override
+    public void onResume() {
+        if (submission == null) {
+            try {
+                submission = findSavedSubmission();
+            } catch (IOException | InterruptedException e) {
+                complete(e);
+                return;
+            }
+        }
+        if (submission == null) {
+            complete(new AbortException(String.format("Deployment to function app %s/%s was interrupted by a "
+                    + "restart of Jenkins before the package was accepted, run it again", resourceGroup, appName)));
+            return;
+        }
+        submit(new Work() {
+            @Override
+            public void run() throws Exception {
+                waitForDeployment();
+            }
+        });
+    }
+
+    @Override
+    public void stop(@Nonnull final Throwable cause) throws Exception {
+        // Report the cause before interrupting the work, which would otherwise fail with its own error
+        complete(cause);
+        final Future<?> running = task;
+        if (running != null) {
+            running.cancel(true);
+        }
+    }
+
+    @Override
+    public String getStatus() {
+        final KuduZipDeployer.Submission queued = submission;
+        return queued == null
+                ? String.format("Deploying to function app %s/%s", resourceGroup, appName)
+                : "Waiting for deployment " + queued.getStatusUrl();
+    }
+
+    private void waitForDeployment() throws Exception {
+        final Run<?, ?> run = getContext().get(Run.class);
+        final TaskListener listener = getContext().get(TaskListener.class);
+        listener.getLogger().println("Resume waiting for deployment " + submission.getStatusUrl());
+
+        final Azure azureClient = AzureUtils.buildClient(run.getParent(), azureCredentialsId);
+        final PublishingProfile profile = FunctionAppCache.get().getPublishingProfile(azureClient,
+                AzureUtils.getClientScope(run.getParent(), azureCredentialsId), resourceGroup, appName);
+        final DeploymentStatusPoller poller =
+                new DeploymentStatusPoller(KuduZipDeployer.fromPublishingProfile(profile));
+        try {
+            poller.waitFor(submission, ZipDeployCommand.getAsyncDeployTimeoutMillis(asyncDeployTimeout), null);
+        } finally {
+            listener.getLogger().println(String.format("Deployment status after %d polls: %s",
+                    poller.getPolls(), poller.getHistory()));
+        }
+        listener.getLogger().println("Done Azure Function App deployment.");
+    }
+
+    /**
+     * @return Submission saved with the build in case the execution wasn't saved since, or null if none
+     */
+    private KuduZipDeployer.Submission findSavedSubmission() throws IOException, InterruptedException {
+        final Run<?, ?> run = getContext().get(Run.class);
+        if (run == null) {
+            return null;
+        }
+        for (final DeploymentSubmissionAction action : run.getActions(DeploymentSubmissionAction.class)) {
+            if (id.equals(action.getExecutionId())) {
+                return action.getSubmission();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Named daemon threads, so deployments can be told apart in thread dumps and never keep Jenkins from exiting.
+     * Threads stop once idle, so none is held between deployments.
+     */
+    private static ExecutorService createPool() {
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+                POOL_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new NamingThreadFactory(new DaemonThreadFactory(),
+                        FunctionAppDeploymentStepExecution.class.getSimpleName()));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private void submit(final Work work) {
+        done = new AtomicBoolean();
+        task = POOL.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    work.run();
+                    complete(null);
+                } catch (Exception e) {
+                    complete(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Report the outcome of the step once, whether it completes or is stopped first.
+     */
+    private void complete(final Throwable failure) {
+        if (done != null && !done.compareAndSet(false, true)) {
+            return;
+        }
+        if (failure == null) {
+            getContext().onSuccess(null);
+        } else {
+            getContext().onFailure(failure);
+        }
+    }
+
+    private interface Work {
+        void run() throws Exception;
+    }
+}
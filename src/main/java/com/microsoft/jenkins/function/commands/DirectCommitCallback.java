@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.jenkins.function.commands;
+
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.UserConfig;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.FS;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Commit the selected source files to a branch of the deploy repository without a working tree.
+ *
+ * Every file is streamed from the source directory into a blob, so nothing is copied or checked out and file content
+ * is never held in memory as a whole. The tree is built from an in-core index, which leaves the repository's own
+ * index and working tree untouched.
+ */
+final class DirectCommitCallback implements RepositoryCallback<ObjectId> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String sourceDirectory;
+    private final String targetDirectory;
+    private final String filesPattern;
+    private final String parentRef;
+    private final String branchRef;
+    private final String message;
+
+    /**
+     * @param sourceDirectory Absolute path of the source directory, on the node holding the repository
+     * @param targetDirectory Directory inside the repository the files are deployed to
+     * @param filesPattern    Ant pattern of the source files to deploy
+     * @param parentRef       Ref of the commit to build on, e.g. the fetched remote branch. Ignored if it doesn't exist
+     * @param branchRef       Full name of the branch to point to the new commit
+     * @param message         Commit message
+     */
+    DirectCommitCallback(
+            final String sourceDirectory,
+            final String targetDirectory,
+            final String filesPattern,
+            final String parentRef,
+            final String branchRef,
+            final String message) {
+        this.sourceDirectory = sourceDirectory;
+        this.targetDirectory = targetDirectory;
+        this.filesPattern = filesPattern;
+        this.parentRef = parentRef;
+        this.branchRef = branchRef;
+        this.message = message;
+    }
+
+    /**
+     * Build the commit and point the branch to it.
+     *
+     * @return Id of the new commit, or null if the files are the same as in the parent commit
+     */
+    @Override
+    public ObjectId invoke(final Repository repo, final VirtualChannel channel)
+            throws IOException, InterruptedException {
+        final File sourceDir = new File(sourceDirectory);
+        final String prefix = SyncWorkingTreeCallback.getPathPrefix(targetDirectory);
+        final String[] files = sourceDir.isDirectory()
+                ? Util.createFileSet(sourceDir, filesPattern).getDirectoryScanner().getIncludedFiles()
+                : new String[0];
+        final ObjectId parent = repo.resolve(parentRef);
+        final FS fs = repo.getFS();
+
+        try (ObjectInserter inserter = repo.newObjectInserter();
+             RevWalk walk = new RevWalk(repo)) {
+            final DirCache dc = DirCache.newInCore();
+            final DirCacheBuilder builder = dc.builder();
+            for (final String file : files) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                final File source = new File(sourceDir, file);
+                final long length = source.length();
+                final DirCacheEntry entry = new DirCacheEntry(prefix + file.replace(File.separatorChar, '/'));
+                entry.setFileMode(fs.supportsExecute() && fs.canExecute(source) ? FileMode.EXECUTABLE_FILE
+                        : FileMode.REGULAR_FILE);
+                entry.setLength(length);
+                entry.setLastModified(source.lastModified());
+                try (InputStream stream = new FileInputStream(source)) {
+                    entry.setObjectId(inserter.insert(Constants.OBJ_BLOB, length, stream));
+                }
+                builder.add(entry);
+            }
+            builder.finish();
+            final ObjectId tree = dc.writeTree(inserter);
+
+            if (parent != null && walk.parseCommit(parent).getTree().equals(tree)) {
+                return null;
+            }
+
+            final UserConfig userConfig = repo.getConfig().get(UserConfig.KEY);
+            final CommitBuilder commit = new CommitBuilder();
+            commit.setTreeId(tree);
+            if (parent != null) {
+                commit.setParentId(parent);
+            }
+            commit.setAuthor(new PersonIdent(userConfig.getAuthorName(), userConfig.getAuthorEmail()));
+            commit.setCommitter(new PersonIdent(userConfig.getCommitterName(), userConfig.getCommitterEmail()));
+            commit.setMessage(message);
+            final ObjectId commitId = inserter.insert(commit);
+            inserter.flush();
+
+            final RefUpdate update = repo.updateRef(branchRef);
+            update.setNewObjectId(commitId);
+            update.setRefLogMessage("commit: " + message, false);
+            final RefUpdate.Result result = update.forceUpdate();
+            switch (result) {
+                case NEW:
+                case FORCED:
+                case FAST_FORWARD:
+                    return commitId;
+                default:
+                    throw new IOException("Fail to update " + branchRef + ": " + result);
+            }
+        }
+    }
+}
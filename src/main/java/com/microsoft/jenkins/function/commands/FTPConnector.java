@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.jenkins.function.commands;
+
+import org.apache.commons.net.ftp.FTPClient;
+
+import java.io.IOException;
+
+/**
+ * Opens and closes the FTP connections of a pool, logged in and in binary mode.
+ */
+interface FTPConnector {
+
+    FTPClient open() throws IOException;
+
+    void close(FTPClient ftpClient);
+}
@@ -7,32 +7,39 @@ package com.microsoft.jenkins.function.commands;
 
 import com.microsoft.azure.management.appservice.PublishingProfile;
 import com.microsoft.azure.management.appservice.WebAppBase;
+import com.microsoft.azure.management.resources.fluentcore.model.Refreshable;
 import com.microsoft.jenkins.azurecommons.command.CommandState;
 import com.microsoft.jenkins.azurecommons.command.IBaseCommandData;
 import com.microsoft.jenkins.azurecommons.command.ICommand;
-import com.microsoft.jenkins.azurecommons.telemetry.AppInsightsUtils;
 import com.microsoft.jenkins.function.AzureFunctionPlugin;
 import com.microsoft.jenkins.function.util.Constants;
-import com.microsoft.jenkins.function.util.FilePathUtils;
+import com.microsoft.jenkins.function.util.DeploymentTimings;
 import hudson.FilePath;
 import hudson.Util;
 import hudson.model.TaskListener;
 import jenkins.security.MasterToSlaveCallable;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
-import org.apache.commons.net.ftp.FTPFile;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
-@Deprecated
 public class FTPDeployCommand implements ICommand<FTPDeployCommand.IFTPDeployCommandData> {
 
     private static final String SITE_ROOT = "/site/wwwroot/";
-    private static final int MAX_RETRY = 10;
-    private static final int RETRY_INTERVAL = 1000;
+    private static final int DEFAULT_PARALLELISM = 4;
+    private static final String MANIFEST_NAME = ".azure-deploy-manifest.json";
     private static final String STATE_STOPPED = "Stopped";
+    private static final String STAGING_SUFFIX = ".staging";
+    private static final String OLD_SUFFIX = ".old";
 
     // Java specific
     private static final String TOMCAT_ROOT_WAR = SITE_ROOT + "webapps/ROOT.war";
@@ -69,56 +76,348 @@ public class FTPDeployCommand implements ICommand<FTPDeployCommand.IFTPDeployCom
             ftpUrl = ftpUrl.substring(0, splitIndex);
         }
 
-        // Stop app first to make sure all opening handlers released
-        boolean isStoppedBeforeDeployment = context.getWebAppBase().state().equals(STATE_STOPPED);
-        if (!isStoppedBeforeDeployment) {
+        final DeploymentTimings timings = DeploymentTimings.nonNull(context.getTimings());
+        final boolean staged = context.isStagedDeploy();
+        if (staged && isSiteRoot(context.getTargetDirectory())) {
+            // The swap renames the target directory, which must not be the site root itself
+            context.logError("Staged FTP deployment needs a target directory under " + SITE_ROOT
+                    + ", as the target directory is replaced as a whole");
+            return;
+        }
+        // Whatever gets uploaded replaces the package ZipDeploy left, even if the upload fails halfway
+        ZipDeployCommand.invalidateDigest(context.getWebAppBase());
+
+        final String liveDirectory = getAbsoluteDirectory(context.getTargetDirectory());
+        final String uploadDirectory = staged
+                ? liveDirectory + STAGING_SUFFIX : SITE_ROOT + Util.fixNull(context.getTargetDirectory());
+
+        // Stop app first to make sure all opening handlers released, unless only the swap needs it
+        boolean isStoppedBeforeDeployment = getCurrentState(context.getWebAppBase()).equals(STATE_STOPPED);
+        if (!isStoppedBeforeDeployment && !staged) {
+            final DeploymentTimings.Phase stop = timings.start("Stop app");
             context.getWebAppBase().stop();
+            stop.end();
         }
 
         try {
-            workspace.act(new FTPDeployCommandOnSlave(
+            final DeploymentTimings.Phase transfer = timings.start("FTP transfer");
+            final long bytes = workspace.act(new FTPDeployCommandOnSlave(
                     context.getJobContext().getTaskListener(),
                     ftpUrl,
                     pubProfile.ftpUsername(),
                     pubProfile.ftpPassword(),
                     workspace,
                     context.getSourceDirectory(),
-                    context.getTargetDirectory(),
-                    context.getFilePath()
+                    uploadDirectory,
+                    context.getFilePath(),
+                    context.getParallelism(),
+                    context.isIncremental(),
+                    staged ? liveDirectory + OLD_SUFFIX : null
             ));
+            transfer.end().addBytes(bytes);
+
+            if (staged) {
+                swap(context, ftpUrl, liveDirectory, isStoppedBeforeDeployment, timings);
+            }
 
             context.setCommandState(CommandState.Success);
             AzureFunctionPlugin.sendEvent(Constants.AI_FUNCTION_APP, Constants.AI_FTP_DEPLOY,
-                    "Run", AppInsightsUtils.hash(context.getJobContext().getRun().getUrl()),
-                    "ResourceGroup", AppInsightsUtils.hash(context.getWebAppBase().resourceGroupName()),
-                    "FunctionApp", AppInsightsUtils.hash(context.getWebAppBase().name()));
+                    "Run", AzureFunctionPlugin.hash(context.getJobContext().getRun().getUrl()),
+                    "ResourceGroup", AzureFunctionPlugin.hash(context.getWebAppBase().resourceGroupName()),
+                    "FunctionApp", AzureFunctionPlugin.hash(context.getWebAppBase().name()));
         } catch (IOException | FTPException e) {
             context.logError("Fail to deploy to FTP: ", e);
             AzureFunctionPlugin.sendEvent(Constants.AI_FUNCTION_APP, Constants.AI_FTP_DEPLOY_FAILED,
-                    "Run", AppInsightsUtils.hash(context.getJobContext().getRun().getUrl()),
-                    "ResourceGroup", AppInsightsUtils.hash(context.getWebAppBase().resourceGroupName()),
-                    "FunctionApp", AppInsightsUtils.hash(context.getWebAppBase().name()),
+                    "Run", AzureFunctionPlugin.hash(context.getJobContext().getRun().getUrl()),
+                    "ResourceGroup", AzureFunctionPlugin.hash(context.getWebAppBase().resourceGroupName()),
+                    "FunctionApp", AzureFunctionPlugin.hash(context.getWebAppBase().name()),
                     "Message", e.getMessage());
         } catch (InterruptedException e) {
             context.logError("Interrupted: ", e);
             Thread.currentThread().interrupt();
+        } finally {
+            if (!isStoppedBeforeDeployment && !staged) {
+                final DeploymentTimings.Phase start = timings.start("Start app");
+                context.getWebAppBase().start();
+                start.end();
+            }
+        }
+    }
+
+    /**
+     * Put the staged tree in place of the live one, stopping the app only around the renames, then remove the
+     * previous tree while the app runs again.
+     */
+    private void swap(
+            final IFTPDeployCommandData context,
+            final String ftpUrl,
+            final String liveDirectory,
+            final boolean isStoppedBeforeDeployment,
+            final DeploymentTimings timings) throws IOException, FTPException, InterruptedException {
+        final FilePath workspace = context.getJobContext().getWorkspace();
+        final PublishingProfile pubProfile = context.getPublishingProfile();
+        final String oldDirectory = liveDirectory + OLD_SUFFIX;
+
+        final DeploymentTimings.Phase swap = timings.start("Swap");
+        final long stoppedAt = System.nanoTime();
+        if (!isStoppedBeforeDeployment) {
+            context.getWebAppBase().stop();
+        }
+        try {
+            workspace.act(new FTPSwapOnSlave(context.getJobContext().getTaskListener(), ftpUrl,
+                    pubProfile.ftpUsername(), pubProfile.ftpPassword(),
+                    liveDirectory + STAGING_SUFFIX, liveDirectory, oldDirectory));
         } finally {
             if (!isStoppedBeforeDeployment) {
                 context.getWebAppBase().start();
             }
+            swap.end();
+            if (!isStoppedBeforeDeployment) {
+                context.logStatus(String.format("Function app was stopped for %s during the swap",
+                        Util.getTimeSpanString(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stoppedAt))));
+            }
+        }
+
+        // The new tree is live, failing to clean up the previous one must not fail the deployment
+        final DeploymentTimings.Phase cleanup = timings.start("Remove previous tree");
+        try {
+            workspace.act(new FTPRemoveTreeOnSlave(context.getJobContext().getTaskListener(), ftpUrl,
+                    pubProfile.ftpUsername(), pubProfile.ftpPassword(), oldDirectory, context.getParallelism()));
+        } catch (IOException | FTPException e) {
+            context.logStatus("Fail to remove previous tree " + oldDirectory + ", it is removed by the next "
+                    + "staged deployment: " + e.getMessage());
+        } finally {
+            cleanup.end();
+        }
+    }
+
+    /**
+     * Read the state of a function app as it is now. The app may come from a cache and be minutes old, while it may
+     * have been stopped or started since.
+     *
+     * @param app Function app
+     * @return Current state of the app
+     */
+    static String getCurrentState(final WebAppBase app) {
+        if (app instanceof Refreshable) {
+            ((Refreshable<?>) app).refresh();
         }
+        return app.state();
     }
 
-    private static final class FTPDeployCommandOnSlave extends MasterToSlaveCallable<Void, FTPException> {
+    /**
+     * @param targetDirectory Target directory, relative to the site root
+     * @return Whether the target directory is the site root itself
+     */
+    static boolean isSiteRoot(final String targetDirectory) {
+        return StringUtils.strip(Util.fixNull(targetDirectory).trim(), "/.").isEmpty();
+    }
+
+    /**
+     * @param targetDirectory Target directory, relative to the site root
+     * @return Absolute path of the directory, without trailing slash
+     */
+    static String getAbsoluteDirectory(final String targetDirectory) {
+        final String dir = SITE_ROOT + Util.fixNull(targetDirectory);
+        return dir.endsWith("/") ? dir.substring(0, dir.length() - 1) : dir;
+    }
 
-        private final TaskListener listener;
+    /**
+     * Callable holding the FTP connection settings, to run on the node connecting to the function app.
+     */
+    private abstract static class FTPCallable<V> extends MasterToSlaveCallable<V, FTPException> {
+
+        private static final long serialVersionUID = 1L;
+
+        protected final TaskListener listener;
         private final String ftpUrl;
         private final String ftpUserName;
         private final String ftpPassword;
+
+        FTPCallable(
+                final TaskListener listener,
+                final String ftpUrl,
+                final String ftpUserName,
+                final String ftpPassword) {
+            this.listener = listener;
+            this.ftpUrl = ftpUrl;
+            this.ftpUserName = ftpUserName;
+            this.ftpPassword = ftpPassword;
+        }
+
+        protected FTPClient connect() throws IOException, FTPException {
+            final FTPClient ftpClient = new FTPClient();
+            ftpClient.connect(ftpUrl);
+            if (!ftpClient.login(ftpUserName, ftpPassword)) {
+                disconnect(ftpClient);
+                throw new FTPException("Fail to login");
+            }
+
+            // Use passive mode to bypass client firewall
+            ftpClient.enterLocalPassiveMode();
+            return ftpClient;
+        }
+
+        protected FTPClient openConnection(final String workingDirectory) throws IOException, FTPException {
+            final FTPClient ftpClient = connect();
+            try {
+                if (!ftpClient.setFileType(FTP.BINARY_FILE_TYPE)) {
+                    throw new FTPException("Fail to set FTP file type to binary");
+                }
+                if (!ftpClient.changeWorkingDirectory(workingDirectory)) {
+                    throw new FTPException("Fail to change working directory to: " + workingDirectory);
+                }
+            } catch (IOException | FTPException e) {
+                disconnect(ftpClient);
+                throw e;
+            }
+            return ftpClient;
+        }
+
+        protected void disconnect(final FTPClient ftpClient) {
+            if (ftpClient != null && ftpClient.isConnected()) {
+                try {
+                    ftpClient.disconnect();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    listener.getLogger().println("Fail to disconnect from FTP: " + e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * @param parallelism Number of connections
+         * @return Remover of remote trees using connections to this FTP server
+         */
+        protected FTPTreeRemover createTreeRemover(final int parallelism) {
+            return new FTPTreeRemover(createConnector(), parallelism, listener.getLogger());
+        }
+
+        /**
+         * @return Connector opening connections to this FTP server, in the root directory
+         */
+        protected FTPConnector createConnector() {
+            return new FTPConnector() {
+                @Override
+                public FTPClient open() throws IOException {
+                    try {
+                        return openConnection("/");
+                    } catch (FTPException e) {
+                        throw new IOException(e.getMessage(), e);
+                    }
+                }
+
+                @Override
+                public void close(final FTPClient ftpClient) {
+                    disconnect(ftpClient);
+                }
+            };
+        }
+    }
+
+    /**
+     * Rename the staged tree into place, keeping the live tree aside to restore it if the rename fails.
+     */
+    private static final class FTPSwapOnSlave extends FTPCallable<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String stagingDirectory;
+        private final String liveDirectory;
+        private final String oldDirectory;
+
+        FTPSwapOnSlave(
+                final TaskListener listener,
+                final String ftpUrl,
+                final String ftpUserName,
+                final String ftpPassword,
+                final String stagingDirectory,
+                final String liveDirectory,
+                final String oldDirectory) {
+            super(listener, ftpUrl, ftpUserName, ftpPassword);
+            this.stagingDirectory = stagingDirectory;
+            this.liveDirectory = liveDirectory;
+            this.oldDirectory = oldDirectory;
+        }
+
+        @Override
+        public Void call() throws FTPException {
+            FTPClient ftpClient = null;
+            try {
+                ftpClient = openConnection("/");
+                final boolean liveExists = ftpClient.changeWorkingDirectory(liveDirectory);
+                if (!ftpClient.changeWorkingDirectory("/")) {
+                    throw new FTPException("Fail to change working directory to: /");
+                }
+                if (liveExists && !ftpClient.rename(liveDirectory, oldDirectory)) {
+                    throw new FTPException(String.format("Fail to rename %s to %s", liveDirectory, oldDirectory));
+                }
+                if (!ftpClient.rename(stagingDirectory, liveDirectory)) {
+                    if (liveExists && !ftpClient.rename(oldDirectory, liveDirectory)) {
+                        listener.getLogger().println(String.format("Fail to restore %s from %s",
+                                liveDirectory, oldDirectory));
+                    }
+                    throw new FTPException(String.format("Fail to rename %s to %s",
+                            stagingDirectory, liveDirectory));
+                }
+                listener.getLogger().println(String.format("Swapped %s into %s", stagingDirectory, liveDirectory));
+                return null;
+            } catch (IOException e) {
+                throw new FTPException(e);
+            } finally {
+                disconnect(ftpClient);
+            }
+        }
+    }
+
+    /**
+     * Remove a remote tree over several connections.
+     */
+    private static final class FTPRemoveTreeOnSlave extends FTPCallable<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String directory;
+        private final int parallelism;
+
+        FTPRemoveTreeOnSlave(
+                final TaskListener listener,
+                final String ftpUrl,
+                final String ftpUserName,
+                final String ftpPassword,
+                final String directory,
+                final int parallelism) {
+            super(listener, ftpUrl, ftpUserName, ftpPassword);
+            this.directory = directory;
+            this.parallelism = parallelism > 0 ? parallelism : DEFAULT_PARALLELISM;
+        }
+
+        @Override
+        public Void call() throws FTPException {
+            final FTPTreeRemover remover = createTreeRemover(parallelism);
+            try {
+                if (remover.remove(directory)) {
+                    listener.getLogger().println(String.format("Removed %s: %d files, %d directories",
+                            directory, remover.getDeletedFiles(), remover.getRemovedDirectories()));
+                }
+                return null;
+            } catch (IOException | InterruptedException e) {
+                throw new FTPException(e);
+            }
+        }
+    }
+
+    private static final class FTPDeployCommandOnSlave extends FTPCallable<Long> {
+
+        private static final long serialVersionUID = 1L;
+
         private final FilePath workspace;
         private final String sourceDirectory;
-        private final String targetDirectory;
+        private final String uploadDirectory;
         private final String filePath;
+        private final int parallelism;
+        private final boolean incremental;
+        private final String oldDirectory;
 
         private FTPDeployCommandOnSlave(
                 final TaskListener listener,
@@ -127,34 +426,49 @@ public class FTPDeployCommand implements ICommand<FTPDeployCommand.IFTPDeployCom
                 final String ftpPassword,
                 final FilePath workspace,
                 final String sourceDirectory,
-                final String targetDirectory,
-                final String filePath) {
-            this.listener = listener;
-            this.ftpUrl = ftpUrl;
-            this.ftpUserName = ftpUserName;
-            this.ftpPassword = ftpPassword;
+                final String uploadDirectory,
+                final String filePath,
+                final int parallelism,
+                final boolean incremental,
+                final String oldDirectory) {
+            super(listener, ftpUrl, ftpUserName, ftpPassword);
             this.workspace = workspace;
             this.sourceDirectory = sourceDirectory;
-            this.targetDirectory = targetDirectory;
+            this.uploadDirectory = uploadDirectory;
             this.filePath = filePath;
+            this.parallelism = parallelism > 0 ? parallelism : DEFAULT_PARALLELISM;
+            this.incremental = incremental;
+            this.oldDirectory = oldDirectory;
         }
 
+        private boolean isStaged() {
+            return oldDirectory != null;
+        }
 
+        /**
+         * @return Number of bytes uploaded
+         */
         @Override
-        public Void call() throws FTPException {
-            FTPClient ftpClient = new FTPClient();
+        public Long call() throws FTPException {
+            final String absTargetDirectory = uploadDirectory;
+            final FilePath sourceDir = workspace.child(Util.fixNull(sourceDirectory));
+            final FilePath[] files;
+            final List<FilePath> uploads = new ArrayList<>();
+            FTPDeployManifest manifest = null;
+
+            FTPClient ftpClient = null;
             try {
-                listener.getLogger().println(String.format("Starting to deploy to FTP: %s", ftpUrl));
+                listener.getLogger().println(String.format("Starting to deploy to FTP: %s", uploadDirectory));
 
-                ftpClient.connect(ftpUrl);
-                if (!ftpClient.login(ftpUserName, ftpPassword)) {
-                    throw new FTPException("Fail to login");
+                if (isStaged()) {
+                    // Start from an empty staging tree, and clear what a failed swap may have left behind
+                    final FTPTreeRemover remover = createTreeRemover(parallelism);
+                    remover.remove(absTargetDirectory);
+                    remover.remove(oldDirectory);
                 }
 
-                // Use passive mode to bypass client firewall
-                ftpClient.enterLocalPassiveMode();
+                ftpClient = connect();
 
-                final String absTargetDirectory = SITE_ROOT + Util.fixNull(targetDirectory);
                 if (!ftpClient.changeWorkingDirectory(absTargetDirectory)) {
                     // Target directory doesn't exist. Try to create it.
                     if (!ftpClient.makeDirectory(absTargetDirectory)) {
@@ -168,150 +482,141 @@ public class FTPDeployCommand implements ICommand<FTPDeployCommand.IFTPDeployCom
 
                 listener.getLogger().println(String.format("Working directory: %s", ftpClient.printWorkingDirectory()));
 
-                final FilePath sourceDir = workspace.child(Util.fixNull(sourceDirectory));
-                final FilePath[] files = sourceDir.list(filePath);
+                files = sourceDir.list(filePath);
 
                 if (files.length == 0) {
                     listener.getLogger().println("No file found. Skip deployment.");
-                    return null;
+                    return 0L;
+                }
+
+                if (incremental && isStaged()) {
+                    listener.getLogger().println("Staged deployment uploads all files to an empty staging tree.");
+                }
+                if (incremental && !isStaged()) {
+                    manifest = new FTPDeployManifest();
+                    for (final FilePath file : files) {
+                        manifest.add(FTPUploader.getRemoteName(sourceDir, file), file);
+                    }
+                    final FTPDeployManifest previous = readManifest(ftpClient);
+                    for (final FilePath file : files) {
+                        if (manifest.isChanged(FTPUploader.getRemoteName(sourceDir, file), previous)) {
+                            uploads.add(file);
+                        }
+                    }
+                    final Set<String> removed = manifest.getRemoved(previous);
+                    listener.getLogger().println(String.format(
+                            "Incremental deployment: %d of %d files changed, %d files removed",
+                            uploads.size(), files.length, removed.size()));
+
+                    // A partially applied deployment must not be trusted by the next one
+                    if (previous != null && !ftpClient.deleteFile(MANIFEST_NAME)) {
+                        throw new FTPException("Fail to delete deployment manifest: " + MANIFEST_NAME);
+                    }
+                    for (final String path : removed) {
+                        listener.getLogger().println("Removing remote file: " + path);
+                        if (!ftpClient.deleteFile(path)) {
+                            listener.getLogger().println("Fail to delete file, it may have been removed already: "
+                                    + path);
+                        }
+                    }
+                    // Directories still holding files that were not deployed can't be removed, which is fine
+                    for (final String dir : manifest.getEmptiedDirectories(previous)) {
+                        if (ftpClient.removeDirectory(dir)) {
+                            listener.getLogger().println("Removed empty remote directory: " + dir);
+                        }
+                    }
+                } else {
+                    uploads.addAll(Arrays.asList(files));
+                    // Files may change without the manifest, so a later incremental deployment must upload all
+                    if (!isStaged() && ftpClient.deleteFile(MANIFEST_NAME)) {
+                        listener.getLogger().println("Removed deployment manifest of a previous incremental "
+                                + "deployment: " + MANIFEST_NAME);
+                    }
                 }
 
-                for (final FilePath file : files) {
-                    uploadFile(ftpClient, sourceDir, file);
+                if (!isStaged()) {
+                    for (final FilePath file : uploads) {
+                        prepareDirectory(absTargetDirectory, FTPUploader.getRemoteName(sourceDir, file));
+                    }
                 }
             } catch (IOException | InterruptedException e) {
                 throw new FTPException(e);
             } finally {
-                if (ftpClient.isConnected()) {
-                    try {
-                        ftpClient.disconnect();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        listener.getLogger().println("Fail to disconnect from FTP: " + e.getMessage());
-                    }
-                }
+                disconnect(ftpClient);
             }
 
-            return null;
+            try {
+                if (uploads.isEmpty()) {
+                    listener.getLogger().println("Remote files are up-to-date. Nothing to upload.");
+                } else {
+                    final FTPDirectoryCache directoryCache = new FTPDirectoryCache(absTargetDirectory);
+                    new FTPUploader(createConnector(), parallelism, listener.getLogger())
+                            .upload(sourceDir, uploads, directoryCache);
+                    listener.getLogger().println(String.format(
+                            "Remote directories: %d created, %d lookups answered from cache, %d round trips saved",
+                            directoryCache.getCreated(), directoryCache.getCacheHits(),
+                            directoryCache.getRoundTripsSaved()));
+                }
+                if (manifest != null) {
+                    writeManifest(manifest, absTargetDirectory);
+                }
+
+                long bytes = 0;
+                for (final FilePath file : uploads) {
+                    bytes += file.length();
+                }
+                return bytes;
+            } catch (IOException | InterruptedException e) {
+                throw new FTPException(e);
+            }
         }
 
         /**
-         * Remove FTP directory recursively.
+         * Read the manifest of the previous deployment from the working directory.
          *
          * @param ftpClient FTP client
-         * @param dir       Directory to remove
+         * @return The manifest, or null if there is none
          * @throws IOException
+         * @throws FTPException
          */
-        private void removeFtpDirectory(final FTPClient ftpClient, final String dir)
-                throws IOException, FTPException {
-            String cwd = ftpClient.printWorkingDirectory();
-            // Return if folder does not exist
-            if (!ftpClient.changeWorkingDirectory(dir)) {
-                return;
-            }
-
-            ftpClient.changeWorkingDirectory(cwd);
-
-            listener.getLogger().println("Removing remote directory: " + dir);
-
-            FTPFile[] subFiles = ftpClient.listFiles(dir);
-            if (subFiles.length > 0) {
-                for (FTPFile ftpFile : subFiles) {
-                    String fileName = ftpFile.getName();
-                    if (fileName.equals(".") || fileName.equals("..")) {
-                        // Skip
-                        continue;
-                    }
-
-                    String fullFileName = dir + "/" + fileName;
-                    if (ftpFile.isDirectory()) {
-                        // Remove sub directory recursively
-                        removeFtpDirectory(ftpClient, fullFileName);
-                    } else {
-                        // Delete regular file
-                        listener.getLogger().println("Removing remote file: " + fullFileName);
-
-                        if (!ftpClient.deleteFile(fullFileName)) {
-                            throw new FTPException("Fail to delete file: " + fullFileName);
-                        }
-                    }
-                }
-            }
-
-            if (!ftpClient.removeDirectory(dir)) {
-                throw new FTPException("Fail to remove directory: " + dir);
-            }
-        }
-
-        private void uploadFile(final FTPClient ftpClient, final FilePath sourceDir, final FilePath file)
-                throws IOException, FTPException, InterruptedException {
-
-            final String remoteName = FilenameUtils.separatorsToUnix(
-                    FilePathUtils.trimDirectoryPrefix(sourceDir, file));
-            listener.getLogger().println(String.format("Uploading %s", remoteName));
-
-            // Need some preparation in some cases
-            prepareDirectory(ftpClient, remoteName);
-
-            // Create parent directories recursively
-            makeDirectoryRecursively(ftpClient, remoteName);
-
+        private FTPDeployManifest readManifest(final FTPClient ftpClient) throws IOException, FTPException {
             if (!ftpClient.setFileType(FTP.BINARY_FILE_TYPE)) {
                 throw new FTPException("Fail to set FTP file type to binary");
             }
-
-            // Retry if upload failed.
-            // This is usually caused by file still opened by another process.
-            boolean storeSuccess = false;
-            for (int i = 0; i < MAX_RETRY; i++) {
-                try (InputStream stream = file.read()) {
-                    storeSuccess = ftpClient.storeFile(remoteName, stream);
-                }
-                if (!storeSuccess) {
-                    listener.getLogger().println(String.format(
-                            "Fail to upload file. File may still be opened by another process. Retry for %d times.",
-                            i + 1));
-                    Thread.sleep(RETRY_INTERVAL);
-                } else {
-                    break;
-                }
+            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            if (!ftpClient.retrieveFile(MANIFEST_NAME, stream)) {
+                listener.getLogger().println("No deployment manifest found. Upload all files.");
+                return null;
             }
-            if (!storeSuccess) {
-                throw new FTPException("Fail to upload file to: " + remoteName);
+            try {
+                return FTPDeployManifest.read(new ByteArrayInputStream(stream.toByteArray()));
+            } catch (IOException e) {
+                listener.getLogger().println("Ignore invalid deployment manifest: " + e.getMessage());
+                return null;
             }
         }
 
-        private void prepareDirectory(final FTPClient ftpClient, final String fileName)
+        private void writeManifest(final FTPDeployManifest manifest, final String absTargetDirectory)
                 throws IOException, FTPException {
-            // Deployment to tomcat root requires removing root directory first
-            final String targetFilePath = FilenameUtils.concat(ftpClient.printWorkingDirectory(), fileName);
-            if (targetFilePath.equalsIgnoreCase(FilenameUtils.separatorsToSystem(TOMCAT_ROOT_WAR))) {
-                removeFtpDirectory(ftpClient, TOMCAT_ROOT_DIR);
-            }
-        }
+            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            manifest.write(stream);
 
-        private void makeDirectoryRecursively(final FTPClient ftpClient, final String fileName) throws IOException {
-            final String currentWorkingDirectory = ftpClient.printWorkingDirectory();
-
-            final String parentPath = FilenameUtils.getPath(fileName);
-            final String[] dirs = parentPath.split("/");
-            for (String dir : dirs) {
-                if (!dir.isEmpty()) {
-                    if (!ftpClient.changeWorkingDirectory(dir)) {
-                        if (!ftpClient.makeDirectory(dir)) {
-                            throw new IOException(
-                                    "Fail to create directory: " + dir + " under " + ftpClient.printWorkingDirectory());
-                        }
-                        if (!ftpClient.changeWorkingDirectory(dir)) {
-                            throw new IOException(
-                                    "Fail to change directory: " + dir + " under " + ftpClient.printWorkingDirectory());
-                        }
-                    }
+            final FTPClient ftpClient = openConnection(absTargetDirectory);
+            try {
+                if (!ftpClient.storeFile(MANIFEST_NAME, new ByteArrayInputStream(stream.toByteArray()))) {
+                    throw new FTPException("Fail to upload deployment manifest: " + MANIFEST_NAME);
                 }
+            } finally {
+                disconnect(ftpClient);
             }
+        }
 
-            if (!ftpClient.changeWorkingDirectory(currentWorkingDirectory)) {
-                throw new IOException("Fail to restore working directory to " + currentWorkingDirectory);
+        private void prepareDirectory(final String absTargetDirectory, final String fileName)
+                throws IOException, InterruptedException {
+            // Deployment to tomcat root requires removing root directory first
+            final String targetFilePath = FilenameUtils.concat(absTargetDirectory, fileName);
+            if (targetFilePath.equalsIgnoreCase(FilenameUtils.separatorsToSystem(TOMCAT_ROOT_WAR))) {
+                createTreeRemover(parallelism).remove(TOMCAT_ROOT_DIR);
             }
         }
     }
@@ -327,5 +632,33 @@ public class FTPDeployCommand implements ICommand<FTPDeployCommand.IFTPDeployCom
         String getTargetDirectory();
 
         WebAppBase getWebAppBase();
+
+        /**
+         * @return Timings of the deployment phases, or null if not reported
+         */
+        DeploymentTimings getTimings();
+
+        /**
+         * Number of concurrent FTP connections used for uploading.
+         *
+         * @return Connection count, or 0 to use the default
+         */
+        int getParallelism();
+
+        /**
+         * Whether to only upload files that changed since the last deployment, based on the manifest stored with
+         * the deployed files, and remove files that are no longer deployed.
+         *
+         * @return If the deployment is incremental
+         */
+        boolean isIncremental();
+
+        /**
+         * Whether to upload to a staging directory next to the target directory while the app keeps running, and
+         * only stop the app while the staged tree is renamed into place.
+         *
+         * @return If the deployment is staged
+         */
+        boolean isStagedDeploy();
     }
 }
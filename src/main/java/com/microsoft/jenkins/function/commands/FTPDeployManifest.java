@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.jenkins.function.commands;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import hudson.FilePath;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Size and content hash of every file of an FTP deployment, keyed by the path relative to the target directory.
+ *
+ * The manifest of the last deployment is kept next to the deployed files so the next deployment only needs to upload
+ * what changed.
+ */
+final class FTPDeployManifest {
+
+    private static final String SIZE = "size";
+    private static final String HASH = "hash";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    static final class Entry {
+        private final long size;
+        private final String hash;
+
+        Entry(final long size, final String hash) {
+            this.size = size;
+            this.hash = hash;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        String getHash() {
+            return hash;
+        }
+    }
+
+    void put(final String path, final long size, final String hash) {
+        entries.put(path, new Entry(size, hash));
+    }
+
+    Entry get(final String path) {
+        return entries.get(path);
+    }
+
+    Set<String> getPaths() {
+        return entries.keySet();
+    }
+
+    /**
+     * Add a local file to the manifest, hashing its content.
+     *
+     * @param path Path relative to the target directory
+     * @param file Local file
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    void add(final String path, final FilePath file) throws IOException, InterruptedException {
+        put(path, file.length(), file.digest());
+    }
+
+    /**
+     * Check whether a file needs to be uploaded compared to a previous deployment.
+     *
+     * @param path     Path relative to the target directory
+     * @param previous Manifest of the previous deployment, may be null
+     * @return Whether the file is new or its size or content changed
+     */
+    boolean isChanged(final String path, final FTPDeployManifest previous) {
+        if (previous == null) {
+            return true;
+        }
+        final Entry current = entries.get(path);
+        final Entry old = previous.get(path);
+        return current == null || old == null
+                || current.getSize() != old.getSize()
+                || !current.getHash().equals(old.getHash());
+    }
+
+    /**
+     * Get files of a previous deployment that are no longer part of this one.
+     *
+     * @param previous Manifest of the previous deployment, may be null
+     * @return Paths relative to the target directory
+     */
+    Set<String> getRemoved(final FTPDeployManifest previous) {
+        final Set<String> removed = new TreeSet<>();
+        if (previous != null) {
+            removed.addAll(previous.getPaths());
+            removed.removeAll(entries.keySet());
+        }
+        return removed;
+    }
+
+    /**
+     * Get directories that held files of a previous deployment and hold none of this one.
+     *
+     * Such directories may still hold files that were not deployed, so they are candidates for removal only.
+     *
+     * @param previous Manifest of the previous deployment, may be null
+     * @return Paths relative to the target directory, deepest first
+     */
+    Set<String> getEmptiedDirectories(final FTPDeployManifest previous) {
+        final Set<String> dirs = new TreeSet<>(Collections.reverseOrder());
+        for (final String path : getRemoved(previous)) {
+            for (String dir = getParent(path); dir != null; dir = getParent(dir)) {
+                dirs.add(dir);
+            }
+        }
+        for (final String path : entries.keySet()) {
+            for (String dir = getParent(path); dir != null; dir = getParent(dir)) {
+                dirs.remove(dir);
+            }
+        }
+        return dirs;
+    }
+
+    private static String getParent(final String path) {
+        final int slash = path.lastIndexOf('/');
+        return slash > 0 ? path.substring(0, slash) : null;
+    }
+
+    void write(final OutputStream stream) throws IOException {
+        final ObjectNode root = MAPPER.createObjectNode();
+        for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+            final ObjectNode node = root.putObject(entry.getKey());
+            node.put(SIZE, entry.getValue().getSize());
+            node.put(HASH, entry.getValue().getHash());
+        }
+        MAPPER.writeValue(stream, root);
+    }
+
+    static FTPDeployManifest read(final InputStream stream) throws IOException {
+        final FTPDeployManifest manifest = new FTPDeployManifest();
+        final JsonNode root = MAPPER.readTree(stream);
+        if (root == null) {
+            return manifest;
+        }
+        final Iterator<Map.Entry<String, JsonNode>> fields = root.fields();
+        while (fields.hasNext()) {
+            final Map.Entry<String, JsonNode> field = fields.next();
+            manifest.put(field.getKey(),
+                    field.getValue().path(SIZE).asLong(-1),
+                    field.getValue().path(HASH).asText(""));
+        }
+        return manifest;
+    }
+}
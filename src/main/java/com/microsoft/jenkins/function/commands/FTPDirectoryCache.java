@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.jenkins.function.commands;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.net.ftp.FTPClient;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remote directories known to exist during one FTP deployment, shared by all its connections.
+ *
+ * Each missing directory is created once with an absolute path MKD. Directories already known are resolved without
+ * any round trip, where walking the tree with CWD would cost several commands per uploaded file.
+ */
+final class FTPDirectoryCache {
+
+    /**
+     * Fixed cost per file of the former CWD probing: two PWD and a final CWD back to the working directory.
+     */
+    private static final int LEGACY_FILE_OVERHEAD = 3;
+
+    private final String root;
+    private final ConcurrentMap<String, Object> known = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<>();
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong roundTrips = new AtomicLong();
+    private final AtomicLong legacyRoundTrips = new AtomicLong();
+
+    /**
+     * @param root Absolute path of a remote directory known to exist, usually the deployment target directory
+     */
+    FTPDirectoryCache(final String root) {
+        this.root = normalize(root);
+        known.put(this.root, Boolean.TRUE);
+    }
+
+    /**
+     * Make sure the parent directory of a file exists.
+     *
+     * @param ftpClient    Connection used if directories need to be created
+     * @param relativePath File path relative to the root
+     * @return Absolute path of the file
+     * @throws IOException If a directory can't be created
+     */
+    String prepareParent(final FTPClient ftpClient, final String relativePath) throws IOException {
+        final String path = resolve(relativePath);
+        final String parent = parentOf(path);
+        final int depth = parent.length() > root.length()
+                ? parent.substring(root.length() + 1).split("/").length : 0;
+        legacyRoundTrips.addAndGet(LEGACY_FILE_OVERHEAD + depth);
+        ensureDirectory(ftpClient, parent);
+        return path;
+    }
+
+    /**
+     * Make sure a directory exists, creating missing parents first.
+     *
+     * @param ftpClient Connection used if directories need to be created
+     * @param dir       Absolute directory path
+     * @throws IOException If the directory can't be created
+     */
+    void ensureDirectory(final FTPClient ftpClient, final String dir) throws IOException {
+        final String path = normalize(dir);
+        if (known.containsKey(path)) {
+            cacheHits.incrementAndGet();
+            return;
+        }
+
+        final String parent = parentOf(path);
+        if (!parent.equals(path)) {
+            ensureDirectory(ftpClient, parent);
+        }
+
+        locks.putIfAbsent(path, new Object());
+        final Object lock = locks.get(path);
+        synchronized (lock) {
+            if (known.containsKey(path)) {
+                cacheHits.incrementAndGet();
+                return;
+            }
+            // The former CWD probing needed a MKD and a CWD for each missing directory
+            legacyRoundTrips.addAndGet(2);
+            roundTrips.incrementAndGet();
+            if (ftpClient.makeDirectory(path)) {
+                created.incrementAndGet();
+            } else {
+                // Most likely the directory exists already, e.g. from a previous deployment
+                roundTrips.incrementAndGet();
+                if (!ftpClient.changeWorkingDirectory(path)) {
+                    throw new IOException("Fail to create directory: " + path);
+                }
+            }
+            known.put(path, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Forget about a directory and everything below it, e.g. after it was removed.
+     *
+     * @param dir Absolute directory path
+     */
+    void invalidate(final String dir) {
+        final String path = normalize(dir);
+        final String prefix = path + "/";
+        for (final String key : known.keySet()) {
+            if (key.equals(path) || key.startsWith(prefix)) {
+                known.remove(key);
+            }
+        }
+    }
+
+    String resolve(final String relativePath) {
+        return normalize(root + "/" + relativePath);
+    }
+
+    long getCreated() {
+        return created.get();
+    }
+
+    long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    long getRoundTrips() {
+        return roundTrips.get();
+    }
+
+    /**
+     * @return Control channel round trips saved compared to probing every directory with CWD for every file
+     */
+    long getRoundTripsSaved() {
+        return Math.max(0, legacyRoundTrips.get() - roundTrips.get());
+    }
+
+    static String normalize(final String path) {
+        String normalized = FilenameUtils.normalizeNoEndSeparator(path, true);
+        if (normalized == null || normalized.isEmpty()) {
+            normalized = "/";
+        }
+        return normalized;
+    }
+
+    private static String parentOf(final String path) {
+        final int index = path.lastIndexOf('/');
+        return index <= 0 ? "/" : path.substring(0, index);
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.jenkins.function.commands;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remove a remote directory tree over several FTP connections.
+ *
+ * The tree is listed first over one connection, with MLSD when the server supports it so that entries come in a
+ * machine readable format and the existence of the tree is checked without changing directory. Its files are then
+ * deleted by a pool of connections draining a shared queue, and its directories removed the same way one depth
+ * at a time, deepest first. The connections are opened once for the whole tree and wait for each other before
+ * moving to the next depth. Progress is reported periodically rather than for each file.
+ */
+final class FTPTreeRemover {
+
+    private static final String MLSD = "MLSD";
+    private static final long PROGRESS_INTERVAL = Long.getLong(
+            FTPTreeRemover.class.getName() + ".progressIntervalMilliseconds", 10000L);
+
+    private final FTPConnector connector;
+    private final int parallelism;
+    private final PrintStream logger;
+    private final long progressInterval;
+    private final AtomicLong deletedFiles = new AtomicLong();
+    private final AtomicLong removedDirectories = new AtomicLong();
+
+    /**
+     * @param connector   Opens the connections
+     * @param parallelism Number of connections removing files and directories
+     * @param logger      Receives the progress
+     */
+    FTPTreeRemover(final FTPConnector connector, final int parallelism, final PrintStream logger) {
+        this(connector, parallelism, logger, PROGRESS_INTERVAL);
+    }
+
+    FTPTreeRemover(final FTPConnector connector, final int parallelism, final PrintStream logger,
+                   final long progressInterval) {
+        this.connector = connector;
+        this.parallelism = Math.max(1, parallelism);
+        this.logger = logger;
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * Remove a directory and everything under it.
+     *
+     * @param dir Absolute path of the directory
+     * @return Whether the directory existed
+     * @throws IOException          If a file or directory can't be removed
+     * @throws InterruptedException
+     */
+    boolean remove(final String dir) throws IOException, InterruptedException {
+        final List<String> files = new ArrayList<>();
+        final List<List<String>> levels = new ArrayList<>();
+        final FTPClient ftpClient = connector.open();
+        try {
+            final boolean mlsd = ftpClient.hasFeature(MLSD);
+            if (!exists(ftpClient, dir, mlsd)) {
+                return false;
+            }
+            list(ftpClient, dir, mlsd, files, levels);
+        } finally {
+            // Don't keep the listing connection idle while the others delete
+            connector.close(ftpClient);
+        }
+
+        int directories = 0;
+        for (final List<String> level : levels) {
+            directories += level.size();
+        }
+        logger.println(String.format("Removing remote directory %s: %d files, %d directories",
+                dir, files.size(), directories));
+
+        // Files first, then directories from the deepest level up
+        final List<Queue<String>> stages = new ArrayList<>();
+        stages.add(new ConcurrentLinkedQueue<>(files));
+        for (int i = levels.size() - 1; i >= 0; i--) {
+            stages.add(new ConcurrentLinkedQueue<>(levels.get(i)));
+        }
+        removeAll(stages, files.size() + directories);
+        return true;
+    }
+
+    long getDeletedFiles() {
+        return deletedFiles.get();
+    }
+
+    long getRemovedDirectories() {
+        return removedDirectories.get();
+    }
+
+    private static boolean exists(final FTPClient ftpClient, final String dir, final boolean mlsd)
+            throws IOException {
+        if (mlsd) {
+            final FTPFile file = ftpClient.mlistFile(dir);
+            return file != null && file.isDirectory();
+        }
+        return ftpClient.changeWorkingDirectory(dir);
+    }
+
+    /**
+     * List the tree breadth first, grouping the directories by depth.
+     */
+    private static void list(final FTPClient ftpClient, final String root, final boolean mlsd,
+                             final List<String> files, final List<List<String>> levels) throws IOException {
+        List<String> level = new ArrayList<>();
+        level.add(root);
+        while (!level.isEmpty()) {
+            levels.add(level);
+            final List<String> next = new ArrayList<>();
+            for (final String dir : level) {
+                final FTPFile[] entries = mlsd ? ftpClient.mlistDir(dir) : ftpClient.listFiles(dir);
+                for (final FTPFile entry : entries) {
+                    // Skip unparsable lines, and the entries MLSD may return for the directory and its parent
+                    if (entry == null || isSelfOrParent(entry.getName())) {
+                        continue;
+                    }
+                    final String path = dir + "/" + entry.getName();
+                    if (entry.isDirectory()) {
+                        next.add(path);
+                    } else {
+                        files.add(path);
+                    }
+                }
+            }
+            level = next;
+        }
+    }
+
+    private static boolean isSelfOrParent(final String name) {
+        return name == null || name.isEmpty() || name.equals(".") || name.equals("..") || name.contains("/");
+    }
+
+    private void removeAll(final List<Queue<String>> stages, final long total)
+            throws IOException, InterruptedException {
+        int largest = 0;
+        for (final Queue<String> stage : stages) {
+            largest = Math.max(largest, stage.size());
+        }
+        if (largest == 0) {
+            return;
+        }
+        final int connections = Math.min(parallelism, largest);
+        final Phaser phaser = new Phaser(connections);
+        final ExecutorService executor = Executors.newFixedThreadPool(connections);
+        try {
+            final Deque<Future<Void>> futures = new ArrayDeque<>();
+            for (int i = 0; i < connections; i++) {
+                futures.add(executor.submit(new RemoveWorker(stages, phaser)));
+            }
+            while (!futures.isEmpty()) {
+                try {
+                    futures.peek().get(progressInterval, TimeUnit.MILLISECONDS);
+                    futures.poll();
+                } catch (TimeoutException e) {
+                    logger.println(String.format("Removed %d of %d remote files and directories",
+                            deletedFiles.get() + removedDirectories.get(), total));
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new IOException(cause);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Connection that removes paths from the shared queue of each stage until it's empty, then waits for the other
+     * connections to finish the stage before moving on.
+     */
+    private final class RemoveWorker implements Callable<Void> {
+        private final List<Queue<String>> stages;
+        private final Phaser phaser;
+
+        private RemoveWorker(final List<Queue<String>> stages, final Phaser phaser) {
+            this.stages = stages;
+            this.phaser = phaser;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            FTPClient ftpClient = null;
+            try {
+                ftpClient = connector.open();
+                for (int i = 0; i < stages.size(); i++) {
+                    remove(ftpClient, stages.get(i), i > 0);
+                    phaser.arriveAndAwaitAdvance();
+                }
+            } catch (IOException | RuntimeException e) {
+                // Stop the other connections from picking up more paths right away
+                for (final Queue<String> stage : stages) {
+                    stage.clear();
+                }
+                throw e;
+            } finally {
+                if (ftpClient != null) {
+                    connector.close(ftpClient);
+                }
+                // Don't keep the other connections waiting for this one at the end of a stage
+                phaser.arriveAndDeregister();
+            }
+            return null;
+        }
+
+        private void remove(final FTPClient ftpClient, final Queue<String> queue, final boolean directories)
+                throws IOException {
+            for (String path = queue.poll(); path != null; path = queue.poll()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new IOException("Interrupted while removing remote files");
+                }
+                if (directories) {
+                    if (!ftpClient.removeDirectory(path)) {
+                        throw new IOException("Fail to remove directory: " + path);
+                    }
+                    removedDirectories.incrementAndGet();
+                } else {
+                    if (!ftpClient.deleteFile(path)) {
+                        throw new IOException("Fail to delete file: " + path);
+                    }
+                    deletedFiles.incrementAndGet();
+                }
+            }
+        }
+    }
+}
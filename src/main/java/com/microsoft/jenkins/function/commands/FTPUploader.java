@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.jenkins.function.commands;
+
+import com.microsoft.jenkins.function.util.FilePathUtils;
+import hudson.FilePath;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.net.ftp.FTPClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Upload files over a pool of FTP connections that drain a shared queue.
+ *
+ * Each file is retried on its connection, reconnecting after a dropped connection. Once a file fails for good, the
+ * queue is cleared so the other connections stop after their current file.
+ */
+final class FTPUploader {
+
+    private static final int MAX_RETRY = 10;
+    private static final long RETRY_INTERVAL = 1000;
+
+    private final FTPConnector connector;
+    private final int parallelism;
+    private final PrintStream logger;
+    private final int maxRetry;
+    private final long retryInterval;
+
+    /**
+     * @param connector   Opens the connections
+     * @param parallelism Number of connections uploading files
+     * @param logger      Receives the progress
+     */
+    FTPUploader(final FTPConnector connector, final int parallelism, final PrintStream logger) {
+        this(connector, parallelism, logger, MAX_RETRY, RETRY_INTERVAL);
+    }
+
+    FTPUploader(final FTPConnector connector, final int parallelism, final PrintStream logger,
+                final int maxRetry, final long retryInterval) {
+        this.connector = connector;
+        this.parallelism = Math.max(1, parallelism);
+        this.logger = logger;
+        this.maxRetry = maxRetry;
+        this.retryInterval = retryInterval;
+    }
+
+    /**
+     * @param sourceDir      Source directory
+     * @param files          Files to upload, under the source directory
+     * @param directoryCache Remote directories known to exist, rooted at the target directory
+     * @throws IOException          If a file can't be uploaded
+     * @throws InterruptedException
+     */
+    void upload(final FilePath sourceDir, final List<FilePath> files, final FTPDirectoryCache directoryCache)
+            throws IOException, InterruptedException {
+        if (files.isEmpty()) {
+            return;
+        }
+        final Queue<FilePath> queue = new ConcurrentLinkedQueue<>(files);
+        final int connections = Math.min(parallelism, files.size());
+        logger.println(String.format("Uploading %d files using %d connections", files.size(), connections));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(connections);
+        try {
+            final List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < connections; i++) {
+                futures.add(executor.submit(new UploadWorker(queue, sourceDir, directoryCache)));
+            }
+            for (final Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof InterruptedException) {
+                        throw (InterruptedException) cause;
+                    }
+                    throw new IOException(cause);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    static String getRemoteName(final FilePath sourceDir, final FilePath file) {
+        return FilenameUtils.separatorsToUnix(FilePathUtils.trimDirectoryPrefix(sourceDir, file));
+    }
+
+    /**
+     * Connection that keeps uploading files from the shared queue until it's empty.
+     */
+    private final class UploadWorker implements Callable<Void> {
+        private final Queue<FilePath> queue;
+        private final FilePath sourceDir;
+        private final FTPDirectoryCache directoryCache;
+        private FTPClient ftpClient;
+
+        private UploadWorker(final Queue<FilePath> queue, final FilePath sourceDir,
+                             final FTPDirectoryCache directoryCache) {
+            this.queue = queue;
+            this.sourceDir = sourceDir;
+            this.directoryCache = directoryCache;
+        }
+
+        @Override
+        public Void call() throws IOException, InterruptedException {
+            try {
+                ftpClient = connector.open();
+                for (FilePath file = queue.poll(); file != null; file = queue.poll()) {
+                    uploadFile(file);
+                }
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                // Stop the other connections from picking up more files
+                queue.clear();
+                throw e;
+            } finally {
+                connector.close(ftpClient);
+            }
+            return null;
+        }
+
+        private void uploadFile(final FilePath file) throws IOException, InterruptedException {
+            final String remoteName = getRemoteName(sourceDir, file);
+            logger.println(String.format("Uploading %s", remoteName));
+
+            // Retry if upload failed.
+            // This is usually caused by file still opened by another process, or by a dropped connection.
+            for (int i = 1; i <= maxRetry; i++) {
+                try {
+                    // Create missing parent directories, addressing the file by its absolute path
+                    final String remotePath = directoryCache.prepareParent(ftpClient, remoteName);
+
+                    try (InputStream stream = file.read()) {
+                        if (ftpClient.storeFile(remotePath, stream)) {
+                            return;
+                        }
+                    }
+                    logger.println(String.format(
+                            "Fail to upload file. File may still be opened by another process. "
+                                    + "Retry for %d times.", i));
+                } catch (IOException e) {
+                    if (i == maxRetry) {
+                        throw e;
+                    }
+                    logger.println(String.format(
+                            "Fail to upload file %s: %s. Reconnect and retry for %d times.",
+                            remoteName, e.getMessage(), i));
+                    connector.close(ftpClient);
+                    ftpClient = connector.open();
+                }
+                Thread.sleep(retryInterval);
+            }
+            throw new IOException("Fail to upload file to: " + remoteName);
+        }
+    }
+}
@@ -13,40 +13,38 @@ import com.microsoft.jenkins.azurecommons.JobContext;
 import com.microsoft.jenkins.azurecommons.command.CommandState;
 import com.microsoft.jenkins.azurecommons.command.IBaseCommandData;
 import com.microsoft.jenkins.azurecommons.command.ICommand;
-import com.microsoft.jenkins.azurecommons.telemetry.AppInsightsUtils;
 import com.microsoft.jenkins.function.AzureFunctionPlugin;
 import com.microsoft.jenkins.function.util.Constants;
-import com.microsoft.jenkins.function.util.FilePathUtils;
+import com.microsoft.jenkins.function.util.DeploymentTimings;
 import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.Util;
 import hudson.model.AbstractBuild;
+import hudson.model.Computer;
 import hudson.model.Node;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.plugins.git.Branch;
+import hudson.plugins.git.GitException;
 import hudson.plugins.git.GitTool;
 import hudson.remoting.VirtualChannel;
-import org.eclipse.jgit.dircache.DirCache;
-import org.eclipse.jgit.dircache.DirCacheBuildIterator;
-import org.eclipse.jgit.dircache.DirCacheBuilder;
-import org.eclipse.jgit.lib.FileMode;
+import org.apache.commons.lang3.StringUtils;
 import org.eclipse.jgit.lib.IndexDiff;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.lib.UserConfig;
+import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.URIish;
 import org.eclipse.jgit.treewalk.FileTreeIterator;
-import org.eclipse.jgit.treewalk.TreeWalk;
-import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.jenkinsci.plugins.gitclient.Git;
 import org.jenkinsci.plugins.gitclient.GitClient;
 import org.jenkinsci.plugins.gitclient.RepositoryCallback;
 
-import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.Collections;
 import java.util.Set;
 
 public class GitDeployCommand implements ICommand<GitDeployCommand.IGitDeployCommandData> {
@@ -54,10 +52,11 @@ public class GitDeployCommand implements ICommand<GitDeployCommand.IGitDeployCom
     private static final String DEPLOY_REPO = ".azure-deploy";
     private static final String DEPLOY_COMMIT_MESSAGE = "Deploy ${BUILD_TAG}";
     private static final String DEPLOY_BRANCH = "master";
-    private static final String DEPLOY_REMOTE_BRANCH = "origin/" + DEPLOY_BRANCH;
-    private static final String GIT_ADD_ALL_PARAMETER = "-A";
-    private static final String JGIT_ADD_ALL_PARAMETER = ".";
-    private String gitAddAllPattern = JGIT_ADD_ALL_PARAMETER;
+    private static final String DEPLOY_REMOTE = "origin";
+    private static final String DEPLOY_REMOTE_BRANCH = DEPLOY_REMOTE + "/" + DEPLOY_BRANCH;
+    private static final String DEPLOY_REFSPEC =
+            "+refs/heads/" + DEPLOY_BRANCH + ":refs/remotes/" + DEPLOY_REMOTE_BRANCH;
+    private static final String DEPLOY_CACHE_DIR = "azure-function-deploy-cache";
 
     @Override
     public void execute(final IGitDeployCommandData context) {
@@ -72,38 +71,77 @@ public class GitDeployCommand implements ICommand<GitDeployCommand.IGitDeployCom
                 context.logError("Workspace is null");
                 return;
             }
-            final FilePath repo = ws.child(DEPLOY_REPO);
-            final String gitExe = getGitExe(run, listener);
-            final boolean useGitCli = useGitCli(gitExe);
-            if (useGitCli) {
-                gitAddAllPattern = GIT_ADD_ALL_PARAMETER;
+            // Whatever gets pushed replaces the package ZipDeploy left, even if the push fails halfway
+            ZipDeployCommand.invalidateDigest(context.getWebAppBase());
+            final boolean reuseRepo = context.isCacheDeployRepository();
+            final String repoName = StringUtils.defaultIfBlank(context.getDeployRepositoryName(), DEPLOY_REPO);
+            final FilePath repo = reuseRepo ? getCachedRepository(ws, pubProfile.gitUrl()) : ws.child(repoName);
+            // Cached deploy repositories are shared by all builds on a node, so only one build may use each at a time
+            final RepositoryLock lock = reuseRepo ? RepositoryLock.acquire(repo, listener.getLogger()) : null;
+            try {
+                deploy(context, createGitClient(context, repo, env), repo, env, reuseRepo);
+            } finally {
+                if (lock != null) {
+                    lock.release();
+                }
             }
+        } catch (IOException | InterruptedException | URISyntaxException | GitException e) {
+            context.logError("Fail to deploy using Git: ", e);
+            AzureFunctionPlugin.sendEvent(Constants.AI_FUNCTION_APP, Constants.AI_GIT_DEPLOY_FAILED,
+                    "Run", AzureFunctionPlugin.hash(context.getJobContext().getRun().getUrl()),
+                    "ResourceGroup", AzureFunctionPlugin.hash(context.getWebAppBase().resourceGroupName()),
+                    "FunctionApp", AzureFunctionPlugin.hash(context.getWebAppBase().name()),
+                    "Message", e.getMessage());
+        }
+    }
 
-            GitClient git = Git.with(listener, env)
-                    .in(repo)
-                    .using(gitExe)
-                    .getClient();
-
-            git.addCredentials(pubProfile.gitUrl(), new UsernamePasswordCredentialsImpl(
-                    CredentialsScope.SYSTEM, "", "", pubProfile.gitUsername(), pubProfile.gitPassword()));
-
-            git.clone_().url(pubProfile.gitUrl()).execute();
+    private GitClient createGitClient(final IGitDeployCommandData context, final FilePath repo, final EnvVars env)
+            throws IOException, InterruptedException {
+        final PublishingProfile pubProfile = context.getPublishingProfile();
+        final JobContext jobContext = context.getJobContext();
+        final TaskListener listener = jobContext.getTaskListener();
+        final String gitExe = getGitExe(jobContext.getRun(), listener);
+
+        GitClient git = Git.with(listener, env)
+                .in(repo)
+                .using(gitExe)
+                .getClient();
+
+        git.addCredentials(pubProfile.gitUrl(), new UsernamePasswordCredentialsImpl(
+                CredentialsScope.SYSTEM, "", "", pubProfile.gitUsername(), pubProfile.gitPassword()));
+        return git;
+    }
 
-            // Sometimes remote repository is bare and the master branch doesn't exist
-            Set<Branch> branches = git.getRemoteBranches();
-            for (Branch branch : branches) {
-                if (branch.getName().equals(DEPLOY_REMOTE_BRANCH)) {
-                    git.checkout().ref(DEPLOY_BRANCH).execute();
-                    break;
-                }
-            }
+    private void deploy(
+            final IGitDeployCommandData context,
+            final GitClient git,
+            final FilePath repo,
+            final EnvVars env,
+            final boolean reuseRepo) throws IOException, InterruptedException, URISyntaxException {
+        final PublishingProfile pubProfile = context.getPublishingProfile();
+        final FilePath ws = context.getJobContext().getWorkspace();
+
+        final DeploymentTimings timings = DeploymentTimings.nonNull(context.getTimings());
+
+        final boolean checkout = !context.isCommitWithoutCheckout();
+        final DeploymentTimings.Phase fetch = timings.start(reuseRepo ? "Update repository" : "Clone");
+        if (reuseRepo) {
+            updateCachedRepository(context, git, repo, pubProfile.gitUrl(), checkout);
+        } else {
+            cloneDeployBranch(git, repo, pubProfile.gitUrl(), checkout);
+        }
+        fetch.end();
 
-            cleanWorkingDirectory(git);
+        final FilePath sourceDir = ws.child(Util.fixNull(context.getSourceDirectory()));
+        final String targetDir = Util.fixNull(context.getTargetDirectory());
+        final String filePath = Util.fixNull(context.getFilePath());
+        final String message = env.expand(DEPLOY_COMMIT_MESSAGE);
 
-            final FilePath sourceDir = ws.child(Util.fixNull(context.getSourceDirectory()));
-            final String targetDir = Util.fixNull(context.getTargetDirectory());
-            final String filePath = Util.fixNull(context.getFilePath());
-            copyAndAddFiles(git, repo, sourceDir, targetDir, filePath);
+        if (checkout) {
+            final DeploymentTimings.Phase sync = timings.start("Copy files");
+            final SyncWorkingTreeCallback.Summary summary = syncWorkingTree(git, sourceDir, targetDir, filePath);
+            sync.end().addBytes(summary.getCopiedBytes());
+            context.logStatus("Sync deploy repository: " + summary);
 
             if (!isWorkingTreeChanged(git)) {
                 context.logStatus("Deploy repository is up-to-date. Nothing to commit.");
@@ -111,32 +149,160 @@ public class GitDeployCommand implements ICommand<GitDeployCommand.IGitDeployCom
                 return;
             }
 
+            final DeploymentTimings.Phase commit = timings.start("Commit");
             setAuthor(git);
             setCommitter(git);
 
-            git.commit(env.expand(DEPLOY_COMMIT_MESSAGE));
+            git.commit(message);
+            commit.end();
+        } else {
+            final DeploymentTimings.Phase phase = timings.start("Commit");
+            final ObjectId commit = commitWithoutCheckout(git, sourceDir, targetDir, filePath, message);
+            phase.end();
+            if (commit == null) {
+                context.logStatus("Deploy repository is up-to-date. Nothing to commit.");
+                context.setCommandState(CommandState.Success);
+                return;
+            }
+            context.logStatus("Committed " + commit.name() + " without working tree");
+        }
 
-            git.push().ref(DEPLOY_BRANCH + ":" + DEPLOY_BRANCH).to(new URIish(pubProfile.gitUrl())).execute();
-            context.logStatus(String.format("Deploy to function with default host https://%s",
-                    context.getWebAppBase().defaultHostName()));
-            context.setCommandState(CommandState.Success);
+        final DeploymentTimings.Phase push = timings.start("Push");
+        git.push().ref(DEPLOY_BRANCH + ":" + DEPLOY_BRANCH).to(new URIish(pubProfile.gitUrl())).execute();
+        push.end();
+        context.logStatus(String.format("Deploy to function with default host https://%s",
+                context.getWebAppBase().defaultHostName()));
+        context.setCommandState(CommandState.Success);
+
+        AzureFunctionPlugin.sendEvent(Constants.AI_FUNCTION_APP, Constants.AI_GIT_DEPLOY,
+                "Run", AzureFunctionPlugin.hash(context.getJobContext().getRun().getUrl()),
+                "ResourceGroup", AzureFunctionPlugin.hash(context.getWebAppBase().resourceGroupName()),
+                "FunctionApp", AzureFunctionPlugin.hash(context.getWebAppBase().name()));
+    }
 
-            AzureFunctionPlugin.sendEvent(Constants.AI_FUNCTION_APP, Constants.AI_GIT_DEPLOY,
-                    "Run", AppInsightsUtils.hash(context.getJobContext().getRun().getUrl()),
-                    "ResourceGroup", AppInsightsUtils.hash(context.getWebAppBase().resourceGroupName()),
-                    "FunctionApp", AppInsightsUtils.hash(context.getWebAppBase().name()));
+    /**
+     * Bring the cached deploy repository up-to-date with the remote, cloning it if it doesn't exist yet.
+     *
+     * Only the tip of the deploy branch is fetched, after which the working tree is reset to it.
+     *
+     * @param context  Command context
+     * @param git      Git client
+     * @param repo     Path to the cached repository
+     * @param gitUrl   Remote repository URL
+     * @param checkout Whether to reset the working tree, or only fetch
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws URISyntaxException
+     */
+    private void updateCachedRepository(
+            final IGitDeployCommandData context,
+            final GitClient git,
+            final FilePath repo,
+            final String gitUrl,
+            final boolean checkout) throws IOException, InterruptedException, URISyntaxException {
+        if (git.hasGitRepo()) {
+            context.logStatus("Fetching into cached deploy repository " + repo.getRemote());
+            try {
+                git.setRemoteUrl(DEPLOY_REMOTE, gitUrl);
+                git.fetch_()
+                        .from(new URIish(gitUrl), Collections.singletonList(new RefSpec(DEPLOY_REFSPEC)))
+                        .prune()
+                        .shallow(true)
+                        .depth(1)
+                        .execute();
+                if (hasRemoteDeployBranch(git)) {
+                    if (checkout) {
+                        git.checkout().ref(DEPLOY_REMOTE_BRANCH).branch(DEPLOY_BRANCH).deleteBranchIfExist(true)
+                                .execute();
+                        git.clean();
+                    }
+                    return;
+                }
+                // The remote repository has been emptied, don't push stale history back
+                context.logStatus("Remote deploy branch not found. Recreating cached deploy repository.");
+            } catch (GitException e) {
+                // The cached repository may be corrupted, e.g. by a build killed while updating it
+                context.logStatus("Fail to update cached deploy repository: " + e.getMessage()
+                        + ". Recreating it.");
+            }
+        } else {
+            context.logStatus("Cloning into cached deploy repository " + repo.getRemote());
+        }
 
-        } catch (IOException | InterruptedException | URISyntaxException e) {
-            e.printStackTrace();
-            context.logError("Fail to deploy using Git: " + e.getMessage());
-            AzureFunctionPlugin.sendEvent(Constants.AI_FUNCTION_APP, Constants.AI_GIT_DEPLOY_FAILED,
-                    "Run", AppInsightsUtils.hash(context.getJobContext().getRun().getUrl()),
-                    "ResourceGroup", AppInsightsUtils.hash(context.getWebAppBase().resourceGroupName()),
-                    "FunctionApp", AppInsightsUtils.hash(context.getWebAppBase().name()),
-                    "Message", e.getMessage());
+        if (repo.exists()) {
+            repo.deleteContents();
+        }
+        cloneDeployBranch(git, repo, gitUrl, checkout);
+    }
+
+    /**
+     * Clone only the tip of the deploy branch, without tags or other branches.
+     *
+     * Sometimes remote repository is bare and the master branch doesn't exist. There is nothing to fetch then, so
+     * only an empty repository pointing to the remote is initialized.
+     *
+     * @param git      Git client
+     * @param repo     Path to the deploy repository
+     * @param gitUrl   Remote repository URL
+     * @param checkout Whether to check out the deploy branch, or only fetch it
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void cloneDeployBranch(
+            final GitClient git,
+            final FilePath repo,
+            final String gitUrl,
+            final boolean checkout) throws IOException, InterruptedException {
+        if (git.getHeadRev(gitUrl, DEPLOY_BRANCH) == null) {
+            git.init_().workspace(repo.getRemote()).execute();
+            git.setRemoteUrl(DEPLOY_REMOTE, gitUrl);
+            return;
+        }
+
+        git.clone_()
+                .url(gitUrl)
+                .shallow(true)
+                .depth(1)
+                .tags(false)
+                .refspecs(Collections.singletonList(new RefSpec(DEPLOY_REFSPEC)))
+                .execute();
+        if (checkout) {
+            git.checkout().ref(DEPLOY_BRANCH).execute();
         }
     }
 
+    private boolean hasRemoteDeployBranch(final GitClient git) throws InterruptedException {
+        Set<Branch> branches = git.getRemoteBranches();
+        for (Branch branch : branches) {
+            if (branch.getName().equals(DEPLOY_REMOTE_BRANCH)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the location of the deploy repository cached for a function app on the node running the build.
+     *
+     * @param ws     Workspace
+     * @param gitUrl Remote repository URL of the function app
+     * @return Path to the cached repository
+     */
+    private FilePath getCachedRepository(final FilePath ws, final String gitUrl) {
+        FilePath root = null;
+        final Computer computer = ws.toComputer();
+        if (computer != null) {
+            final Node node = computer.getNode();
+            if (node != null) {
+                root = node.getRootPath();
+            }
+        }
+        if (root == null) {
+            root = ws;
+        }
+        return root.child(DEPLOY_CACHE_DIR).child(Util.getDigestOf(gitUrl));
+    }
+
     private String getGitExe(final Run run, final TaskListener listener) throws IOException, InterruptedException {
         GitTool tool = GitTool.getDefaultInstallation();
 
@@ -199,94 +365,44 @@ public class GitDeployCommand implements ICommand<GitDeployCommand.IGitDeployCom
     }
 
     /**
-     * Remove all existing files in the working directory, from both git and disk
+     * Sync selected files into the git working directory, staging only what changed.
      *
-     * This method is modified from RmCommand in JGit.
-     *
-     * @param git Git client
+     * @param git          Git client
+     * @param sourceDir    Source directory
+     * @param targetDir    Target directory
+     * @param filesPattern Files name pattern
+     * @return Number of files added, modified, removed and unchanged
      * @throws IOException
      * @throws InterruptedException
      */
-    private void cleanWorkingDirectory(final GitClient git) throws IOException, InterruptedException {
-        git.withRepository(new CleanWorkingDirectoryCallback());
-    }
-
-    private static final class CleanWorkingDirectoryCallback implements RepositoryCallback<Void> {
-        @Override
-        public Void invoke(final Repository repo, final VirtualChannel channel)
-                throws IOException, InterruptedException {
-            DirCache dc = null;
-
-            try (final TreeWalk tw = new TreeWalk(repo)) {
-                dc = repo.lockDirCache();
-                DirCacheBuilder builder = dc.builder();
-                tw.reset(); // drop the first empty tree, which we do not need here
-                tw.setRecursive(true);
-                tw.setFilter(TreeFilter.ALL);
-                tw.addTree(new DirCacheBuildIterator(builder));
-
-                while (tw.next()) {
-                    final FileMode mode = tw.getFileMode(0);
-                    if (mode.getObjectType() == org.eclipse.jgit.lib.Constants.OBJ_BLOB) {
-                        final File path = new File(repo.getWorkTree(),
-                                tw.getPathString());
-                        // Deleting a blob is simply a matter of removing
-                        // the file or symlink named by the tree entry.
-                        delete(repo, path);
-                    }
-                }
-                builder.commit();
-            } finally {
-                if (dc != null) {
-                    dc.unlock();
-                }
-            }
-
-            return null;
-        }
-
-        private void delete(final Repository repo, final File target) {
-            File cur = target;
-            while (cur != null && !cur.equals(repo.getWorkTree()) && cur.delete()) {
-                cur = cur.getParentFile();
-            }
-        }
+    private SyncWorkingTreeCallback.Summary syncWorkingTree(
+            final GitClient git,
+            final FilePath sourceDir,
+            final String targetDir,
+            final String filesPattern) throws IOException, InterruptedException {
+        return git.withRepository(new SyncWorkingTreeCallback(sourceDir.getRemote(), targetDir, filesPattern));
     }
 
     /**
-     * Copy selected files to git working directory and stage them.
+     * Commit selected files on top of the fetched deploy branch, without copying them into the working tree.
      *
      * @param git          Git client
-     * @param repo         Path to git repo
      * @param sourceDir    Source directory
      * @param targetDir    Target directory
      * @param filesPattern Files name pattern
+     * @param message      Commit message
+     * @return Id of the new commit, or null if nothing changed
      * @throws IOException
      * @throws InterruptedException
      */
-    private void copyAndAddFiles(
+    private ObjectId commitWithoutCheckout(
             final GitClient git,
-            final FilePath repo,
             final FilePath sourceDir,
             final String targetDir,
-            final String filesPattern) throws IOException, InterruptedException {
-        final FilePath[] files = sourceDir.list(filesPattern);
-        for (final FilePath file : files) {
-            final String fileName = FilePathUtils.trimDirectoryPrefix(sourceDir, file);
-            FilePath repoPath = new FilePath(repo.child(targetDir), fileName);
-            file.copyTo(repoPath);
-        }
-        git.add(gitAddAllPattern);
-    }
-
-   /**
-     * Check whether will use git cli.
-     *
-     * @param gitExe Executable git.
-     * @return <code>true</code> if there is executable git and {@link Git#USE_CLI} is <code>true</code>
-     */
-    private boolean useGitCli(String gitExe) {
-        return gitExe != null && Git.USE_CLI;
+            final String filesPattern,
+            final String message) throws IOException, InterruptedException {
+        return git.withRepository(new DirectCommitCallback(sourceDir.getRemote(), targetDir, filesPattern,
+                "refs/remotes/" + DEPLOY_REMOTE_BRANCH, "refs/heads/" + DEPLOY_BRANCH, message));
     }
 
     /**
@@ -322,5 +438,22 @@ public class GitDeployCommand implements ICommand<GitDeployCommand.IGitDeployCom
         String getTargetDirectory();
 
         WebAppBase getWebAppBase();
+
+        boolean isCacheDeployRepository();
+
+        boolean isCommitWithoutCheckout();
+
+        /**
+         * Name of the deploy repository directory in the workspace, so that deployments to several function apps
+         * don't share one.
+         *
+         * @return Directory name, or null for the default
+         */
+        String getDeployRepositoryName();
+
+        /**
+         * @return Timings of the deployment phases, or null if not reported
+         */
+        DeploymentTimings getTimings();
     }
 }
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.jenkins.function.commands;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.util.Timer;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Exclusive use of a cached deploy repository, held as a lock file next to it on the node.
+ *
+ * The lock file is created atomically by the node's file system, so it keeps out builds of any Jenkins controller
+ * sharing the node, and is left behind by no in-memory state. While held, the lock file is touched periodically, so a
+ * lock file older than the stale timeout belongs to a build that was most likely killed without releasing it, and is
+ * taken over.
+ *
+ * Every change to the lock file is made under an OS file lock on a guard file next to it, so that waiters judging the
+ * same lock stale at once can't both take it over.
+ */
+final class RepositoryLock {
+
+    private static final Logger LOGGER = Logger.getLogger(RepositoryLock.class.getName());
+
+    private static final long STALE_MINUTES =
+            Long.getLong(RepositoryLock.class.getName() + ".staleMinutes", 60);
+    private static final long POLL_INTERVAL = 1000;
+    private static final int HEARTBEATS_PER_STALE_TIMEOUT = 4;
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final String GUARD_SUFFIX = ".guard";
+
+    /**
+     * File locks are held by the whole JVM, so threads of one JVM take turns before locking the guard file.
+     */
+    private static final Object JVM_GUARD = new Object();
+
+    private final FilePath lockFile;
+    private final String token;
+    private final ScheduledFuture<?> heartbeat;
+
+    private RepositoryLock(final FilePath lockFile, final String token, final long heartbeatInterval) {
+        this.lockFile = lockFile;
+        this.token = token;
+        this.heartbeat = Timer.get().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!lockFile.act(new TouchCallable(token))) {
+                        LOGGER.log(Level.WARNING, "Lock {0} was taken over by another build", lockFile.getRemote());
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Fail to refresh lock " + lockFile.getRemote(), e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Wait until the repository is not used by another build, then lock it.
+     *
+     * @param repo   Path to the cached repository
+     * @param logger Told when waiting for another build
+     * @return The lock, to release once done with the repository
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    static RepositoryLock acquire(final FilePath repo, final PrintStream logger)
+            throws IOException, InterruptedException {
+        return acquire(repo, logger, TimeUnit.MINUTES.toMillis(STALE_MINUTES), POLL_INTERVAL);
+    }
+
+    static RepositoryLock acquire(final FilePath repo, final PrintStream logger, final long staleMillis,
+                                  final long pollInterval) throws IOException, InterruptedException {
+        final FilePath lockFile = getLockFile(repo);
+        final String token = UUID.randomUUID().toString();
+        boolean waiting = false;
+        while (!lockFile.act(new TryLockCallable(token, staleMillis))) {
+            if (!waiting) {
+                logger.println("Waiting for another build to release deploy repository " + repo.getRemote());
+                waiting = true;
+            }
+            Thread.sleep(pollInterval);
+        }
+        return new RepositoryLock(lockFile, token, Math.max(1, staleMillis / HEARTBEATS_PER_STALE_TIMEOUT));
+    }
+
+    static FilePath getLockFile(final FilePath repo) {
+        return repo.getParent().child(repo.getName() + LOCK_SUFFIX);
+    }
+
+    /**
+     * Release the lock, unless it was taken over as stale meanwhile.
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    void release() throws IOException, InterruptedException {
+        heartbeat.cancel(false);
+        lockFile.act(new UnlockCallable(token));
+    }
+
+    /**
+     * Change the lock file while holding the guard file locked.
+     */
+    private abstract static class GuardedCallable<T> extends MasterToSlaveFileCallable<T> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public final T invoke(final File file, final VirtualChannel channel) throws IOException {
+            final File dir = file.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException("Fail to create directory: " + dir);
+            }
+            final File guard = new File(dir, file.getName() + GUARD_SUFFIX);
+            synchronized (JVM_GUARD) {
+                try (FileChannel guardChannel = FileChannel.open(guard.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                     FileLock ignored = guardChannel.lock()) {
+                    return invokeGuarded(file);
+                }
+            }
+        }
+
+        abstract T invokeGuarded(File file) throws IOException;
+    }
+
+    private static final class TryLockCallable extends GuardedCallable<Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private final String token;
+        private final long staleMillis;
+
+        TryLockCallable(final String token, final long staleMillis) {
+            this.token = token;
+            this.staleMillis = staleMillis;
+        }
+
+        @Override
+        Boolean invokeGuarded(final File file) throws IOException {
+            if (!file.createNewFile()) {
+                final long modified = file.lastModified();
+                if (modified == 0 || System.currentTimeMillis() - modified < staleMillis) {
+                    return false;
+                }
+                // Other waiters wait for the guard, so they find the lock fresh again once taken over
+                if (!file.delete() || !file.createNewFile()) {
+                    return false;
+                }
+            }
+            FileUtils.writeStringToFile(file, token, StandardCharsets.UTF_8);
+            return true;
+        }
+    }
+
+    private static final class TouchCallable extends GuardedCallable<Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private final String token;
+
+        TouchCallable(final String token) {
+            this.token = token;
+        }
+
+        @Override
+        Boolean invokeGuarded(final File file) throws IOException {
+            return isHeldWith(file, token) && file.setLastModified(System.currentTimeMillis());
+        }
+    }
+
+    private static final class UnlockCallable extends GuardedCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final String token;
+
+        UnlockCallable(final String token) {
+            this.token = token;
+        }
+
+        @Override
+        Void invokeGuarded(final File file) throws IOException {
+            if (isHeldWith(file, token)) {
+                if (!file.delete()) {
+                    throw new IOException("Fail to delete lock file: " + file);
+                }
+            }
+            return null;
+        }
+    }
+
+    private static boolean isHeldWith(final File file, final String token) throws IOException {
+        return file.isFile() && token.equals(FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.jenkins.function.commands;
+
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.util.FS;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Make the working tree and index of the deploy repository match the selected source files.
+ *
+ * Source files are compared with the index by size and modification time, and by content hash only when those don't
+ * match. Only added or modified files are written and staged, and only paths no longer selected are removed, so an
+ * unchanged deployment touches nothing on disk.
+ */
+final class SyncWorkingTreeCallback implements RepositoryCallback<SyncWorkingTreeCallback.Summary> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String sourceDirectory;
+    private final String targetDirectory;
+    private final String filesPattern;
+
+    /**
+     * @param sourceDirectory Absolute path of the source directory, on the node holding the repository
+     * @param targetDirectory Directory inside the repository the files are deployed to
+     * @param filesPattern    Ant pattern of the source files to deploy
+     */
+    SyncWorkingTreeCallback(final String sourceDirectory, final String targetDirectory, final String filesPattern) {
+        this.sourceDirectory = sourceDirectory;
+        this.targetDirectory = targetDirectory;
+        this.filesPattern = filesPattern;
+    }
+
+    @Override
+    public Summary invoke(final Repository repo, final VirtualChannel channel)
+            throws IOException, InterruptedException {
+        final File sourceDir = new File(sourceDirectory);
+        final File workTree = repo.getWorkTree();
+        final String prefix = getPathPrefix(targetDirectory);
+        final String[] files = sourceDir.isDirectory()
+                ? Util.createFileSet(sourceDir, filesPattern).getDirectoryScanner().getIncludedFiles()
+                : new String[0];
+
+        final Summary summary = new Summary();
+        final DirCache dc = repo.lockDirCache();
+        try (ObjectInserter inserter = repo.newObjectInserter()) {
+            final Map<String, DirCacheEntry> remaining = new HashMap<>();
+            for (int i = 0; i < dc.getEntryCount(); i++) {
+                final DirCacheEntry entry = dc.getEntry(i);
+                remaining.put(entry.getPathString(), entry);
+            }
+
+            final DirCacheBuilder builder = dc.builder();
+            for (final String file : files) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                final String path = prefix + file.replace(File.separatorChar, '/');
+                final File source = new File(sourceDir, file);
+                final File target = new File(workTree, path);
+                final DirCacheEntry existing = remaining.remove(path);
+                builder.add(sync(repo, inserter, path, source, target, existing, summary));
+            }
+
+            // Whatever is left in the index is no longer deployed
+            for (final DirCacheEntry entry : remaining.values()) {
+                delete(workTree, new File(workTree, entry.getPathString()));
+                summary.removed++;
+            }
+
+            inserter.flush();
+            builder.commit();
+        } finally {
+            dc.unlock();
+        }
+        return summary;
+    }
+
+    private DirCacheEntry sync(
+            final Repository repo,
+            final ObjectInserter inserter,
+            final String path,
+            final File source,
+            final File target,
+            final DirCacheEntry existing,
+            final Summary summary) throws IOException {
+        final long length = source.length();
+        final long lastModified = source.lastModified();
+        final boolean targetPresent = target.isFile() && target.length() == length;
+
+        if (existing != null && targetPresent && existing.getLength() == length) {
+            // Same size and time stamp as when it was last copied, so it's considered unchanged without reading it
+            if (existing.getLastModified() == lastModified) {
+                summary.unchanged++;
+                return existing;
+            }
+
+            // Time stamp differs, compare content
+            final ObjectId id;
+            try (InputStream stream = new FileInputStream(source)) {
+                id = inserter.idFor(Constants.OBJ_BLOB, length, stream);
+            }
+            if (id.equals(existing.getObjectId())) {
+                // Remember the new time stamp so the next sync doesn't need to read the file again
+                if (target.setLastModified(lastModified)) {
+                    existing.setLastModified(lastModified);
+                }
+                summary.unchanged++;
+                return existing;
+            }
+        }
+
+        final File parent = target.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Fail to create directory: " + parent);
+        }
+        Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        summary.copiedBytes += length;
+        if (!target.setLastModified(lastModified)) {
+            throw new IOException("Fail to set last modified time of " + target);
+        }
+
+        final ObjectId id;
+        try (InputStream stream = new FileInputStream(source)) {
+            id = inserter.insert(Constants.OBJ_BLOB, length, stream);
+        }
+
+        final DirCacheEntry entry = new DirCacheEntry(path);
+        final FS fs = repo.getFS();
+        entry.setFileMode(fs.supportsExecute() && fs.canExecute(source) ? FileMode.EXECUTABLE_FILE
+                : FileMode.REGULAR_FILE);
+        entry.setLength(length);
+        entry.setLastModified(lastModified);
+        entry.setObjectId(id);
+
+        if (existing == null) {
+            summary.added++;
+        } else {
+            summary.modified++;
+        }
+        return entry;
+    }
+
+    /**
+     * Delete a file, and its parent directories as long as they become empty.
+     */
+    private static void delete(final File workTree, final File target) {
+        File cur = target;
+        while (cur != null && !cur.equals(workTree) && cur.delete()) {
+            cur = cur.getParentFile();
+        }
+    }
+
+    static String getPathPrefix(final String targetDirectory) {
+        String prefix = Util.fixNull(targetDirectory).replace('\\', '/');
+        while (prefix.startsWith("/")) {
+            prefix = prefix.substring(1);
+        }
+        while (prefix.endsWith("/")) {
+            prefix = prefix.substring(0, prefix.length() - 1);
+        }
+        return prefix.isEmpty() ? "" : prefix + "/";
+    }
+
+    /**
+     * Number of files added, modified, removed or left untouched by a sync.
+     */
+    static final class Summary implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private int added;
+        private int modified;
+        private int removed;
+        private int unchanged;
+        private long copiedBytes;
+
+        int getAdded() {
+            return added;
+        }
+
+        int getModified() {
+            return modified;
+        }
+
+        int getRemoved() {
+            return removed;
+        }
+
+        int getUnchanged() {
+            return unchanged;
+        }
+
+        long getCopiedBytes() {
+            return copiedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d added, %d modified, %d removed, %d unchanged",
+                    added, modified, removed, unchanged);
+        }
+    }
+}
@@ -5,76 +5,370 @@
  */
 package com.microsoft.jenkins.function.commands;
 
+import com.microsoft.azure.management.appservice.PublishingProfile;
 import com.microsoft.azure.management.appservice.WebAppBase;
 import com.microsoft.jenkins.azurecommons.command.CommandState;
 import com.microsoft.jenkins.azurecommons.command.IBaseCommandData;
 import com.microsoft.jenkins.azurecommons.command.ICommand;
-import com.microsoft.jenkins.azurecommons.telemetry.AppInsightsUtils;
 import com.microsoft.jenkins.function.AzureFunctionPlugin;
 import com.microsoft.jenkins.function.util.Constants;
+import com.microsoft.jenkins.function.util.ContentDigest;
+import com.microsoft.jenkins.function.util.DeploymentDigestStore;
+import com.microsoft.jenkins.function.util.DeploymentStatusPoller;
+import com.microsoft.jenkins.function.util.DeploymentTimings;
+import com.microsoft.jenkins.function.util.KuduZipDeployer;
+import com.microsoft.jenkins.function.util.ReproducibleZipArchiver;
+import com.microsoft.jenkins.function.util.SourceManifest;
+import com.microsoft.jenkins.function.util.UploadRetrier;
 import hudson.FilePath;
+import hudson.Functions;
 import hudson.Util;
-import hudson.util.DirScanner;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ZipDeployCommand implements ICommand<ZipDeployCommand.IZipDeployCommandData> {
     private static final String ZIP_FOLDER_NAME = "fileArchive";
     private static final String ZIP_NAME = "archive.zip";
     private static final String LOCAL_SETTINGS_FILE = "local.settings.json";
+    private static final int COMPRESSION_LEVEL = 6;
+    private static final int DEFAULT_ASYNC_TIMEOUT_MINUTES = 30;
 
     @Override
     public void execute(IZipDeployCommandData context) {
         FilePath workspace = context.getJobContext().getWorkspace();
         String filePattern = Util.fixNull(context.getFilePath());
 
-        final FilePath tempDir;
         try {
             String targetDirectory = context.getTargetDirectory();
             if (StringUtils.isNotBlank(targetDirectory)) {
                 context.logStatus(String.format("Your parameter %s for Target Directory will be ignored "
                         + "for Java functions.", targetDirectory));
             }
-            tempDir = workspace.createTempDir(ZIP_FOLDER_NAME, null);
-            final FilePath zipPath = tempDir.child(ZIP_NAME);
-            final DirScanner.Glob globScanner = new DirScanner.Glob(filePattern, excludedFilesAndZip());
             final FilePath sourceDir = workspace.child(Util.fixNull(context.getSourceDirectory()));
-            int count = sourceDir.zip(zipPath.write(), globScanner);
-            context.logStatus(String.format("Archive %d target files under %s", count, sourceDir.getRemote()));
+            final WebAppBase functionApp = context.getWebAppBase();
+            final FilePath prebuiltArchive = context.getPrebuiltArchive();
+            final SourceManifest manifest = context.getSourceManifest();
+            final DeploymentTimings timings = DeploymentTimings.nonNull(context.getTimings());
 
-            WebAppBase functionApp = context.getWebAppBase();
-            try (InputStream stream = zipPath.read()) {
-                functionApp.zipDeploy(stream);
+            // Skip rebuilds producing byte-identical output, unless a redeploy is forced
+            final String appId = functionApp.id();
+            String digest = null;
+            if (appId != null) {
+                digest = context.getPackageDigest();
+                if (digest == null) {
+                    final DeploymentTimings.Phase phase = timings.start("Compute digest");
+                    try {
+                        digest = manifest != null
+                                ? computeDigest(workspace, context.getSourceDirectory(), manifest)
+                                : computeDigest(workspace, context.getSourceDirectory(), filePattern);
+                    } finally {
+                        phase.end();
+                    }
+                }
+                if (!context.isForceRedeploy() && digest.equals(DeploymentDigestStore.get().getDigest(appId))) {
+                    context.logStatus(String.format("Package under %s is unchanged since the last deployment to "
+                            + "function %s. Skip deploying.", sourceDir.getRemote(), functionApp.name()));
+                    context.setCommandState(CommandState.Success);
+                    AzureFunctionPlugin.sendEvent(Constants.AI_FUNCTION_APP, Constants.AI_ZIP_DEPLOY_SKIPPED,
+                            "Run", AzureFunctionPlugin.hash(context.getJobContext().getRun().getUrl()),
+                            "ResourceGroup", AzureFunctionPlugin.hash(context.getWebAppBase().resourceGroupName()),
+                            "FunctionApp", AzureFunctionPlugin.hash(context.getWebAppBase().name()));
+                    return;
+                }
             }
-            context.logStatus("Deploy to function " + functionApp.name() + " using file: " + zipPath.getRemote());
-            context.logStatus("Tmp file location " + tempDir.getRemote());
-            tempDir.deleteRecursive();
 
+            final UploadRetrier retrier = createRetrier(context);
+            if (context.isAgentUpload() || context.isAsyncDeploy()) {
+                // Send the package from the node holding it, rather than through the controller
+                final KuduZipDeployer deployer = createDeployer(context);
+                final boolean async = context.isAsyncDeploy();
+                final ReproducibleZipArchiver archiver = prebuiltArchive != null
+                        ? null : createArchiver(filePattern, manifest, context.getArchiveThreads());
+                final DeploymentTimings.Phase phase = timings.start("Upload from agent");
+                final KuduZipDeployer.Submission submission = retrier.call(
+                        new UploadRetrier.Upload<KuduZipDeployer.Submission>() {
+                            @Override
+                            public KuduZipDeployer.Submission run(final AtomicLong sent)
+                                    throws IOException, InterruptedException {
+                                if (prebuiltArchive != null) {
+                                    final KuduZipDeployer.Submission result = deployer.upload(prebuiltArchive, async);
+                                    sent.set(prebuiltArchive.length());
+                                    return result;
+                                }
+                                return deployer.upload(sourceDir, archiver, async);
+                            }
+                        });
+                phase.end().addBytes(retrier.getBytesSent());
+                if (prebuiltArchive != null) {
+                    context.logStatus("Deploy to function " + functionApp.name() + " from the agent using shared file: "
+                            + prebuiltArchive.getRemote());
+                } else {
+                    context.logStatus(String.format("Archive %d target files under %s",
+                            submission.getFileCount(), sourceDir.getRemote()));
+                    context.logStatus("Deploy to function " + functionApp.name() + " from the agent to "
+                            + deployer.getUrl());
+                }
+                if (async) {
+                    waitForDeployment(context, deployer, submission, timings);
+                }
+            } else if (prebuiltArchive != null) {
+                // Archive shared by several function apps, built once beforehand
+                final DeploymentTimings.Phase phase = timings.start("Upload");
+                retrier.call(uploadFile(functionApp, prebuiltArchive));
+                phase.end().addBytes(retrier.getBytesSent());
+                context.logStatus("Deploy to function " + functionApp.name() + " using shared file: "
+                        + prebuiltArchive.getRemote());
+            } else if (context.isStreamArchive()) {
+                // Archive straight into a chunked request sent from the node holding the files, so the package is
+                // neither staged on disk nor held in memory: the Kudu client of the SDK reads the whole stream given
+                // to zipDeploy into memory on the controller before posting it. The archive is reproducible, so a
+                // retry builds it again rather than keeping a copy around.
+                final KuduZipDeployer deployer = createDeployer(context);
+                final ReproducibleZipArchiver archiver =
+                        createArchiver(filePattern, manifest, context.getArchiveThreads());
+                final DeploymentTimings.Phase phase = timings.start("Archive and upload");
+                final int count = retrier.call(new UploadRetrier.Upload<Integer>() {
+                    @Override
+                    public Integer run(final AtomicLong sent) throws IOException, InterruptedException {
+                        return deployer.deploy(sourceDir, archiver);
+                    }
+                });
+                phase.end();
+                context.logStatus(String.format("Archive %d target files under %s", count, sourceDir.getRemote()));
+                context.logStatus("Deploy to function " + functionApp.name() + " using streamed archive to "
+                        + deployer.getUrl());
+            } else {
+                final FilePath tempDir = workspace.createTempDir(ZIP_FOLDER_NAME, null);
+                try {
+                    final FilePath zipPath = tempDir.child(ZIP_NAME);
+                    final ReproducibleZipArchiver zipArchiver =
+                            createArchiver(filePattern, manifest, context.getArchiveThreads());
+                    final DeploymentTimings.Phase archive = timings.start("Archive");
+                    int count = zipArchiver.archive(sourceDir, zipPath.write());
+                    archive.end().addBytes(zipPath.length());
+                    context.logStatus(String.format("Archive %d target files under %s",
+                            count, sourceDir.getRemote()));
+
+                    final DeploymentTimings.Phase upload = timings.start("Upload");
+                    retrier.call(uploadFile(functionApp, zipPath));
+                    upload.end().addBytes(retrier.getBytesSent());
+                    context.logStatus("Deploy to function " + functionApp.name() + " using file: "
+                            + zipPath.getRemote());
+                    context.logStatus("Tmp file location " + tempDir.getRemote());
+                } finally {
+                    // Failed uploads are retried several times first, don't leave the package behind either way
+                    tempDir.deleteRecursive();
+                }
+            }
+            if (retrier.getAttempts() > 1) {
+                context.logStatus(String.format("Deployed after %d attempts, resending %s",
+                        retrier.getAttempts(), Functions.humanReadableByteSize(retrier.getBytesResent())));
+            }
+
+            if (digest != null) {
+                DeploymentDigestStore.get().setDigest(appId, digest);
+            }
             context.setCommandState(CommandState.Success);
             AzureFunctionPlugin.sendEvent(Constants.AI_FUNCTION_APP, Constants.AI_ZIP_DEPLOY,
-                    "Run", AppInsightsUtils.hash(context.getJobContext().getRun().getUrl()),
-                    "ResourceGroup", AppInsightsUtils.hash(context.getWebAppBase().resourceGroupName()),
-                    "FunctionApp", AppInsightsUtils.hash(context.getWebAppBase().name()));
-        } catch (IOException e) {
+                    "Run", AzureFunctionPlugin.hash(context.getJobContext().getRun().getUrl()),
+                    "ResourceGroup", AzureFunctionPlugin.hash(context.getWebAppBase().resourceGroupName()),
+                    "FunctionApp", AzureFunctionPlugin.hash(context.getWebAppBase().name()),
+                    "Attempts", String.valueOf(retrier.getAttempts()));
+        } catch (IOException | RuntimeException e) {
+            // Management calls of the SDK fail with unchecked exceptions such as RestException
             context.logError("Fail to deploy to zip: ", e);
+            // The app may be left with a partial deployment, so don't skip the next one
+            invalidateDigest(context.getWebAppBase());
             AzureFunctionPlugin.sendEvent(Constants.AI_FUNCTION_APP, Constants.AI_ZIP_DEPLOY_FAILED,
-                    "Run", AppInsightsUtils.hash(context.getJobContext().getRun().getUrl()),
-                    "ResourceGroup", AppInsightsUtils.hash(context.getWebAppBase().resourceGroupName()),
-                    "FunctionApp", AppInsightsUtils.hash(context.getWebAppBase().name()),
+                    "Run", AzureFunctionPlugin.hash(context.getJobContext().getRun().getUrl()),
+                    "ResourceGroup", AzureFunctionPlugin.hash(context.getWebAppBase().resourceGroupName()),
+                    "FunctionApp", AzureFunctionPlugin.hash(context.getWebAppBase().name()),
                     "Message", e.getMessage());
         } catch (InterruptedException e) {
             context.logError("Interrupted: ", e);
+            invalidateDigest(context.getWebAppBase());
             Thread.currentThread().interrupt();
         }
     }
 
+    /**
+     * Build the archive of a Java function once, so that it can be deployed to several function apps.
+     *
+     * @param workspace       Workspace
+     * @param sourceDirectory Source directory, relative to the workspace
+     * @param filePattern     Files to archive, in ant pattern
+     * @param threads         Number of threads compressing the archive, or 0 for one per processor
+     * @return Path to the archive, in a temporary directory of the workspace to delete once deployed
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static FilePath buildArchive(
+            final FilePath workspace,
+            final String sourceDirectory,
+            final String filePattern,
+            final int threads) throws IOException, InterruptedException {
+        final FilePath sourceDir = workspace.child(Util.fixNull(sourceDirectory));
+        final FilePath zipPath = workspace.createTempDir(ZIP_FOLDER_NAME, null).child(ZIP_NAME);
+        createArchiver(Util.fixNull(filePattern), null, threads).archive(sourceDir, zipPath.write());
+        return zipPath;
+    }
+
+    /**
+     * Build the archive of a Java function once, from the files of a manifest scanned beforehand.
+     *
+     * @param workspace       Workspace
+     * @param sourceDirectory Source directory, relative to the workspace
+     * @param manifest        Files under the source directory
+     * @param threads         Number of threads compressing the archive, or 0 for one per processor
+     * @return Path to the archive, in a temporary directory of the workspace to delete once deployed
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static FilePath buildArchive(
+            final FilePath workspace,
+            final String sourceDirectory,
+            final SourceManifest manifest,
+            final int threads) throws IOException, InterruptedException {
+        final FilePath sourceDir = workspace.child(Util.fixNull(sourceDirectory));
+        final FilePath zipPath = workspace.createTempDir(ZIP_FOLDER_NAME, null).child(ZIP_NAME);
+        createArchiver(null, manifest, threads).archive(sourceDir, zipPath.write());
+        return zipPath;
+    }
+
+    /**
+     * Compute the digest of the files deployed for a Java function.
+     *
+     * @param workspace       Workspace
+     * @param sourceDirectory Source directory, relative to the workspace
+     * @param filePattern     Files to archive, in ant pattern
+     * @return Content digest
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static String computeDigest(
+            final FilePath workspace,
+            final String sourceDirectory,
+            final String filePattern) throws IOException, InterruptedException {
+        return workspace.child(Util.fixNull(sourceDirectory))
+                .act(new ContentDigest(Util.fixNull(filePattern), excludedFilesAndZip()));
+    }
+
+    /**
+     * Compute the digest of the files of a manifest scanned beforehand.
+     *
+     * @param workspace       Workspace
+     * @param sourceDirectory Source directory, relative to the workspace
+     * @param manifest        Files under the source directory
+     * @return Content digest
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static String computeDigest(
+            final FilePath workspace,
+            final String sourceDirectory,
+            final SourceManifest manifest) throws IOException, InterruptedException {
+        return workspace.child(Util.fixNull(sourceDirectory))
+                .act(new ContentDigest(manifest.exclude(excludedFilesAndZip()).getPaths()));
+    }
+
+    /**
+     * @param minutes Timeout of asynchronous deployments as configured, or 0 for the default
+     * @return Timeout in milliseconds
+     */
+    public static long getAsyncDeployTimeoutMillis(final int minutes) {
+        return TimeUnit.MINUTES.toMillis(minutes > 0 ? minutes : DEFAULT_ASYNC_TIMEOUT_MINUTES);
+    }
+
+    private static void waitForDeployment(
+            final IZipDeployCommandData context,
+            final KuduZipDeployer deployer,
+            final KuduZipDeployer.Submission submission,
+            final DeploymentTimings timings) throws IOException, InterruptedException {
+        final long timeoutMillis = getAsyncDeployTimeoutMillis(context.getAsyncDeployTimeout());
+        context.onDeploymentSubmitted(submission);
+        context.logStatus("Wait for deployment " + submission.getStatusUrl());
+        final DeploymentStatusPoller poller = new DeploymentStatusPoller(deployer);
+        final DeploymentTimings.Phase phase = timings.start("Wait for deployment");
+        try {
+            poller.waitFor(submission, timeoutMillis, null);
+        } finally {
+            phase.end();
+            context.logStatus(String.format("Deployment status after %d polls: %s",
+                    poller.getPolls(), poller.getHistory()));
+        }
+    }
+
+    /**
+     * Upload an archive, opening it again on each attempt.
+     */
+    private static UploadRetrier.Upload<Void> uploadFile(final WebAppBase functionApp, final FilePath zipPath) {
+        return new UploadRetrier.Upload<Void>() {
+            @Override
+            public Void run(final AtomicLong sent) throws IOException, InterruptedException {
+                try (CountingInputStream stream = new CountingInputStream(zipPath.read())) {
+                    try {
+                        functionApp.zipDeploy(stream);
+                    } finally {
+                        sent.set(stream.getByteCount());
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * @param context Deployment context
+     * @return Deployer uploading to the SCM site of the function app
+     */
+    KuduZipDeployer createDeployer(final IZipDeployCommandData context) {
+        return KuduZipDeployer.fromPublishingProfile(context.getPublishingProfile());
+    }
+
+    private static UploadRetrier createRetrier(final IZipDeployCommandData context) {
+        return new UploadRetrier(new UploadRetrier.Listener() {
+            @Override
+            public void onRetry(final int attempt, final int maxAttempts, final Exception e, final long delayMillis) {
+                context.logStatus(String.format("Attempt %d of %d to deploy failed: %s. Retry in %s.",
+                        attempt, maxAttempts, e.getMessage(), Util.getTimeSpanString(delayMillis)));
+            }
+        });
+    }
+
+    private static ReproducibleZipArchiver createArchiver(
+            final String filePattern,
+            final SourceManifest manifest,
+            final int threads) {
+        if (manifest != null) {
+            // Files were already listed, no need to scan the tree again
+            return new ReproducibleZipArchiver(
+                    manifest.exclude(excludedFilesAndZip()).getPaths(), COMPRESSION_LEVEL, threads);
+        }
+        return new ReproducibleZipArchiver(filePattern, excludedFilesAndZip(), COMPRESSION_LEVEL, threads);
+    }
+
+    /**
+     * Forget the package last deployed with ZipDeploy, e.g. when deploying by another method, so that the next
+     * ZipDeploy of that package isn't skipped.
+     *
+     * @param functionApp Function app
+     */
+    static void invalidateDigest(final WebAppBase functionApp) {
+        final String appId = functionApp.id();
+        if (appId != null) {
+            DeploymentDigestStore.get().invalidate(appId);
+        }
+    }
+
     /**
      * Make sure we exclude the tempPath and local setting file from archiving.
      * @return excluded files in ant pattern
      */
-    private String excludedFilesAndZip() {
+    private static String excludedFilesAndZip() {
         String excludesWithoutZip = "**/" + ZIP_FOLDER_NAME + "*/" + ZIP_NAME;
         excludesWithoutZip = LOCAL_SETTINGS_FILE + "," + excludesWithoutZip;
         return excludesWithoutZip;
@@ -88,5 +382,58 @@ public class ZipDeployCommand implements ICommand<ZipDeployCommand.IZipDeployCom
         String getTargetDirectory();
 
         WebAppBase getWebAppBase();
+
+        PublishingProfile getPublishingProfile();
+
+        boolean isStreamArchive();
+
+        boolean isForceRedeploy();
+
+        boolean isAgentUpload();
+
+        /**
+         * @return Whether to poll the deployment status rather than wait for the upload to complete
+         */
+        boolean isAsyncDeploy();
+
+        /**
+         * @return Minutes to wait for an asynchronous deployment, or 0 for the default
+         */
+        int getAsyncDeployTimeout();
+
+        /**
+         * Called once an asynchronous deployment is queued, before its status is polled.
+         *
+         * @param submission Queued deployment, with the URL of its status
+         */
+        void onDeploymentSubmitted(KuduZipDeployer.Submission submission);
+
+        int getArchiveThreads();
+
+        /**
+         * Archive built beforehand to deploy as is, e.g. when deploying to several function apps.
+         *
+         * @return Path to the archive, or null to archive the files
+         */
+        FilePath getPrebuiltArchive();
+
+        /**
+         * Digest of the files computed beforehand, e.g. when deploying to several function apps.
+         *
+         * @return Content digest, or null to compute it
+         */
+        String getPackageDigest();
+
+        /**
+         * @return Timings of the deployment phases, or null if not reported
+         */
+        DeploymentTimings getTimings();
+
+        /**
+         * Files under the source directory, scanned beforehand when detecting the runtime.
+         *
+         * @return Manifest, or null to scan the source directory
+         */
+        SourceManifest getSourceManifest();
     }
 }
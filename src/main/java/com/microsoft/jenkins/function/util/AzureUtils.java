@@ -5,31 +5,155 @@
  */
 package com.microsoft.jenkins.function.util;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.microsoft.azure.management.Azure;
 import com.microsoft.azure.util.AzureBaseCredentials;
 import com.microsoft.azure.util.AzureCredentialUtil;
 import com.microsoft.jenkins.azurecommons.core.AzureClientFactory;
 import com.microsoft.jenkins.azurecommons.core.credentials.TokenCredentialData;
 import com.microsoft.jenkins.function.AzureFunctionPlugin;
+import hudson.Util;
 import hudson.model.Item;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 public final class AzureUtils {
 
+    private static final Logger LOGGER = Logger.getLogger(AzureUtils.class.getName());
+
+    private static final long CLIENT_CACHE_TTL_MINUTES =
+            Long.getLong(AzureUtils.class.getName() + ".clientCacheTtlMinutes", 30);
+    private static final int CLIENT_CACHE_MAX_SIZE = 100;
+
+    /**
+     * Clients keyed by owner, credential id and a digest of the credential data, so that updated credentials get a
+     * new client. Each client holds its HTTP stack, connection pool and access token, which are costly to build for
+     * every request, so deploys and form requests using the same credential share them.
+     *
+     * Connections are pooled per client rather than in one pool for all clients: the client factory of azure-commons
+     * only exposes {@link Azure.Configurable}, which takes no OkHttp client or connection pool. As every build and
+     * form of an owner using the credential goes through the same client, its pool still keeps the connections to
+     * the management endpoint alive from one request to the next.
+     */
+    private static final Cache<ClientKey, Azure> CLIENT_CACHE = CacheBuilder.newBuilder()
+            .expireAfterWrite(CLIENT_CACHE_TTL_MINUTES, TimeUnit.MINUTES)
+            .maximumSize(CLIENT_CACHE_MAX_SIZE)
+            .recordStats()
+            .build();
+
     private AzureUtils() {
         // Hide
     }
 
     public static TokenCredentialData getToken(Item owner, String credentialId) {
+        return TokenCredentialData.deserialize(getTokenData(owner, credentialId));
+    }
+
+    private static String getTokenData(Item owner, String credentialId) {
         AzureBaseCredentials credential = AzureCredentialUtil.getCredential(owner, credentialId);
         if (credential == null) {
             throw new IllegalStateException(
                     String.format("Can't find credential in scope %s with id: %s", owner, credentialId));
         }
-        return TokenCredentialData.deserialize(credential.serializeToTokenData());
+        return credential.serializeToTokenData();
     }
 
+    /**
+     * Get an Azure client for a credential, reusing the one built for the same owner and credential data if any.
+     *
+     * @param owner        Item the credential is looked up for
+     * @param credentialId Credential id
+     * @return Azure client
+     */
     public static Azure buildClient(Item owner, String credentialId) {
-        TokenCredentialData token = getToken(owner, credentialId);
+        final String tokenData = getTokenData(owner, credentialId);
+        return getClient(new ClientKey(getOwnerName(owner), credentialId, Util.getDigestOf(tokenData)),
+                new Callable<Azure>() {
+                    @Override
+                    public Azure call() {
+                        return createClient(TokenCredentialData.deserialize(tokenData));
+                    }
+                });
+    }
+
+    static Azure getClient(final ClientKey key, final Callable<Azure> factory) {
+        final Azure cached = CLIENT_CACHE.getIfPresent(key);
+        DeploymentMetrics.markClientCache(cached != null);
+        if (cached != null) {
+            return cached;
+        }
+
+        // The credential may have been updated, don't keep clients the same owner built from an older version
+        for (final ClientKey existing : CLIENT_CACHE.asMap().keySet()) {
+            if (existing.isSameCredential(key.ownerName, key.credentialId) && !existing.equals(key)) {
+                CLIENT_CACHE.invalidate(existing);
+            }
+        }
+
+        try {
+            final Azure client = CLIENT_CACHE.get(key, factory);
+            LOGGER.log(Level.FINE, "Azure client cache: {0}", CLIENT_CACHE.stats());
+            return client;
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Identify the clients built for a credential as seen by an item, for caches of what these clients return.
+     * The scope changes when the credential is updated.
+     *
+     * @param owner        Item the credential is looked up for
+     * @param credentialId Credential id
+     * @return Owner, credential id and digest of the credential data
+     */
+    public static String getClientScope(Item owner, String credentialId) {
+        return new ClientKey(getOwnerName(owner), credentialId,
+                Util.getDigestOf(getTokenData(owner, credentialId))).toString();
+    }
+
+    /**
+     * Drop the cached clients an item built from a credential, e.g. after the credential was found invalid.
+     *
+     * @param owner        Item the credential was looked up for
+     * @param credentialId Credential id
+     */
+    public static void invalidateClient(Item owner, String credentialId) {
+        invalidateClient(getOwnerName(owner), credentialId);
+    }
+
+    static void invalidateClient(String ownerName, String credentialId) {
+        for (final ClientKey existing : CLIENT_CACHE.asMap().keySet()) {
+            if (existing.isSameCredential(ownerName, credentialId)) {
+                CLIENT_CACHE.invalidate(existing);
+            }
+        }
+    }
+
+    /**
+     * @return Hit and miss counts of the Azure client cache
+     */
+    public static CacheStats getClientCacheStats() {
+        return CLIENT_CACHE.stats();
+    }
+
+    private static String getOwnerName(Item owner) {
+        // Credentials looked up without an item come from the global scope
+        return owner == null ? "" : owner.getFullName();
+    }
+
+    private static Azure createClient(TokenCredentialData token) {
         return AzureClientFactory.getClient(token, new AzureClientFactory.Configurer() {
             @Override
             public Azure.Configurable configure(Azure.Configurable configurable) {
@@ -41,4 +165,47 @@ public final class AzureUtils {
             }
         });
     }
+
+    /**
+     * Identifies a client by the item it was built for and the credential data it was built from. Items in
+     * different folders may see different credentials under the same id, so they don't share clients.
+     */
+    static final class ClientKey {
+        private final String ownerName;
+        private final String credentialId;
+        private final String credentialDigest;
+
+        ClientKey(final String ownerName, final String credentialId, final String credentialDigest) {
+            this.ownerName = ownerName;
+            this.credentialId = credentialId;
+            this.credentialDigest = credentialDigest;
+        }
+
+        boolean isSameCredential(final String otherOwnerName, final String otherCredentialId) {
+            return ownerName.equals(otherOwnerName) && credentialId.equals(otherCredentialId);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ClientKey)) {
+                return false;
+            }
+            final ClientKey other = (ClientKey) o;
+            return isSameCredential(other.ownerName, other.credentialId)
+                    && credentialDigest.equals(other.credentialDigest);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * ownerName.hashCode() + credentialId.hashCode()) + credentialDigest.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return ownerName + "/" + credentialId + "/" + credentialDigest;
+        }
+    }
 }
@@ -19,6 +19,8 @@ public final class Constants {
 
     // the first option for select element. Keep the same value as jenkins pre-defined default empty value.
     public static final String EMPTY_SELECTION = "- none -";
+    // shown while names are listed in the background. refill.js of FunctionAppDeploymentRecorder looks for this text.
+    public static final String LOADING_SELECTION = "- loading -";
 
     /**
      * AI constants.
@@ -30,6 +32,7 @@ public final class Constants {
     public static final String AI_GIT_DEPLOY_FAILED = "GitDeployFailed";
     public static final String AI_ZIP_DEPLOY = "ZipDeploy";
     public static final String AI_ZIP_DEPLOY_FAILED = "ZipDeployFailed";
+    public static final String AI_ZIP_DEPLOY_SKIPPED = "ZipDeploySkipped";
     public static final String AI_FTP_DEPLOY = "FTPDeploy";
     public static final String AI_FTP_DEPLOY_FAILED = "FTPDeployFailed";
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compute a digest of the files selected by a glob, for the node holding them.
+ *
+ * The digest covers the relative path, size and content of every file in path order, so it is the same for
+ * byte-identical output regardless of time stamps, scan order or platform.
+ */
+public final class ContentDigest extends MasterToSlaveFileCallable<String> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String includes;
+    private final String excludes;
+    private final String[] paths;
+
+    /**
+     * @param includes Ant pattern of files to include
+     * @param excludes Ant pattern of files to exclude
+     */
+    public ContentDigest(final String includes, final String excludes) {
+        this.includes = includes;
+        this.excludes = excludes;
+        this.paths = null;
+    }
+
+    /**
+     * @param paths Relative paths of the files, separated by '/', e.g. from a {@link SourceManifest}
+     */
+    public ContentDigest(final List<String> paths) {
+        this.includes = null;
+        this.excludes = null;
+        this.paths = paths.toArray(new String[0]);
+    }
+
+    @Override
+    public String invoke(final File dir, final VirtualChannel channel) throws IOException, InterruptedException {
+        final String[] sorted;
+        if (this.paths != null) {
+            sorted = this.paths.clone();
+        } else {
+            final String[] files = dir.isDirectory()
+                    ? Util.createFileSet(dir, includes, excludes).getDirectoryScanner().getIncludedFiles()
+                    : new String[0];
+            sorted = new String[files.length];
+            for (int i = 0; i < files.length; i++) {
+                sorted[i] = files[i].replace(File.separatorChar, '/');
+            }
+        }
+        Arrays.sort(sorted);
+
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        final ByteBuffer header = ByteBuffer.allocate(Long.SIZE / Byte.SIZE);
+        for (final String path : sorted) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            final File file = new File(dir, path);
+            digest.update(path.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            header.clear();
+            header.putLong(file.length());
+            digest.update(header.array());
+            try (InputStream stream = new FileInputStream(file)) {
+                int read;
+                while ((read = stream.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        }
+        return Util.toHexString(digest.digest());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import hudson.XmlFile;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Digest of the package last deployed successfully to each function app, kept on the controller.
+ *
+ * Lets a deployment of byte-identical output be skipped, whichever job or build deployed it before. Entries are
+ * persisted next to the Jenkins configuration, or only kept in memory when Jenkins isn't running.
+ */
+public final class DeploymentDigestStore {
+
+    private static final Logger LOGGER = Logger.getLogger(DeploymentDigestStore.class.getName());
+
+    private static final String FILE_NAME = DeploymentDigestStore.class.getName() + ".xml";
+
+    private static DeploymentDigestStore instance;
+
+    private final Map<String, String> digests = new HashMap<>();
+
+    private DeploymentDigestStore() {
+    }
+
+    public static synchronized DeploymentDigestStore get() {
+        if (instance == null) {
+            instance = new DeploymentDigestStore();
+            instance.load();
+        }
+        return instance;
+    }
+
+    /**
+     * @param appId Resource id of the function app
+     * @return Digest of the last package deployed successfully, or null if unknown
+     */
+    public synchronized String getDigest(final String appId) {
+        return digests.get(appId);
+    }
+
+    /**
+     * Remember the digest of a package deployed successfully.
+     *
+     * @param appId  Resource id of the function app
+     * @param digest Package digest
+     */
+    public synchronized void setDigest(final String appId, final String digest) {
+        if (digest.equals(digests.put(appId, digest))) {
+            return;
+        }
+        save();
+    }
+
+    /**
+     * Forget what was deployed to a function app, so the next deployment isn't skipped.
+     *
+     * @param appId Resource id of the function app
+     */
+    public synchronized void invalidate(final String appId) {
+        if (digests.remove(appId) != null) {
+            save();
+        }
+    }
+
+    private void load() {
+        final XmlFile file = getFile();
+        if (file == null || !file.exists()) {
+            return;
+        }
+        try {
+            file.unmarshal(this);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+        }
+    }
+
+    private void save() {
+        final XmlFile file = getFile();
+        if (file == null) {
+            return;
+        }
+        try {
+            file.write(this);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save " + file, e);
+        }
+    }
+
+    private static XmlFile getFile() {
+        final Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return null;
+        }
+        return new XmlFile(Jenkins.XSTREAM2, new File(jenkins.getRootDir(), FILE_NAME));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import hudson.Extension;
+import jenkins.metrics.api.MetricProvider;
+import jenkins.metrics.api.Metrics;
+import jenkins.model.Jenkins;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Publish deployment timings through the Metrics plugin, when it is installed.
+ *
+ * Durations are recorded as timers, overall and per function app, so percentiles such as the p95 deploy latency of
+ * an app can be tracked. Each phase also gets a timer of its own. Hits and misses of the Azure client cache are
+ * counted as meters. The depth of the {@link TelemetryQueue} and its submitted, dropped and failed tasks are
+ * exposed as gauges.
+ */
+public final class DeploymentMetrics {
+
+    private static final Logger LOGGER = Logger.getLogger(DeploymentMetrics.class.getName());
+
+    private static final String PREFIX = "azure-function.deploy";
+    private static final String CLIENT_CACHE_PREFIX = "azure-function.client-cache";
+    private static final String TELEMETRY_PREFIX = "azure-function.telemetry";
+
+    private DeploymentMetrics() {
+        // Hide
+    }
+
+    /**
+     * @param resourceGroup Resource group of the function app
+     * @param appName       Name of the function app
+     * @param succeeded     Whether the deployment succeeded
+     * @param timings       Timings of the deployment
+     */
+    public static void publish(
+            final String resourceGroup,
+            final String appName,
+            final boolean succeeded,
+            final DeploymentTimings timings) {
+        final Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null || jenkins.getPlugin("metrics") == null) {
+            return;
+        }
+        try {
+            Publisher.publish(resourceGroup, appName, succeeded, timings);
+        } catch (LinkageError | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Fail to publish deployment metrics", e);
+        }
+    }
+
+    /**
+     * @param hit Whether an Azure client was found in the cache
+     */
+    public static void markClientCache(final boolean hit) {
+        final Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null || jenkins.getPlugin("metrics") == null) {
+            return;
+        }
+        try {
+            Publisher.markClientCache(hit);
+        } catch (LinkageError | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Fail to publish client cache metrics", e);
+        }
+    }
+
+    /**
+     * Only loaded once the Metrics plugin is known to be installed.
+     */
+    private static final class Publisher {
+        static void publish(
+                final String resourceGroup,
+                final String appName,
+                final boolean succeeded,
+                final DeploymentTimings timings) {
+            final MetricRegistry registry = Metrics.metricRegistry();
+            final String app = sanitize(resourceGroup) + "." + sanitize(appName);
+            long total = 0;
+            long bytes = 0;
+            for (final DeploymentTimings.Phase phase : timings.getPhases()) {
+                if (phase.getDurationMillis() < 0) {
+                    continue;
+                }
+                total += phase.getDurationMillis();
+                bytes += phase.getBytes();
+                registry.timer(MetricRegistry.name(PREFIX, "phase", sanitize(phase.getName())))
+                        .update(phase.getDurationMillis(), TimeUnit.MILLISECONDS);
+            }
+            registry.timer(MetricRegistry.name(PREFIX, "duration")).update(total, TimeUnit.MILLISECONDS);
+            registry.timer(MetricRegistry.name(PREFIX, "app", app, "duration")).update(total, TimeUnit.MILLISECONDS);
+            registry.histogram(MetricRegistry.name(PREFIX, "app", app, "bytes")).update(bytes);
+            registry.meter(MetricRegistry.name(PREFIX, succeeded ? "succeeded" : "failed")).mark();
+        }
+
+        static void markClientCache(final boolean hit) {
+            Metrics.metricRegistry().meter(MetricRegistry.name(CLIENT_CACHE_PREFIX, hit ? "hit" : "miss")).mark();
+        }
+
+        private static String sanitize(final String name) {
+            return name.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9_-]+", "-");
+        }
+    }
+
+    /**
+     * Gauges of the telemetry queue, only loaded when the Metrics plugin is installed.
+     */
+    @Extension(optional = true)
+    public static final class TelemetryMetrics extends MetricProvider {
+        @Override
+        public MetricSet getMetricSet() {
+            final TelemetryQueue queue = TelemetryQueue.get();
+            final Map<String, Metric> metrics = new HashMap<>();
+            metrics.put(MetricRegistry.name(TELEMETRY_PREFIX, "depth"), new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return queue.getDepth();
+                }
+            });
+            metrics.put(MetricRegistry.name(TELEMETRY_PREFIX, "submitted"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return queue.getSubmittedCount();
+                }
+            });
+            metrics.put(MetricRegistry.name(TELEMETRY_PREFIX, "dropped"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return queue.getDroppedCount();
+                }
+            });
+            metrics.put(MetricRegistry.name(TELEMETRY_PREFIX, "failed"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return queue.getFailedCount();
+                }
+            });
+            final Map<String, Metric> unmodifiable = Collections.unmodifiableMap(metrics);
+            return new MetricSet() {
+                @Override
+                public Map<String, Metric> getMetrics() {
+                    return unmodifiable;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import hudson.Util;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follow a deployment queued by an asynchronous ZipDeploy until the function app completes it.
+ *
+ * Polls start a second apart and back off while the status doesn't change, so a short deployment is noticed quickly
+ * and a long one isn't polled needlessly. A poll that fails or can't reach the SCM site is counted and retried until
+ * the deadline.
+ *
+ * The status URL given by ZipDeploy usually points to the latest deployment, which is the previous one until Kudu
+ * records the new deployment. The previous deployment is never taken for the one being followed, so its outcome
+ * can't be reported as the outcome of the new one.
+ */
+public final class DeploymentStatusPoller {
+
+    private static final long INITIAL_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(15);
+    private static final double BACKOFF = 1.5;
+
+    /**
+     * Kudu deployment status codes, see DeployStatus in Kudu.
+     */
+    private static final String[] STATUS_NAMES = {"Pending", "Building", "Deploying", "Failed", "Success"};
+    private static final int STATUS_FAILED = 3;
+    private static final int STATUS_SUCCESS = 4;
+
+    private static final String STATE_NOT_RECORDED = "Not recorded";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final KuduZipDeployer deployer;
+    private final long initialIntervalMillis;
+    private final long maxIntervalMillis;
+    private final List<HistoryEntry> history = new ArrayList<>();
+    private int polls;
+
+    /**
+     * @param deployer Deployer which submitted the deployment, holding the deployment credentials
+     */
+    public DeploymentStatusPoller(final KuduZipDeployer deployer) {
+        this(deployer, INITIAL_INTERVAL_MILLIS, MAX_INTERVAL_MILLIS);
+    }
+
+    DeploymentStatusPoller(
+            final KuduZipDeployer deployer,
+            final long initialIntervalMillis,
+            final long maxIntervalMillis) {
+        this.deployer = deployer;
+        this.initialIntervalMillis = initialIntervalMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+    }
+
+    /**
+     * Poll the status of a submitted deployment until it completes.
+     *
+     * @param submission    Deployment queued by ZipDeploy
+     * @param timeoutMillis How long to wait for the deployment
+     * @param listener      Told when the status changes, may be null
+     * @return Status of the successful deployment
+     * @throws IOException          If the deployment failed, the credentials are rejected, or the deadline passed
+     * @throws InterruptedException If the build is aborted
+     */
+    public Status waitFor(final KuduZipDeployer.Submission submission, final long timeoutMillis,
+                          final Listener listener) throws IOException, InterruptedException {
+        return waitFor(submission.getStatusUrl(), submission.getPreviousDeploymentId(), timeoutMillis, listener);
+    }
+
+    /**
+     * Poll the deployment status until the deployment completes.
+     *
+     * @param statusUrl            URL of the deployment status, as given by ZipDeploy
+     * @param previousDeploymentId Id of the latest deployment before this one, never taken for it, may be null
+     * @param timeoutMillis        How long to wait for the deployment
+     * @param listener             Told when the status changes, may be null
+     * @return Status of the successful deployment
+     * @throws IOException          If the deployment failed, the credentials are rejected, or the deadline passed
+     * @throws InterruptedException If the build is aborted
+     */
+    public Status waitFor(final String statusUrl, final String previousDeploymentId, final long timeoutMillis,
+                          final Listener listener) throws IOException, InterruptedException {
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long interval = initialIntervalMillis;
+        while (true) {
+            Poll poll = poll(statusUrl);
+            if (poll.status != null && previousDeploymentId != null
+                    && previousDeploymentId.equals(poll.status.getId())) {
+                // Not recorded yet, Kudu still reports the previous deployment as the latest one
+                poll = new Poll(STATE_NOT_RECORDED, null, poll.retryAfterMillis);
+            }
+            final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            final boolean changed = record(poll.state, elapsed);
+            if (changed && listener != null) {
+                listener.onStatus(poll.state, elapsed);
+            }
+
+            final Status status = poll.status;
+            if (status != null && status.isComplete()) {
+                if (!status.isSucceeded()) {
+                    throw new IOException(String.format("Deployment %s failed: %s", status.getId(),
+                            StringUtils.defaultIfBlank(status.getText(), status.getName())));
+                }
+                return status;
+            }
+
+            final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                if (STATE_NOT_RECORDED.equals(poll.state)) {
+                    throw new IOException(String.format("Deployment was not recorded by the function app within %s, "
+                            + "the latest deployment is still the previous one: %s",
+                            Util.getTimeSpanString(timeoutMillis), previousDeploymentId));
+                }
+                throw new IOException(String.format("Deployment did not complete within %s, last status: %s",
+                        Util.getTimeSpanString(timeoutMillis), poll.state));
+            }
+            interval = changed ? initialIntervalMillis : Math.min(maxIntervalMillis, (long) (interval * BACKOFF));
+            final long wait = poll.retryAfterMillis > 0 ? Math.min(maxIntervalMillis, poll.retryAfterMillis) : interval;
+            Thread.sleep(Math.min(wait, remaining));
+        }
+    }
+
+    /**
+     * @return Number of polls made
+     */
+    public int getPolls() {
+        return polls;
+    }
+
+    /**
+     * Poll history with consecutive polls of the same status merged, such as
+     * "Pending x2 (0 ms), Building x6 (1.5 sec), Success x1 (22 sec)", each with the time it was first seen.
+     *
+     * @return History
+     */
+    public String getHistory() {
+        final StringBuilder builder = new StringBuilder();
+        for (final HistoryEntry entry : history) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(entry.state).append(" x").append(entry.count)
+                    .append(" (").append(Util.getTimeSpanString(entry.firstSeenMillis)).append(')');
+        }
+        return builder.toString();
+    }
+
+    private boolean record(final String state, final long elapsedMillis) {
+        polls++;
+        final HistoryEntry last = history.isEmpty() ? null : history.get(history.size() - 1);
+        if (last != null && last.state.equals(state)) {
+            last.count++;
+            return false;
+        }
+        history.add(new HistoryEntry(state, elapsedMillis));
+        return true;
+    }
+
+    private Poll poll(final String statusUrl) throws IOException, InterruptedException {
+        final HttpURLConnection connection;
+        final int code;
+        try {
+            connection = deployer.openConnection(statusUrl, "GET");
+            connection.setRequestProperty("Accept", "application/json");
+            code = connection.getResponseCode();
+        } catch (InterruptedIOException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw (InterruptedException) new InterruptedException().initCause(e);
+            }
+            return new Poll("Unreachable", null, 0);
+        } catch (IOException e) {
+            return new Poll("Unreachable", null, 0);
+        }
+        try {
+            if (code == HttpURLConnection.HTTP_UNAUTHORIZED || code == HttpURLConnection.HTTP_FORBIDDEN) {
+                throw new KuduZipDeployer.ZipDeployException(code, String.format(
+                        "Deployment status %s failed with HTTP %d: %s",
+                        statusUrl, code, KuduZipDeployer.readError(connection)));
+            }
+            final long retryAfter = getRetryAfterMillis(connection);
+            if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+                // The deployment may not be recorded yet
+                return new Poll(STATUS_NAMES[0], null, retryAfter);
+            }
+            if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_ACCEPTED) {
+                return new Poll("HTTP " + code, null, retryAfter);
+            }
+            try (InputStream in = connection.getInputStream()) {
+                final Status status = Status.parse(MAPPER.readTree(in));
+                return new Poll(status.getName(), status, retryAfter);
+            } catch (IOException e) {
+                return new Poll("Unreadable", null, retryAfter);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static long getRetryAfterMillis(final HttpURLConnection connection) {
+        final String retryAfter = connection.getHeaderField("Retry-After");
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Status of a deployment, as reported by Kudu.
+     */
+    public static final class Status {
+        private final String id;
+        private final int code;
+        private final String text;
+        private final boolean complete;
+
+        Status(final String id, final int code, final String text, final boolean complete) {
+            this.id = id;
+            this.code = code;
+            this.text = text;
+            this.complete = complete;
+        }
+
+        static Status parse(final JsonNode root) {
+            if (root == null) {
+                return new Status("", 0, "", false);
+            }
+            final int statusCode = root.path("status").asInt(0);
+            return new Status(
+                    root.path("id").asText(""),
+                    statusCode,
+                    root.path("status_text").asText(""),
+                    root.path("complete").asBoolean(statusCode == STATUS_FAILED || statusCode == STATUS_SUCCESS));
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        /**
+         * @return Name of the status code, such as "Building"
+         */
+        public String getName() {
+            return code >= 0 && code < STATUS_NAMES.length ? STATUS_NAMES[code] : "Status " + code;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public boolean isComplete() {
+            return complete;
+        }
+
+        public boolean isSucceeded() {
+            return code == STATUS_SUCCESS;
+        }
+    }
+
+    /**
+     * Told when the deployment status changes.
+     */
+    public interface Listener {
+        /**
+         * @param state         Name of the status, or why it couldn't be read
+         * @param elapsedMillis Time since the polling started
+         */
+        void onStatus(String state, long elapsedMillis);
+    }
+
+    private static final class Poll {
+        private final String state;
+        private final Status status;
+        private final long retryAfterMillis;
+
+        Poll(final String state, final Status status, final long retryAfterMillis) {
+            this.state = state;
+            this.status = status;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+    }
+
+    private static final class HistoryEntry {
+        private final String state;
+        private final long firstSeenMillis;
+        private int count = 1;
+
+        HistoryEntry(final String state, final long firstSeenMillis) {
+            this.state = state;
+            this.firstSeenMillis = firstSeenMillis;
+        }
+    }
+}
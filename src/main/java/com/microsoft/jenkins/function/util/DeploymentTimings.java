@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent in each phase of a deployment to a function app, and the bytes it moved.
+ */
+public final class DeploymentTimings {
+
+    private final List<Phase> phases = Collections.synchronizedList(new ArrayList<Phase>());
+
+    /**
+     * Start timing a phase, to be ended with {@link Phase#end()} once done.
+     *
+     * @param name Name of the phase, such as "Archive" or "Push"
+     * @return The running phase
+     */
+    public Phase start(final String name) {
+        final Phase phase = new Phase(name);
+        phases.add(phase);
+        return phase;
+    }
+
+    /**
+     * @return Phases in the order they started, the ones still running included
+     */
+    public List<Phase> getPhases() {
+        synchronized (phases) {
+            return new ArrayList<>(phases);
+        }
+    }
+
+    /**
+     * @param timings Timings of a command context, which may not be set
+     * @return The timings, or timings that aren't reported anywhere if not set
+     */
+    public static DeploymentTimings nonNull(final DeploymentTimings timings) {
+        return timings != null ? timings : new DeploymentTimings();
+    }
+
+    /**
+     * A timed phase of a deployment.
+     */
+    public static final class Phase {
+        private final String name;
+        private final long startNanos;
+        private volatile long durationMillis = -1;
+        private volatile long bytes;
+
+        Phase(final String name) {
+            this.name = name;
+            this.startNanos = System.nanoTime();
+        }
+
+        /**
+         * End the phase, if not ended yet.
+         *
+         * @return The phase
+         */
+        public Phase end() {
+            if (durationMillis < 0) {
+                durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            }
+            return this;
+        }
+
+        /**
+         * @param count Number of bytes read, written or sent during the phase
+         * @return The phase
+         */
+        public Phase addBytes(final long count) {
+            bytes += count;
+            return this;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return Duration in milliseconds, or -1 if the phase didn't end
+         */
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.microsoft.azure.management.Azure;
+import com.microsoft.azure.management.appservice.FunctionApp;
+import com.microsoft.azure.management.appservice.PublishingProfile;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Function apps and their publishing profiles, kept on the controller across builds.
+ *
+ * Looking up a function app and fetching its publishing profile are management calls that take seconds and count
+ * against ARM throttling limits, while neither changes between most deployments. Entries are refreshed in the
+ * background through the client of the caller once they get old, expire if not refreshed, and should be invalidated
+ * when a deployment fails so that rotated credentials are picked up by the next one. Publishing passwords are kept
+ * encrypted with a key generated for this JVM, as the cache is never persisted, and only decrypted when asked for.
+ *
+ * A cached function app may be minutes old, so its state must be refreshed before deciding anything on it.
+ */
+public final class FunctionAppCache {
+
+    private static final Logger LOGGER = Logger.getLogger(FunctionAppCache.class.getName());
+
+    private static final long EXPIRE_MINUTES =
+            Long.getLong(FunctionAppCache.class.getName() + ".expireMinutes", 30);
+    private static final long REFRESH_MINUTES =
+            Long.getLong(FunctionAppCache.class.getName() + ".refreshMinutes", 5);
+    private static final int MAX_SIZE = 500;
+
+    private static final FunctionAppCache INSTANCE = new FunctionAppCache(
+            TimeUnit.MINUTES.toMillis(REFRESH_MINUTES),
+            Executors.newCachedThreadPool(
+                    new NamingThreadFactory(new DaemonThreadFactory(), FunctionAppCache.class.getSimpleName())));
+
+    private final long refreshMillis;
+    private final Executor refreshExecutor;
+
+    private final Cache<AppKey, Loaded<FunctionApp>> apps = CacheBuilder.newBuilder()
+            .expireAfterWrite(EXPIRE_MINUTES, TimeUnit.MINUTES)
+            .maximumSize(MAX_SIZE)
+            .recordStats()
+            .build();
+
+    private final Cache<AppKey, Loaded<PublishingProfile>> profiles = CacheBuilder.newBuilder()
+            .expireAfterWrite(EXPIRE_MINUTES, TimeUnit.MINUTES)
+            .maximumSize(MAX_SIZE)
+            .recordStats()
+            .build();
+
+    /**
+     * Entries being refreshed in the background, so that each is only refreshed once at a time.
+     */
+    private final Set<List<Object>> refreshing =
+            Collections.newSetFromMap(new ConcurrentHashMap<List<Object>, Boolean>());
+
+    FunctionAppCache(final long refreshMillis, final Executor refreshExecutor) {
+        this.refreshMillis = refreshMillis;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    public static FunctionAppCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param azureClient   Client used if the function app has to be looked up
+     * @param clientScope   Scope of the client, see {@link AzureUtils#getClientScope}
+     * @param resourceGroup Resource group of the function app
+     * @param appName       Name of the function app
+     * @return Function app, or null if it doesn't exist
+     */
+    public FunctionApp getFunctionApp(
+            final Azure azureClient,
+            final String clientScope,
+            final String resourceGroup,
+            final String appName) {
+        try {
+            return getApp(azureClient, new AppKey(clientScope, azureClient, resourceGroup, appName));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof AppNotFoundException) {
+                return null;
+            }
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * @param azureClient   Client used if the function app has to be looked up
+     * @param clientScope   Scope of the client, see {@link AzureUtils#getClientScope}
+     * @param resourceGroup Resource group of the function app
+     * @param appName       Name of the function app
+     * @return Publishing profile of the function app
+     */
+    public PublishingProfile getPublishingProfile(
+            final Azure azureClient,
+            final String clientScope,
+            final String resourceGroup,
+            final String appName) {
+        final AppKey key = new AppKey(clientScope, azureClient, resourceGroup, appName);
+        try {
+            return get(profiles, key, new Callable<PublishingProfile>() {
+                @Override
+                public PublishingProfile call() throws Exception {
+                    return new CachedPublishingProfile(getApp(azureClient, key).getPublishingProfile());
+                }
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Forget a function app and its publishing profile, so they are fetched again on next use.
+     *
+     * @param azureClient   Client the function app was looked up with
+     * @param clientScope   Scope of the client, see {@link AzureUtils#getClientScope}
+     * @param resourceGroup Resource group of the function app
+     * @param appName       Name of the function app
+     */
+    public void invalidate(
+            final Azure azureClient,
+            final String clientScope,
+            final String resourceGroup,
+            final String appName) {
+        final AppKey key = new AppKey(clientScope, azureClient, resourceGroup, appName);
+        apps.invalidate(key);
+        profiles.invalidate(key);
+        LOGGER.log(Level.FINE, "Invalidated cached function app {0}/{1}", new Object[]{resourceGroup, appName});
+    }
+
+    public void invalidateAll() {
+        apps.invalidateAll();
+        profiles.invalidateAll();
+    }
+
+    private FunctionApp getApp(final Azure azureClient, final AppKey key) throws ExecutionException {
+        return get(apps, key, new Callable<FunctionApp>() {
+            @Override
+            public FunctionApp call() throws Exception {
+                final FunctionApp app = azureClient.appServices().functionApps()
+                        .getByResourceGroup(key.resourceGroup, key.appName);
+                if (app == null) {
+                    throw new AppNotFoundException();
+                }
+                return app;
+            }
+        });
+    }
+
+    /**
+     * Get an entry, loading it with the caller's client if missing. An entry that got old is returned as is while
+     * it is reloaded in the background, again with the caller's client, so that a refresh never goes through a
+     * client that was since dropped from {@link AzureUtils}.
+     */
+    private <T> T get(
+            final Cache<AppKey, Loaded<T>> cache,
+            final AppKey key,
+            final Callable<T> loader) throws ExecutionException {
+        final Loaded<T> loaded = cache.get(key, new Callable<Loaded<T>>() {
+            @Override
+            public Loaded<T> call() throws Exception {
+                return new Loaded<>(loader.call());
+            }
+        });
+        final List<Object> refreshKey = Arrays.<Object>asList(cache, key);
+        if (loaded.isOlderThan(refreshMillis) && refreshing.add(refreshKey)) {
+            refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // Unless the entry was invalidated or replaced meanwhile
+                        cache.asMap().replace(key, loaded, new Loaded<>(loader.call()));
+                    } catch (Exception e) {
+                        LOGGER.log(Level.FINE, "Fail to refresh cached function app " + key, e);
+                    } finally {
+                        refreshing.remove(refreshKey);
+                    }
+                }
+            });
+        }
+        return loaded.value;
+    }
+
+    private static RuntimeException unwrap(final Exception e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        return new IllegalStateException(cause);
+    }
+
+    /**
+     * Identifies a function app as seen by the clients of a credential, for an item and a version of the
+     * credential data.
+     */
+    private static final class AppKey {
+        private final String id;
+
+        private final String resourceGroup;
+        private final String appName;
+
+        AppKey(final String clientScope, final Azure azureClient, final String resourceGroup, final String appName) {
+            this.resourceGroup = resourceGroup;
+            this.appName = appName;
+            this.id = clientScope + "/" + String.format("%s/%s/%s", azureClient.subscriptionId(),
+                    resourceGroup, appName).toLowerCase(Locale.ROOT);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return this == o || o instanceof AppKey && id.equals(((AppKey) o).id);
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return resourceGroup + "/" + appName;
+        }
+    }
+
+    /**
+     * A cached value and when it was loaded.
+     */
+    private static final class Loaded<T> {
+        private final T value;
+        private final long loadedAt = System.currentTimeMillis();
+
+        Loaded(final T value) {
+            this.value = value;
+        }
+
+        boolean isOlderThan(final long millis) {
+            return System.currentTimeMillis() - loadedAt >= millis;
+        }
+    }
+
+    private static final class AppNotFoundException extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Copy of a publishing profile that keeps the passwords encrypted until asked for.
+     */
+    private static final class CachedPublishingProfile implements PublishingProfile {
+        private final String ftpUrl;
+        private final String ftpUsername;
+        private final SealedPassword ftpPassword;
+        private final String gitUrl;
+        private final String gitUsername;
+        private final SealedPassword gitPassword;
+
+        CachedPublishingProfile(final PublishingProfile profile) {
+            this.ftpUrl = profile.ftpUrl();
+            this.ftpUsername = profile.ftpUsername();
+            this.ftpPassword = SealedPassword.seal(profile.ftpPassword());
+            this.gitUrl = profile.gitUrl();
+            this.gitUsername = profile.gitUsername();
+            this.gitPassword = SealedPassword.seal(profile.gitPassword());
+        }
+
+        @Override
+        public String ftpUrl() {
+            return ftpUrl;
+        }
+
+        @Override
+        public String ftpUsername() {
+            return ftpUsername;
+        }
+
+        @Override
+        public String ftpPassword() {
+            return SealedPassword.unseal(ftpPassword);
+        }
+
+        @Override
+        public String gitUrl() {
+            return gitUrl;
+        }
+
+        @Override
+        public String gitUsername() {
+            return gitUsername;
+        }
+
+        @Override
+        public String gitPassword() {
+            return SealedPassword.unseal(gitPassword);
+        }
+    }
+
+    /**
+     * Password encrypted with AES-GCM, under a key generated for this JVM and never written anywhere.
+     */
+    static final class SealedPassword {
+        private static final String ALGORITHM = "AES";
+        private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+        private static final int KEY_BITS = 128;
+        private static final int IV_BYTES = 12;
+        private static final int TAG_BITS = 128;
+
+        private static final SecureRandom RANDOM = new SecureRandom();
+        private static final SecretKey KEY = generateKey();
+
+        private final byte[] iv;
+        private final byte[] data;
+
+        private SealedPassword(final byte[] iv, final byte[] data) {
+            this.iv = iv;
+            this.data = data;
+        }
+
+        /**
+         * @param password Password in clear, may be null
+         * @return Encrypted password, or null if there was none
+         */
+        static SealedPassword seal(final String password) {
+            if (password == null) {
+                return null;
+            }
+            final byte[] iv = new byte[IV_BYTES];
+            RANDOM.nextBytes(iv);
+            try {
+                final Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+                cipher.init(Cipher.ENCRYPT_MODE, KEY, new GCMParameterSpec(TAG_BITS, iv));
+                return new SealedPassword(iv, cipher.doFinal(password.getBytes(StandardCharsets.UTF_8)));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Fail to encrypt cached password", e);
+            }
+        }
+
+        /**
+         * @param sealed Encrypted password, may be null
+         * @return Password in clear, or null if there was none
+         */
+        static String unseal(final SealedPassword sealed) {
+            if (sealed == null) {
+                return null;
+            }
+            try {
+                final Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+                cipher.init(Cipher.DECRYPT_MODE, KEY, new GCMParameterSpec(TAG_BITS, sealed.iv));
+                return new String(cipher.doFinal(sealed.data), StandardCharsets.UTF_8);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Fail to decrypt cached password", e);
+            }
+        }
+
+        byte[] getData() {
+            return data.clone();
+        }
+
+        private static SecretKey generateKey() {
+            try {
+                final KeyGenerator generator = KeyGenerator.getInstance(ALGORITHM);
+                generator.init(KEY_BITS, RANDOM);
+                return generator.generateKey();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Fail to generate the key of cached passwords", e);
+            }
+        }
+    }
+}
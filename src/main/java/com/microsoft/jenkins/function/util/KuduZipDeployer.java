@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.azure.management.appservice.PublishingProfile;
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upload a zip package to the Kudu ZipDeploy endpoint of a function app, from the node holding the files.
+ *
+ * {@link com.microsoft.azure.management.appservice.WebAppBase#zipDeploy(InputStream)} runs on the controller, so
+ * every byte of a package built on an agent goes through the remoting channel first. This sends the package straight
+ * from the agent, authenticated with the deployment credentials of the publishing profile, which is the only secret
+ * carried to the agent.
+ *
+ * An asynchronous upload returns as soon as Kudu has queued the deployment, with the URL of its status. That URL
+ * usually points to the latest deployment rather than to the queued one, so the id of the latest deployment is read
+ * before uploading, for the poller to tell the previous deployment from the new one.
+ */
+public final class KuduZipDeployer implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String ZIP_DEPLOY_PATH = "/api/zipdeploy";
+    private static final String ASYNC_QUERY = "?isAsync=true";
+    private static final String LATEST_DEPLOYMENT_PATH = "/api/deployments/latest";
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int CONNECT_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(30);
+    private static final int READ_TIMEOUT = (int) TimeUnit.MINUTES.toMillis(20);
+    private static final int MAX_ERROR_LENGTH = 1024;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String url;
+    private final String username;
+    private final String password;
+
+    public KuduZipDeployer(final String url, final String username, final String password) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * @param profile Publishing profile of the function app
+     * @return Deployer using the SCM site and deployment credentials of the profile
+     */
+    public static KuduZipDeployer fromPublishingProfile(final PublishingProfile profile) {
+        return new KuduZipDeployer("https://" + getScmHost(profile.gitUrl()) + ZIP_DEPLOY_PATH,
+                profile.gitUsername(), profile.gitPassword());
+    }
+
+    /**
+     * @param gitUrl Git URL of the function app, such as https://user@app.scm.azurewebsites.net:443/app.git
+     * @return Host name of the SCM site
+     */
+    static String getScmHost(final String gitUrl) {
+        String host = StringUtils.substringAfter(gitUrl, "://");
+        if (host.isEmpty()) {
+            host = gitUrl;
+        }
+        host = StringUtils.substringBefore(host, "/");
+        if (host.contains("@")) {
+            host = StringUtils.substringAfterLast(host, "@");
+        }
+        return StringUtils.substringBefore(host, ":");
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Upload an archive built beforehand.
+     *
+     * @param archive Zip archive
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void deploy(final FilePath archive) throws IOException, InterruptedException {
+        upload(archive, false);
+    }
+
+    /**
+     * Upload an archive built beforehand.
+     *
+     * @param archive Zip archive
+     * @param async   Whether to return once the package is received, without waiting for the function app to deploy
+     *                it
+     * @return Accepted package, with the deployment to follow with a {@link DeploymentStatusPoller} if async
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public Submission upload(final FilePath archive, final boolean async) throws IOException, InterruptedException {
+        return archive.act(new UploadCallable(this, async));
+    }
+
+    /**
+     * Archive a directory and upload it as it is being built, without writing the archive to disk.
+     *
+     * @param sourceDir Directory to archive
+     * @param archiver  Archiver selecting the files
+     * @return Number of files archived
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public int deploy(final FilePath sourceDir, final ReproducibleZipArchiver archiver)
+            throws IOException, InterruptedException {
+        return upload(sourceDir, archiver, false).getFileCount();
+    }
+
+    /**
+     * Archive a directory and upload it as it is being built.
+     *
+     * @param sourceDir Directory to archive
+     * @param archiver  Archiver selecting the files
+     * @param async     Whether to return once the package is received, without waiting for the function app to
+     *                  deploy it
+     * @return Accepted package, with the deployment to follow with a {@link DeploymentStatusPoller} if async
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public Submission upload(final FilePath sourceDir, final ReproducibleZipArchiver archiver, final boolean async)
+            throws IOException, InterruptedException {
+        return sourceDir.act(new ArchiveAndUploadCallable(this, archiver, async));
+    }
+
+    /**
+     * Open a connection to the SCM site, authenticated with the deployment credentials.
+     *
+     * @param location URL to connect to
+     * @param method   HTTP method
+     * @return Connection, not connected yet
+     * @throws IOException
+     */
+    HttpURLConnection openConnection(final String location, final String method) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(location).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        connection.setRequestProperty("Authorization", "Basic " + Base64.getEncoder().encodeToString(
+                (username + ":" + password).getBytes(StandardCharsets.UTF_8)));
+        return connection;
+    }
+
+    private Submission post(final Content content, final boolean async) throws IOException, InterruptedException {
+        final String previousDeploymentId = async ? getLatestDeploymentId() : null;
+        final HttpURLConnection connection = openConnection(async ? url + ASYNC_QUERY : url, "POST");
+        try {
+            connection.setDoOutput(true);
+            connection.setChunkedStreamingMode(CHUNK_SIZE);
+            connection.setRequestProperty("Content-Type", "application/zip");
+
+            final int count;
+            try (OutputStream out = connection.getOutputStream()) {
+                count = content.writeTo(out);
+            }
+
+            final int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_ACCEPTED) {
+                throw new ZipDeployException(code, String.format("ZipDeploy to %s failed with HTTP %d: %s",
+                        url, code, readError(connection)));
+            }
+            if (!async) {
+                return new Submission(count, null, null);
+            }
+            // Kudu points to the status of the deployment it queued, fall back to the latest one if it doesn't
+            final String location = connection.getHeaderField("Location");
+            final URL base = new URL(url);
+            return new Submission(count, StringUtils.isBlank(location)
+                    ? new URL(base, LATEST_DEPLOYMENT_PATH).toString()
+                    : new URL(base, location).toString(), previousDeploymentId);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * @return Id of the latest deployment of the function app, or null if it was never deployed
+     * @throws IOException If the deployments can't be read
+     */
+    String getLatestDeploymentId() throws IOException {
+        final HttpURLConnection connection =
+                openConnection(new URL(new URL(url), LATEST_DEPLOYMENT_PATH).toString(), "GET");
+        try {
+            connection.setRequestProperty("Accept", "application/json");
+            final int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+                return null;
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new ZipDeployException(code, String.format("Reading the latest deployment of %s failed with "
+                        + "HTTP %d: %s", url, code, readError(connection)));
+            }
+            try (InputStream in = connection.getInputStream()) {
+                return StringUtils.defaultIfEmpty(DeploymentStatusPoller.Status.parse(MAPPER.readTree(in)).getId(),
+                        null);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    static String readError(final HttpURLConnection connection) {
+        try (InputStream error = connection.getErrorStream()) {
+            if (error == null) {
+                return connection.getResponseMessage();
+            }
+            return StringUtils.abbreviate(IOUtils.toString(error, StandardCharsets.UTF_8), MAX_ERROR_LENGTH);
+        } catch (IOException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * ZipDeploy answered with an error status.
+     */
+    public static final class ZipDeployException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int statusCode;
+
+        public ZipDeployException(final int statusCode, final String message) {
+            super(message);
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+
+    /**
+     * A package accepted by ZipDeploy.
+     */
+    public static final class Submission implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int fileCount;
+        private final String statusUrl;
+        private final String previousDeploymentId;
+
+        Submission(final int fileCount, final String statusUrl, final String previousDeploymentId) {
+            this.fileCount = fileCount;
+            this.statusUrl = statusUrl;
+            this.previousDeploymentId = previousDeploymentId;
+        }
+
+        /**
+         * @return Number of files archived, or 0 if the archive was built beforehand
+         */
+        public int getFileCount() {
+            return fileCount;
+        }
+
+        /**
+         * @return URL of the deployment status, or null if the package was deployed synchronously
+         */
+        public String getStatusUrl() {
+            return statusUrl;
+        }
+
+        /**
+         * @return Id of the latest deployment before the package was uploaded, or null if there was none
+         */
+        public String getPreviousDeploymentId() {
+            return previousDeploymentId;
+        }
+    }
+
+    private interface Content {
+        int writeTo(OutputStream out) throws IOException, InterruptedException;
+    }
+
+    private static final class UploadCallable extends MasterToSlaveFileCallable<Submission> {
+        private static final long serialVersionUID = 1L;
+
+        private final KuduZipDeployer deployer;
+        private final boolean async;
+
+        UploadCallable(final KuduZipDeployer deployer, final boolean async) {
+            this.deployer = deployer;
+            this.async = async;
+        }
+
+        @Override
+        public Submission invoke(final File file, final VirtualChannel channel)
+                throws IOException, InterruptedException {
+            return deployer.post(new Content() {
+                @Override
+                public int writeTo(final OutputStream out) throws IOException {
+                    try (InputStream in = new FileInputStream(file)) {
+                        IOUtils.copy(in, out);
+                    }
+                    return 0;
+                }
+            }, async);
+        }
+    }
+
+    private static final class ArchiveAndUploadCallable extends MasterToSlaveFileCallable<Submission> {
+        private static final long serialVersionUID = 1L;
+
+        private final KuduZipDeployer deployer;
+        private final ReproducibleZipArchiver archiver;
+        private final boolean async;
+
+        ArchiveAndUploadCallable(
+                final KuduZipDeployer deployer,
+                final ReproducibleZipArchiver archiver,
+                final boolean async) {
+            this.deployer = deployer;
+            this.archiver = archiver;
+            this.async = async;
+        }
+
+        @Override
+        public Submission invoke(final File dir, final VirtualChannel channel)
+                throws IOException, InterruptedException {
+            return deployer.post(new Content() {
+                @Override
+                public int writeTo(final OutputStream out) throws IOException, InterruptedException {
+                    return archiver.archive(dir, out);
+                }
+            }, async);
+        }
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.remoting.RemoteOutputStream;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.commons.compress.archivers.zip.UnixStat;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Archive files into a zip whose bytes only depend on the names and content of the files.
+ *
+ * Unlike {@link FilePath#zip(OutputStream, hudson.util.DirScanner)}, entries are written in path order with a fixed
+ * time stamp, normalized permissions and a fixed compression level, so two builds of the same sources produce the
+ * same archive. Entries that are already compressed, such as jars, are stored rather than deflated again.
+ *
+ * Entries are deflated concurrently on a bounded pool of threads, and gathered as raw entries in path order, so the
+ * archive is the same whatever the number of threads. Only a window of entries ahead of the one being written is
+ * compressed at a time, and large compressed entries are spilled to temporary files to keep memory bounded.
+ */
+public final class ReproducibleZipArchiver implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] STORED_EXTENSIONS = {".jar", ".war", ".zip", ".dll", ".gz", ".nupkg"};
+    private static final int FILE_MODE = 0644;
+    private static final int EXECUTABLE_FILE_MODE = 0755;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int SPILL_THRESHOLD = 4 * 1024 * 1024;
+    private static final int WINDOW_PER_THREAD = 2;
+    private static final int FIXED_YEAR = 1980;
+
+    private final String includes;
+    private final String excludes;
+    private final String[] paths;
+    private final int level;
+    private final int threads;
+
+    /**
+     * @param includes Ant pattern of files to include
+     * @param excludes Ant pattern of files to exclude
+     * @param level    Compression level of deflated entries, from 0 to 9
+     */
+    public ReproducibleZipArchiver(final String includes, final String excludes, final int level) {
+        this(includes, excludes, level, 1);
+    }
+
+    /**
+     * @param includes Ant pattern of files to include
+     * @param excludes Ant pattern of files to exclude
+     * @param level    Compression level of deflated entries, from 0 to 9
+     * @param threads  Number of threads compressing entries, or 0 or less for the number of processors of the node
+     */
+    public ReproducibleZipArchiver(final String includes, final String excludes, final int level, final int threads) {
+        this.includes = includes;
+        this.excludes = excludes;
+        this.paths = null;
+        this.level = level;
+        this.threads = threads;
+    }
+
+    /**
+     * @param paths   Relative paths of the files to archive, separated by '/', e.g. from a {@link SourceManifest}
+     * @param level   Compression level of deflated entries, from 0 to 9
+     * @param threads Number of threads compressing entries, or 0 or less for the number of processors of the node
+     */
+    public ReproducibleZipArchiver(final List<String> paths, final int level, final int threads) {
+        this.includes = null;
+        this.excludes = null;
+        this.paths = paths.toArray(new String[0]);
+        this.level = level;
+        this.threads = threads;
+    }
+
+    /**
+     * Archive files of a directory, on the node holding them.
+     *
+     * @param sourceDir Directory to archive
+     * @param out       Stream the archive is written to, closed when done
+     * @return Number of files archived
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public int archive(final FilePath sourceDir, final OutputStream out) throws IOException, InterruptedException {
+        final OutputStream stream = sourceDir.isRemote() ? new RemoteOutputStream(out) : out;
+        return sourceDir.act(new ArchiveCallable(this, stream));
+    }
+
+    /**
+     * Archive files of a local directory.
+     *
+     * @param dir Directory to archive
+     * @param out Stream the archive is written to, left open
+     * @return Number of files archived
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public int archive(final File dir, final OutputStream out) throws IOException, InterruptedException {
+        final String[] files = getPaths(dir);
+
+        final int poolSize = getPoolSize();
+        final int window = poolSize * WINDOW_PER_THREAD;
+        final ExecutorService executor = poolSize > 1 ? Executors.newFixedThreadPool(poolSize) : null;
+        final Deque<Future<CompressedEntry>> pending = new ArrayDeque<>();
+        final long time = getFixedTime();
+        try {
+            final ZipArchiveOutputStream zip = new ZipArchiveOutputStream(out);
+            zip.setEncoding("UTF-8");
+            int next = 0;
+            for (int i = 0; i < files.length; i++) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                // Keep the pool busy with the entries following the one to write
+                while (next < files.length && next - i < window) {
+                    final FutureTask<CompressedEntry> task =
+                            new CompressFuture(new CompressTask(new File(dir, files[next]), files[next], time));
+                    if (executor != null) {
+                        executor.execute(task);
+                    } else {
+                        task.run();
+                    }
+                    pending.add(task);
+                    next++;
+                }
+
+                final CompressedEntry entry = get(pending.remove());
+                try {
+                    entry.writeTo(zip);
+                } finally {
+                    entry.dispose();
+                }
+            }
+            zip.finish();
+        } finally {
+            for (final Future<CompressedEntry> future : pending) {
+                discard(future);
+            }
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        return files.length;
+    }
+
+    private String[] getPaths(final File dir) {
+        if (this.paths != null) {
+            final String[] sorted = this.paths.clone();
+            Arrays.sort(sorted);
+            return sorted;
+        }
+        final String[] files = dir.isDirectory()
+                ? Util.createFileSet(dir, includes, excludes).getDirectoryScanner().getIncludedFiles()
+                : new String[0];
+        final String[] sorted = new String[files.length];
+        for (int i = 0; i < files.length; i++) {
+            sorted[i] = files[i].replace(File.separatorChar, '/');
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    int getPoolSize() {
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    static boolean isStored(final String path) {
+        final String name = path.toLowerCase(Locale.ROOT);
+        for (final String extension : STORED_EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Zip entries keep their time in local time, so pick one in the current time zone to get the same bytes on every
+     * node.
+     */
+    private static long getFixedTime() {
+        return new GregorianCalendar(FIXED_YEAR, Calendar.FEBRUARY, 1, 0, 0, 0).getTimeInMillis();
+    }
+
+    private static CompressedEntry get(final Future<CompressedEntry> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static void discard(final Future<CompressedEntry> future) {
+        if (future.cancel(true)) {
+            // Still running or not started, the task disposes of what it compresses itself
+            return;
+        }
+        try {
+            future.get().dispose();
+        } catch (InterruptedException | ExecutionException e) {
+            // Nothing to clean up
+        }
+    }
+
+    /**
+     * Get the normalized permissions of a file, keeping only whether its owner may execute it.
+     *
+     * The executable bit is only meaningful on file systems with POSIX permissions. Elsewhere, as on Windows where
+     * almost every file looks executable, the same fixed mode is used for all files so the archive doesn't depend on
+     * the operating system of the agent.
+     *
+     * @param file File to archive
+     * @return Unix permissions of the entry
+     * @throws IOException
+     */
+    static int getFileMode(final File file) throws IOException {
+        final PosixFileAttributeView view =
+                Files.getFileAttributeView(file.toPath(), PosixFileAttributeView.class);
+        if (view == null) {
+            return FILE_MODE;
+        }
+        return view.readAttributes().permissions().contains(PosixFilePermission.OWNER_EXECUTE)
+                ? EXECUTABLE_FILE_MODE : FILE_MODE;
+    }
+
+    private final class CompressTask implements Callable<CompressedEntry> {
+        private final File file;
+        private final String path;
+        private final long time;
+
+        CompressTask(final File file, final String path, final long time) {
+            this.file = file;
+            this.path = path;
+            this.time = time;
+        }
+
+        @Override
+        public CompressedEntry call() throws IOException {
+            final ZipArchiveEntry entry = new ZipArchiveEntry(path);
+            entry.setTime(time);
+            entry.setUnixMode(UnixStat.FILE_FLAG | getFileMode(file));
+
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            final CRC32 crc = new CRC32();
+            long size = 0;
+            if (isStored(path)) {
+                try (InputStream stream = new FileInputStream(file)) {
+                    int read;
+                    while ((read = stream.read(buffer)) != -1) {
+                        crc.update(buffer, 0, read);
+                        size += read;
+                    }
+                }
+                entry.setMethod(ZipArchiveEntry.STORED);
+                entry.setSize(size);
+                entry.setCompressedSize(size);
+                entry.setCrc(crc.getValue());
+                return new CompressedEntry(entry, file, null);
+            }
+
+            final SpillOutputStream data = new SpillOutputStream();
+            final Deflater deflater = new Deflater(level, true);
+            try (InputStream stream = new FileInputStream(file);
+                 OutputStream deflated = new DeflaterOutputStream(data, deflater, BUFFER_SIZE)) {
+                int read;
+                while ((read = stream.read(buffer)) != -1) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        // The archive was given up, don't keep filling the spill file
+                        throw new InterruptedIOException("Compression of " + path + " cancelled");
+                    }
+                    crc.update(buffer, 0, read);
+                    size += read;
+                    deflated.write(buffer, 0, read);
+                }
+            } catch (IOException e) {
+                data.dispose();
+                throw e;
+            } finally {
+                deflater.end();
+            }
+            entry.setMethod(ZipArchiveEntry.DEFLATED);
+            entry.setSize(size);
+            entry.setCompressedSize(data.getCount());
+            entry.setCrc(crc.getValue());
+            return new CompressedEntry(entry, null, data);
+        }
+    }
+
+    /**
+     * Compression of an entry, disposing of the entry itself if it completes after being cancelled.
+     *
+     * A cancelled task may still be running, as reading files isn't interruptible, and nobody gets its result once
+     * it completes. Disposing of it here deletes its spill file, whichever thread cancelled it.
+     */
+    private static final class CompressFuture extends FutureTask<CompressedEntry> {
+        CompressFuture(final CompressTask task) {
+            super(task);
+        }
+
+        @Override
+        protected void set(final CompressedEntry entry) {
+            super.set(entry);
+            if (isCancelled()) {
+                entry.dispose();
+            }
+        }
+    }
+
+    /**
+     * Entry whose content is ready to be copied to the archive as is, either a stored file or deflated data.
+     */
+    private static final class CompressedEntry {
+        private final ZipArchiveEntry entry;
+        private final File storedFile;
+        private final SpillOutputStream deflatedData;
+
+        CompressedEntry(final ZipArchiveEntry entry, final File storedFile, final SpillOutputStream deflatedData) {
+            this.entry = entry;
+            this.storedFile = storedFile;
+            this.deflatedData = deflatedData;
+        }
+
+        void writeTo(final ZipArchiveOutputStream zip) throws IOException {
+            try (InputStream raw = storedFile != null ? new FileInputStream(storedFile) : deflatedData.openStream()) {
+                zip.addRawArchiveEntry(entry, raw);
+            }
+        }
+
+        void dispose() {
+            if (deflatedData != null) {
+                deflatedData.dispose();
+            }
+        }
+    }
+
+    /**
+     * Output stream kept in memory until it grows beyond a threshold, after which it is moved to a temporary file.
+     */
+    private static final class SpillOutputStream extends OutputStream {
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private File spillFile;
+        private OutputStream spill;
+        private long count;
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (spill == null && memory.size() + len > SPILL_THRESHOLD) {
+                spillFile = File.createTempFile("zip-entry", ".tmp");
+                spill = new FileOutputStream(spillFile);
+                memory.writeTo(spill);
+                memory = null;
+            }
+            if (spill != null) {
+                spill.write(b, off, len);
+            } else {
+                memory.write(b, off, len);
+            }
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (spill != null) {
+                spill.close();
+            }
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        InputStream openStream() throws IOException {
+            return spillFile != null ? new FileInputStream(spillFile) : new ByteArrayInputStream(memory.toByteArray());
+        }
+
+        void dispose() {
+            try {
+                close();
+            } catch (IOException e) {
+                // Only deleting the file matters
+            }
+            if (spillFile != null && !spillFile.delete()) {
+                spillFile.deleteOnExit();
+            }
+        }
+    }
+
+    private static final class ArchiveCallable extends MasterToSlaveFileCallable<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final ReproducibleZipArchiver archiver;
+        private final OutputStream out;
+
+        ArchiveCallable(final ReproducibleZipArchiver archiver, final OutputStream out) {
+            this.archiver = archiver;
+            this.out = out;
+        }
+
+        @Override
+        public Integer invoke(final File dir, final VirtualChannel channel) throws IOException, InterruptedException {
+            try (OutputStream stream = out) {
+                return archiver.archive(dir, stream);
+            }
+        }
+    }
+}
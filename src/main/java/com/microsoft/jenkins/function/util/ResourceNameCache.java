@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import com.google.common.base.Function;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Names of Azure resources listed for the job configuration dropdowns, such as the function apps of a resource group.
+ *
+ * Listings run on a small pool of background threads, so form requests only wait for them briefly. Once listed,
+ * names are served right away and refreshed in the background when they get old, the stale names being returned
+ * until the new listing completes.
+ */
+public final class ResourceNameCache {
+
+    private static final Logger LOGGER = Logger.getLogger(ResourceNameCache.class.getName());
+
+    private static final long REFRESH_SECONDS =
+            Long.getLong(ResourceNameCache.class.getName() + ".refreshSeconds", 60);
+    private static final long EXPIRE_MINUTES =
+            Long.getLong(ResourceNameCache.class.getName() + ".expireMinutes", 30);
+    private static final long WAIT_MILLISECONDS =
+            Long.getLong(ResourceNameCache.class.getName() + ".waitMilliseconds", 2000);
+    private static final int MAX_SIZE = 200;
+    private static final int THREADS = 4;
+
+    private static final ResourceNameCache INSTANCE = new ResourceNameCache();
+
+    private final ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(
+            THREADS, new NamingThreadFactory(new DaemonThreadFactory(), ResourceNameCache.class.getSimpleName())));
+
+    private final LoadingCache<ListingKey, ListenableFuture<List<String>>> listings = CacheBuilder.newBuilder()
+            .refreshAfterWrite(REFRESH_SECONDS, TimeUnit.SECONDS)
+            .expireAfterWrite(EXPIRE_MINUTES, TimeUnit.MINUTES)
+            .maximumSize(MAX_SIZE)
+            .build(new CacheLoader<ListingKey, ListenableFuture<List<String>>>() {
+                @Override
+                public ListenableFuture<List<String>> load(final ListingKey key) {
+                    return executor.submit(key.lister);
+                }
+
+                @Override
+                public ListenableFuture<ListenableFuture<List<String>>> reload(
+                        final ListingKey key,
+                        final ListenableFuture<List<String>> oldValue) {
+                    // Keep serving the previous listing until the new one completes
+                    return Futures.transform(executor.submit(key.lister),
+                            new Function<List<String>, ListenableFuture<List<String>>>() {
+                                @Override
+                                public ListenableFuture<List<String>> apply(final List<String> names) {
+                                    return Futures.immediateFuture(names);
+                                }
+                            }, MoreExecutors.directExecutor());
+                }
+            });
+
+    private ResourceNameCache() {
+    }
+
+    public static ResourceNameCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get names listed for a key, waiting only briefly for the listing if it was never done.
+     *
+     * @param key    Identifies the listing, such as the credential, owner and resource group
+     * @param lister Lists the names, run in the background
+     * @return Listed names, or null if the listing is still running
+     * @throws ExecutionException If the listing failed, in which case it is retried on next call
+     */
+    public List<String> getNames(final String key, final Callable<List<String>> lister)
+            throws ExecutionException, InterruptedException {
+        final ListingKey listingKey = new ListingKey(key, lister);
+        final ListenableFuture<List<String>> future = listings.getUnchecked(listingKey);
+        try {
+            return future.get(WAIT_MILLISECONDS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            LOGGER.log(Level.FINE, "Listing of {0} still running", key);
+            return null;
+        } catch (ExecutionException e) {
+            listings.asMap().remove(listingKey, future);
+            throw e;
+        }
+    }
+
+    /**
+     * Identifies a listing. The lister is only carried along to run it.
+     */
+    private static final class ListingKey {
+        private final String key;
+        private final Callable<List<String>> lister;
+
+        ListingKey(final String key, final Callable<List<String>> lister) {
+            this.key = key;
+            this.lister = lister;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return this == o || o instanceof ListingKey && key.equals(((ListingKey) o).key);
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Files selected for deployment, scanned in a single pass on the node holding them.
+ *
+ * The scan also tells the runtime of the function: it is a Java function if any function.json declares a jar as its
+ * script file. Function configurations are only read until one is found.
+ */
+public final class SourceManifest implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String FUNCTION_CONFIG = "function.json";
+    private static final String JAR_EXTENSION = ".jar";
+
+    private final boolean javaFunction;
+    private final List<Entry> entries;
+
+    SourceManifest(final boolean javaFunction, final List<Entry> entries) {
+        this.javaFunction = javaFunction;
+        this.entries = entries;
+    }
+
+    /**
+     * Scan a source directory.
+     *
+     * @param sourceDir Directory to scan
+     * @param includes  Ant pattern of files to include
+     * @return Manifest of the included files
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static SourceManifest scan(final FilePath sourceDir, final String includes)
+            throws IOException, InterruptedException {
+        return sourceDir.act(new ScanCallable(Util.fixNull(includes)));
+    }
+
+    /**
+     * Read the script file declared by a function configuration.
+     *
+     * @param stream Content of function.json
+     * @return Script file, or an empty string if none
+     * @throws IOException
+     */
+    public static String getScriptFile(final InputStream stream) throws IOException {
+        final JsonNode root = new ObjectMapper().readTree(stream);
+        final JsonNode scriptPathNode = root == null ? null : root.get("scriptFile");
+        if (scriptPathNode == null) {
+            return "";
+        }
+        return scriptPathNode.asText("");
+    }
+
+    public boolean isJavaFunction() {
+        return javaFunction;
+    }
+
+    /**
+     * @return Files, in path order
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @return Relative paths of the files, separated by '/', in path order
+     */
+    public List<String> getPaths() {
+        final List<String> paths = new ArrayList<>(entries.size());
+        for (final Entry entry : entries) {
+            paths.add(entry.getPath());
+        }
+        return paths;
+    }
+
+    public long getTotalSize() {
+        long size = 0;
+        for (final Entry entry : entries) {
+            size += entry.getSize();
+        }
+        return size;
+    }
+
+    /**
+     * Leave out files matching a pattern, the same way the scan would have.
+     *
+     * @param excludes Comma separated Ant patterns of files to exclude
+     * @return Manifest without the excluded files
+     */
+    public SourceManifest exclude(final String excludes) {
+        final List<String> patterns = new ArrayList<>();
+        for (final String pattern : Util.fixNull(excludes).split(",")) {
+            final String trimmed = pattern.trim();
+            if (!trimmed.isEmpty()) {
+                patterns.add(trimmed.endsWith("/") ? trimmed + "**" : trimmed);
+            }
+        }
+        final List<Entry> kept = new ArrayList<>(entries.size());
+        for (final Entry entry : entries) {
+            if (!matchesAny(patterns, entry.getPath())) {
+                kept.add(entry);
+            }
+        }
+        return new SourceManifest(javaFunction, kept);
+    }
+
+    private static boolean matchesAny(final List<String> patterns, final String path) {
+        for (final String pattern : patterns) {
+            if (SelectorUtils.matchPath(pattern, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A file of the manifest.
+     */
+    public static final class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String path;
+        private final long size;
+        private final long lastModified;
+
+        Entry(final String path, final long size, final long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+
+    private static final class ScanCallable extends MasterToSlaveFileCallable<SourceManifest> {
+        private static final long serialVersionUID = 1L;
+
+        private final String includes;
+
+        ScanCallable(final String includes) {
+            this.includes = includes;
+        }
+
+        @Override
+        public SourceManifest invoke(final File dir, final VirtualChannel channel)
+                throws IOException, InterruptedException {
+            if (!dir.isDirectory()) {
+                return new SourceManifest(false, new ArrayList<Entry>());
+            }
+            final String[] files = Util.createFileSet(dir, includes).getDirectoryScanner().getIncludedFiles();
+            final String[] paths = new String[files.length];
+            for (int i = 0; i < files.length; i++) {
+                paths[i] = files[i].replace(File.separatorChar, '/');
+            }
+            Arrays.sort(paths);
+
+            boolean javaFunction = false;
+            final List<Entry> entries = new ArrayList<>(paths.length);
+            for (final String path : paths) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                final File file = new File(dir, path);
+                entries.add(new Entry(path, file.length(), file.lastModified()));
+                if (!javaFunction && file.getName().equals(FUNCTION_CONFIG)) {
+                    try (InputStream stream = new FileInputStream(file)) {
+                        javaFunction = getScriptFile(stream).toLowerCase(Locale.ROOT).endsWith(JAR_EXTENSION);
+                    }
+                }
+            }
+            return new SourceManifest(javaFunction, entries);
+        }
+    }
+}
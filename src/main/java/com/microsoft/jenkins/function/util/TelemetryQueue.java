@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded queue of telemetry tasks, run one after another by a background thread.
+ *
+ * Recording telemetry must never slow down or fail a deployment, so submitting a task never blocks: when the queue is
+ * full the task is dropped and counted. The background thread logs how many tasks were dropped once it catches up.
+ */
+public final class TelemetryQueue {
+
+    private static final Logger LOGGER = Logger.getLogger(TelemetryQueue.class.getName());
+
+    private static final int CAPACITY = Integer.getInteger(TelemetryQueue.class.getName() + ".capacity", 1000);
+    private static final long IDLE_SECONDS = 60;
+
+    private static final TelemetryQueue INSTANCE = new TelemetryQueue(CAPACITY);
+
+    private final BlockingQueue<Runnable> queue;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong reportedDropped = new AtomicLong();
+    private Thread flusher;
+
+    TelemetryQueue(final int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    public static TelemetryQueue get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queue a task to run in the background.
+     *
+     * @param task Telemetry task
+     * @return Whether the task was queued, false if it was dropped because the queue is full
+     */
+    public boolean submit(final Runnable task) {
+        if (!queue.offer(task)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        submitted.incrementAndGet();
+        startFlusher();
+        return true;
+    }
+
+    /**
+     * @return Number of tasks waiting to run
+     */
+    public int getDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return Number of tasks queued since startup
+     */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /**
+     * @return Number of tasks dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return Number of tasks that failed
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    private synchronized void startFlusher() {
+        if (flusher != null) {
+            return;
+        }
+        flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "Azure Function telemetry");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Run tasks in order, and stop once idle for a while so that no thread lingers when nothing is deployed.
+     */
+    private void drain() {
+        try {
+            while (true) {
+                final Runnable task = queue.poll(IDLE_SECONDS, TimeUnit.SECONDS);
+                if (task != null) {
+                    run(task);
+                }
+                if (queue.isEmpty()) {
+                    reportDropped();
+                }
+                if (task == null && stopIfIdle()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                flusher = null;
+            }
+        }
+    }
+
+    private synchronized boolean stopIfIdle() {
+        if (!queue.isEmpty()) {
+            return false;
+        }
+        flusher = null;
+        return true;
+    }
+
+    /**
+     * Log the tasks dropped since last reported, once there is room in the queue again.
+     */
+    void reportDropped() {
+        final long total = dropped.get();
+        final long previous = reportedDropped.getAndSet(total);
+        if (total > previous) {
+            LOGGER.log(Level.WARNING, "Dropped {0} telemetry events as the queue was full ({1} of {2} since startup)",
+                    new Object[]{total - previous, total, total + submitted.get()});
+        }
+    }
+
+    private void run(final Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            LOGGER.log(Level.FINE, "Fail to send telemetry", e);
+        }
+    }
+}
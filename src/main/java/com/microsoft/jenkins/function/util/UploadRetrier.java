@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import com.microsoft.rest.RestException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retry an upload to the SCM site of a function app when it fails for a reason that may not happen again.
+ *
+ * Each attempt opens the package again, so the upload must be repeatable. Attempts are spaced by an exponential
+ * backoff with jitter, so that builds failing together don't retry together. Errors other than network failures and
+ * the status codes in {@link #RETRYABLE_STATUS_CODES} fail right away.
+ */
+public final class UploadRetrier {
+
+    private static final int MAX_ATTEMPTS =
+            Integer.getInteger(UploadRetrier.class.getName() + ".maxAttempts", 4);
+    private static final long BASE_DELAY_MILLIS =
+            Long.getLong(UploadRetrier.class.getName() + ".baseDelayMilliseconds", 2000);
+    private static final long MAX_DELAY_MILLIS =
+            Long.getLong(UploadRetrier.class.getName() + ".maxDelayMilliseconds", 30000);
+
+    /**
+     * Timeouts, conflicts with a deployment in progress, throttling and gateway errors.
+     */
+    static final Set<Integer> RETRYABLE_STATUS_CODES = new HashSet<>(Arrays.asList(408, 409, 429, 500, 502, 503, 504));
+
+    private static final int MAX_SHIFT = 20;
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final Listener listener;
+    private final Random random = new Random();
+
+    private int attempts;
+    private long bytesSent;
+    private long bytesResent;
+
+    /**
+     * @param listener Told about each retry
+     */
+    public UploadRetrier(final Listener listener) {
+        this(MAX_ATTEMPTS, BASE_DELAY_MILLIS, MAX_DELAY_MILLIS, listener);
+    }
+
+    UploadRetrier(
+            final int maxAttempts,
+            final long baseDelayMillis,
+            final long maxDelayMillis,
+            final Listener listener) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.listener = listener;
+    }
+
+    /**
+     * Run the upload until it succeeds, fails for good, or runs out of attempts.
+     *
+     * @param upload Upload to run
+     * @param <T>    Result of the upload
+     * @return Result of the successful attempt
+     * @throws IOException          Error of the last attempt
+     * @throws InterruptedException If the build is aborted, during an attempt or while waiting for the next one
+     */
+    public <T> T call(final Upload<T> upload) throws IOException, InterruptedException {
+        while (true) {
+            attempts++;
+            final AtomicLong sent = new AtomicLong();
+            try {
+                final T result = upload.run(sent);
+                bytesSent += sent.get();
+                return result;
+            } catch (IOException | RuntimeException e) {
+                bytesSent += sent.get();
+                bytesResent += sent.get();
+                if (e instanceof InterruptedIOException && Thread.currentThread().isInterrupted()) {
+                    throw (InterruptedException) new InterruptedException().initCause(e);
+                }
+                if (attempts >= maxAttempts || !isRetryable(e)) {
+                    throw e;
+                }
+                final long delay = getDelayMillis(attempts);
+                if (listener != null) {
+                    listener.onRetry(attempts, maxAttempts, e, delay);
+                }
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * @return Number of attempts made
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return Bytes sent by all the attempts, as far as they are known
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return Bytes sent by the attempts that failed, and had to be sent again
+     */
+    public long getBytesResent() {
+        return bytesResent;
+    }
+
+    /**
+     * Delay before the attempt following a failed one: half of it grows exponentially up to the maximum, the other
+     * half is random.
+     *
+     * @param failedAttempt Number of the attempt that failed, starting at 1
+     * @return Delay in milliseconds
+     */
+    long getDelayMillis(final int failedAttempt) {
+        final long backoff = Math.min(maxDelayMillis, baseDelayMillis << Math.min(failedAttempt - 1, MAX_SHIFT));
+        final long half = backoff / 2;
+        return half + (long) (random.nextDouble() * (backoff - half));
+    }
+
+    /**
+     * @param e Error of an attempt
+     * @return Whether a new attempt may succeed
+     */
+    static boolean isRetryable(final Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof KuduZipDeployer.ZipDeployException) {
+                return RETRYABLE_STATUS_CODES.contains(((KuduZipDeployer.ZipDeployException) cause).getStatusCode());
+            }
+            if (cause instanceof RestException && ((RestException) cause).response() != null) {
+                return RETRYABLE_STATUS_CODES.contains(((RestException) cause).response().code());
+            }
+            if (cause instanceof SocketException
+                    || cause instanceof SocketTimeoutException
+                    || cause instanceof UnknownHostException
+                    || cause instanceof EOFException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * An upload that can be run again.
+     *
+     * @param <T> Result of the upload
+     */
+    public interface Upload<T> {
+        /**
+         * @param sent To set to the number of bytes sent by this attempt, whether it fails or not
+         * @return Result of the upload
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        T run(AtomicLong sent) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Told about failed attempts that will be retried.
+     */
+    public interface Listener {
+        /**
+         * @param attempt     Number of the attempt that failed, starting at 1
+         * @param maxAttempts Number of attempts allowed
+         * @param e           Error of the attempt
+         * @param delayMillis Delay before the next attempt
+         */
+        void onRetry(int attempt, int maxAttempts, Exception e, long delayMillis);
+    }
+}
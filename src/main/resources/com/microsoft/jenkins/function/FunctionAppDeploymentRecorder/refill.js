@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+// Names of Azure resources are listed in the background, and a dropdown filled before its listing completes shows a
+// loading entry instead. Fill such a dropdown again until the names are there, so they show up without reloading the
+// page. The entry must match Constants.LOADING_SELECTION.
+Behaviour.specify("SELECT.select", "azure-function-refill", 1000, function (select) {
+    var LOADING_SELECTION = "- loading -";
+    var RETRY_DELAY = 2000;
+    var MAX_RETRIES = 30;
+    var retries = 0;
+
+    function isLoading() {
+        for (var i = 0; i < select.options.length; i++) {
+            if (select.options[i].text === LOADING_SELECTION) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    function refillWhileLoading() {
+        var url = select.getAttribute("fillUrl");
+        if (url == null || !isLoading() || retries >= MAX_RETRIES) {
+            return;
+        }
+        retries++;
+        setTimeout(function () {
+            var parameters = {};
+            var depends = select.getAttribute("fillDependsOn");
+            if (depends != null) {
+                var names = depends.split(" ");
+                for (var i = 0; i < names.length; i++) {
+                    var control = findNearBy(select, names[i]);
+                    if (control != null) {
+                        parameters[names[i]] = controlValue(control);
+                    }
+                }
+            }
+            var value = select.value;
+            updateListBox(select, url, {
+                parameters: parameters,
+                onSuccess: function () {
+                    if (select.value !== value) {
+                        // Let the dropdowns depending on this one list their names for the new value
+                        fireEvent(select, "change");
+                    }
+                    refillWhileLoading();
+                }
+            });
+        }, RETRY_DELAY);
+    }
+
+    // Fired by Jenkins whenever the dropdown is filled, on page load or when a field it depends on changes
+    select.addEventListener("filled", function () {
+        retries = 0;
+        refillWhileLoading();
+    });
+});
@@ -9,6 +9,7 @@ import com.microsoft.azure.management.appservice.FunctionApp;
 import com.microsoft.azure.management.appservice.PublishingProfile;
 import com.microsoft.jenkins.azurecommons.command.CommandState;
 import com.microsoft.jenkins.exceptions.AzureCloudException;
+import com.microsoft.jenkins.function.commands.FTPDeployCommand;
 import com.microsoft.jenkins.function.commands.GitDeployCommand;
 import com.microsoft.jenkins.function.commands.ZipDeployCommand;
 import hudson.FilePath;
@@ -103,6 +104,30 @@ public class FunctionAppDeploymentCommandContextTest {
         Assert.assertEquals(ZipDeployCommand.class, ctx.getCommandService().getStartCommandClass());
     }
 
+    @Test
+    public void configureFtp() throws AzureCloudException, IOException {
+        FunctionAppDeploymentCommandContext ctx = new FunctionAppDeploymentCommandContext("**/*.jar,**/*.json");
+        ctx.setFtpDeploy(true);
+        ctx.setFtpConnections(8);
+        ctx.setIncrementalFtpDeploy(true);
+
+        File file = new File(workspaceDir.getRoot(), "function.json");
+        FileUtils.write(file, "{\"scriptFile\": \"program.jar\"}");
+
+        final Run run = mock(Run.class);
+        final FilePath workspace = new FilePath(workspaceDir.getRoot());
+        final Launcher launcher = mock(Launcher.class);
+        final TaskListener listener = mock(TaskListener.class);
+        final FunctionApp app = mock(FunctionApp.class);
+
+        ctx.configure(run, workspace, launcher, listener, app);
+        Assert.assertEquals(1, ctx.getCommandService().getRegisteredCommands().size());
+        Assert.assertEquals(FTPDeployCommand.class, ctx.getCommandService().getStartCommandClass());
+        Assert.assertEquals(8, ctx.getParallelism());
+        Assert.assertTrue(ctx.isIncremental());
+        Assert.assertFalse(ctx.isStagedDeploy());
+    }
+
     @Test
     public void assertGetScriptFileFromConfig() throws IOException, InterruptedException {
         assertGetScriptFileFromConfig("{\"scriptFile\": \"program.jar\"}", "program.jar");
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.jenkins.function;
+
+import com.microsoft.jenkins.function.util.KuduZipDeployer;
+import hudson.AbortException;
+import hudson.model.Run;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.junit.Assert;
+import org.junit.Test;
+import org.powermock.reflect.Whitebox;
+
+import java.util.Arrays;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FunctionAppDeploymentStepTest {
+
+    @Test
+    public void createRecorder() {
+        final FunctionAppDeploymentStep step = new FunctionAppDeploymentStep("cred", "rg", "app");
+        step.setFilePath("**/*.jar");
+        step.setSourceDirectory("target");
+        step.setArchiveThreads(2);
+        step.setAgentUpload(true);
+        step.setAsyncDeployTimeout(10);
+
+        final FunctionAppDeploymentRecorder recorder = step.createRecorder();
+
+        Assert.assertEquals("cred", recorder.getAzureCredentialsId());
+        Assert.assertEquals("rg", recorder.getResourceGroup());
+        Assert.assertEquals("app", recorder.getAppName());
+        Assert.assertEquals("**/*.jar", recorder.getFilePath());
+        Assert.assertEquals("target", recorder.getSourceDirectory());
+        Assert.assertEquals(2, recorder.getArchiveThreads());
+        Assert.assertTrue(recorder.isAgentUpload());
+        Assert.assertTrue(recorder.isAsyncDeploy());
+        Assert.assertEquals(10, recorder.getAsyncDeployTimeout());
+    }
+
+    @Test
+    public void resumeBeforeSubmitted() {
+        final StepContext context = mock(StepContext.class);
+        final FunctionAppDeploymentStepExecution execution = new FunctionAppDeploymentStepExecution(
+                new FunctionAppDeploymentStep("cred", "rg", "app"), context);
+
+        execution.onResume();
+
+        verify(context).onFailure(any(AbortException.class));
+        verify(context, never()).onSuccess(any());
+    }
+
+    @Test
+    public void resumeFromSubmissionSavedWithBuild() throws Exception {
+        final StepContext context = mock(StepContext.class);
+        final FunctionAppDeploymentStepExecution execution = new FunctionAppDeploymentStepExecution(
+                new FunctionAppDeploymentStep("cred", "rg", "app"), context);
+        final String id = Whitebox.getInternalState(execution, "id");
+        final KuduZipDeployer.Submission submission = Whitebox.invokeConstructor(KuduZipDeployer.Submission.class,
+                new Class<?>[]{int.class, String.class, String.class},
+                new Object[]{0, "https://app.scm.azurewebsites.net/api/deployments/latest", "previous"});
+        final Run run = mock(Run.class);
+        when(run.getActions(DeploymentSubmissionAction.class)).thenReturn(Arrays.asList(
+                new DeploymentSubmissionAction("other", null), new DeploymentSubmissionAction(id, submission)));
+        when(context.get(Run.class)).thenReturn(run);
+
+        execution.onResume();
+
+        // The execution was saved before the submission arrived, the one saved with the build is used
+        verify(context, never()).onFailure(any(AbortException.class));
+        Assert.assertEquals("Waiting for deployment https://app.scm.azurewebsites.net/api/deployments/latest",
+                execution.getStatus());
+    }
+
+    @Test
+    public void stop() throws Exception {
+        final StepContext context = mock(StepContext.class);
+        final FunctionAppDeploymentStepExecution execution = new FunctionAppDeploymentStepExecution(
+                new FunctionAppDeploymentStep("cred", "rg", "app"), context);
+        final InterruptedException cause = new InterruptedException("aborted");
+
+        execution.stop(cause);
+
+        verify(context, times(1)).onFailure(cause);
+        Assert.assertEquals("Deploying to function app rg/app", execution.getStatus());
+    }
+}
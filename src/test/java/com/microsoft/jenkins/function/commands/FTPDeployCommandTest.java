@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.commands;
+
+import com.microsoft.azure.management.appservice.FunctionApp;
+import com.microsoft.azure.management.appservice.PublishingProfile;
+import com.microsoft.azure.management.appservice.WebAppBase;
+import com.microsoft.jenkins.azurecommons.JobContext;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FTPDeployCommandTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void isSiteRoot() {
+        Assert.assertTrue(FTPDeployCommand.isSiteRoot(null));
+        Assert.assertTrue(FTPDeployCommand.isSiteRoot(""));
+        Assert.assertTrue(FTPDeployCommand.isSiteRoot("/"));
+        Assert.assertTrue(FTPDeployCommand.isSiteRoot(" ./ "));
+        Assert.assertFalse(FTPDeployCommand.isSiteRoot("app"));
+        Assert.assertFalse(FTPDeployCommand.isSiteRoot("/app/"));
+    }
+
+    @Test
+    public void stagedDeployNeedsTargetDirectory() {
+        Run run = mock(Run.class);
+        FilePath workspace = new FilePath(temporaryFolder.getRoot());
+        Launcher launcher = mock(Launcher.class);
+        TaskListener listener = mock(TaskListener.class);
+        JobContext jobContext = new JobContext(run, workspace, launcher, listener);
+
+        FTPDeployCommand.IFTPDeployCommandData context = mock(FTPDeployCommand.IFTPDeployCommandData.class);
+        when(context.getJobContext()).thenReturn(jobContext);
+        PublishingProfile profile = mock(PublishingProfile.class);
+        when(profile.ftpUrl()).thenReturn("ftp://waws.ftp.azurewebsites.windows.net/site/wwwroot");
+        when(context.getPublishingProfile()).thenReturn(profile);
+        WebAppBase functionApp = mock(FunctionApp.class);
+        when(context.getWebAppBase()).thenReturn(functionApp);
+        when(context.isStagedDeploy()).thenReturn(true);
+        when(context.getTargetDirectory()).thenReturn("");
+
+        new FTPDeployCommand().execute(context);
+
+        // Swapping would replace /site/wwwroot itself, nothing is touched
+        verify(context).logError(Mockito.startsWith("Staged FTP deployment needs a target directory"));
+        verify(functionApp, never()).stop();
+        verify(functionApp, never()).state();
+    }
+
+    @Test
+    public void ftpDeployInvalidatesZipDeployDigest() throws IOException {
+        temporaryFolder.newFolder("target");
+        temporaryFolder.newFile("target/a.jar");
+        temporaryFolder.newFile("target/host.json");
+
+        Run run = mock(Run.class);
+        FilePath workspace = new FilePath(temporaryFolder.getRoot());
+        Launcher launcher = mock(Launcher.class);
+        TaskListener listener = mock(TaskListener.class);
+        when(listener.getLogger()).thenReturn(new PrintStream(new ByteArrayOutputStream()));
+        JobContext jobContext = new JobContext(run, workspace, launcher, listener);
+        WebAppBase functionApp = mock(FunctionApp.class);
+        when(functionApp.id()).thenReturn("/subscriptions/s/resourceGroups/rg/providers/Microsoft.Web/sites/ftp");
+        when(functionApp.state()).thenReturn("Running");
+
+        ZipDeployCommand.IZipDeployCommandData zipContext = mock(ZipDeployCommand.IZipDeployCommandData.class);
+        when(zipContext.getJobContext()).thenReturn(jobContext);
+        when(zipContext.getSourceDirectory()).thenReturn("target");
+        when(zipContext.getWebAppBase()).thenReturn(functionApp);
+        when(zipContext.getFilePath()).thenReturn("*.json,*.jar");
+
+        FTPDeployCommand.IFTPDeployCommandData ftpContext = mock(FTPDeployCommand.IFTPDeployCommandData.class);
+        when(ftpContext.getJobContext()).thenReturn(jobContext);
+        PublishingProfile profile = mock(PublishingProfile.class);
+        when(profile.ftpUrl()).thenReturn("ftp://127.0.0.1/site/wwwroot");
+        when(ftpContext.getPublishingProfile()).thenReturn(profile);
+        when(ftpContext.getWebAppBase()).thenReturn(functionApp);
+        when(ftpContext.getSourceDirectory()).thenReturn("target");
+        when(ftpContext.getFilePath()).thenReturn("*.json,*.jar");
+
+        new ZipDeployCommand().execute(zipContext);
+        verify(functionApp, times(1)).zipDeploy(any(InputStream.class));
+
+        // Whether the FTP upload completes or not, other files than the package of ZipDeploy may now be live
+        new FTPDeployCommand().execute(ftpContext);
+
+        // Going back to the same package deploys it again
+        new ZipDeployCommand().execute(zipContext);
+        verify(functionApp, times(2)).zipDeploy(any(InputStream.class));
+    }
+
+    @Test
+    public void appStoppedOutOfBandStaysStopped() {
+        Run run = mock(Run.class);
+        FilePath workspace = new FilePath(temporaryFolder.getRoot());
+        Launcher launcher = mock(Launcher.class);
+        TaskListener listener = mock(TaskListener.class);
+        when(listener.getLogger()).thenReturn(new PrintStream(new ByteArrayOutputStream()));
+        JobContext jobContext = new JobContext(run, workspace, launcher, listener);
+
+        // Cached while running, stopped since
+        final AtomicBoolean refreshed = new AtomicBoolean();
+        final FunctionApp functionApp = mock(FunctionApp.class);
+        when(functionApp.state()).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(final InvocationOnMock invocation) {
+                return refreshed.get() ? "Stopped" : "Running";
+            }
+        });
+        when(functionApp.refresh()).thenAnswer(new Answer<FunctionApp>() {
+            @Override
+            public FunctionApp answer(final InvocationOnMock invocation) {
+                refreshed.set(true);
+                return functionApp;
+            }
+        });
+
+        FTPDeployCommand.IFTPDeployCommandData context = mock(FTPDeployCommand.IFTPDeployCommandData.class);
+        when(context.getJobContext()).thenReturn(jobContext);
+        PublishingProfile profile = mock(PublishingProfile.class);
+        when(profile.ftpUrl()).thenReturn("ftp://127.0.0.1/site/wwwroot");
+        when(context.getPublishingProfile()).thenReturn(profile);
+        when(context.getWebAppBase()).thenReturn(functionApp);
+        when(context.getFilePath()).thenReturn("*.json,*.jar");
+
+        new FTPDeployCommand().execute(context);
+
+        InOrder inOrder = Mockito.inOrder(functionApp);
+        inOrder.verify(functionApp).refresh();
+        inOrder.verify(functionApp).state();
+        verify(functionApp, never()).stop();
+        verify(functionApp, never()).start();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.jenkins.function.commands;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Set;
+
+public class FTPDeployManifestTest {
+
+    @Test
+    public void readWrite() throws Exception {
+        FTPDeployManifest manifest = new FTPDeployManifest();
+        manifest.put("host.json", 10, "h1");
+        manifest.put("bin/a.dll", 20, "h2");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manifest.write(out);
+        FTPDeployManifest read = FTPDeployManifest.read(new ByteArrayInputStream(out.toByteArray()));
+
+        Assert.assertEquals(manifest.getPaths(), read.getPaths());
+        Assert.assertEquals(20, read.get("bin/a.dll").getSize());
+        Assert.assertEquals("h2", read.get("bin/a.dll").getHash());
+    }
+
+    @Test
+    public void compare() {
+        FTPDeployManifest previous = new FTPDeployManifest();
+        previous.put("same.json", 10, "h1");
+        previous.put("resized.jar", 20, "h2");
+        previous.put("modified.jar", 30, "h3");
+        previous.put("removed.dll", 40, "h4");
+
+        FTPDeployManifest current = new FTPDeployManifest();
+        current.put("same.json", 10, "h1");
+        current.put("resized.jar", 21, "h2");
+        current.put("modified.jar", 30, "h3-changed");
+        current.put("added.dll", 50, "h5");
+
+        Assert.assertFalse(current.isChanged("same.json", previous));
+        Assert.assertTrue(current.isChanged("resized.jar", previous));
+        Assert.assertTrue(current.isChanged("modified.jar", previous));
+        Assert.assertTrue(current.isChanged("added.dll", previous));
+        Assert.assertTrue(current.isChanged("same.json", null));
+
+        Set<String> removed = current.getRemoved(previous);
+        Assert.assertEquals(1, removed.size());
+        Assert.assertTrue(removed.contains("removed.dll"));
+        Assert.assertTrue(current.getRemoved(null).isEmpty());
+    }
+
+    @Test
+    public void emptiedDirectories() {
+        FTPDeployManifest previous = new FTPDeployManifest();
+        previous.put("host.json", 10, "h1");
+        previous.put("old/a/x.dll", 20, "h2");
+        previous.put("old/b.dll", 20, "h3");
+        previous.put("bin/kept.dll", 30, "h4");
+        previous.put("bin/sub/removed.dll", 40, "h5");
+        previous.put("lib/removed.dll", 40, "h6");
+
+        FTPDeployManifest current = new FTPDeployManifest();
+        current.put("host.json", 10, "h1");
+        current.put("bin/kept.dll", 30, "h4");
+        current.put("lib/sub/added.dll", 50, "h7");
+
+        Assert.assertEquals(Arrays.asList("old/a", "old", "bin/sub"),
+                new ArrayList<>(current.getEmptiedDirectories(previous)));
+        Assert.assertTrue(current.getEmptiedDirectories(null).isEmpty());
+    }
+}
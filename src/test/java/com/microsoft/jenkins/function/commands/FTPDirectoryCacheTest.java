@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.jenkins.function.commands;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FTPDirectoryCacheTest {
+
+    @Test
+    public void createEachDirectoryOnce() throws IOException {
+        FTPClient ftpClient = mock(FTPClient.class);
+        when(ftpClient.makeDirectory(anyString())).thenReturn(true);
+
+        FTPDirectoryCache cache = new FTPDirectoryCache("/site/wwwroot/");
+        Assert.assertEquals("/site/wwwroot/host.json", cache.prepareParent(ftpClient, "host.json"));
+        Assert.assertEquals("/site/wwwroot/bin/a/x.dll", cache.prepareParent(ftpClient, "bin/a/x.dll"));
+        Assert.assertEquals("/site/wwwroot/bin/a/y.dll", cache.prepareParent(ftpClient, "bin/a/y.dll"));
+        Assert.assertEquals("/site/wwwroot/bin/z.dll", cache.prepareParent(ftpClient, "bin/z.dll"));
+
+        verify(ftpClient, times(1)).makeDirectory("/site/wwwroot/bin");
+        verify(ftpClient, times(1)).makeDirectory("/site/wwwroot/bin/a");
+        verify(ftpClient, never()).makeDirectory("/site/wwwroot");
+        verify(ftpClient, never()).changeWorkingDirectory(anyString());
+        verify(ftpClient, never()).printWorkingDirectory();
+
+        Assert.assertEquals(2, cache.getCreated());
+        Assert.assertEquals(2, cache.getRoundTrips());
+        Assert.assertTrue(cache.getRoundTripsSaved() > 0);
+    }
+
+    @Test
+    public void existingDirectory() throws IOException {
+        FTPClient ftpClient = mock(FTPClient.class);
+        when(ftpClient.makeDirectory(anyString())).thenReturn(false);
+        when(ftpClient.changeWorkingDirectory("/site/wwwroot/bin")).thenReturn(true);
+
+        FTPDirectoryCache cache = new FTPDirectoryCache("/site/wwwroot");
+        cache.prepareParent(ftpClient, "bin/a.dll");
+        cache.prepareParent(ftpClient, "bin/b.dll");
+
+        verify(ftpClient, times(1)).makeDirectory("/site/wwwroot/bin");
+        verify(ftpClient, times(1)).changeWorkingDirectory("/site/wwwroot/bin");
+        Assert.assertEquals(0, cache.getCreated());
+    }
+
+    @Test(expected = IOException.class)
+    public void failToCreate() throws IOException {
+        FTPClient ftpClient = mock(FTPClient.class);
+        when(ftpClient.makeDirectory(anyString())).thenReturn(false);
+        when(ftpClient.changeWorkingDirectory(anyString())).thenReturn(false);
+
+        new FTPDirectoryCache("/site/wwwroot").prepareParent(ftpClient, "bin/a.dll");
+    }
+
+    @Test
+    public void invalidate() throws IOException {
+        FTPClient ftpClient = mock(FTPClient.class);
+        when(ftpClient.makeDirectory(anyString())).thenReturn(true);
+
+        FTPDirectoryCache cache = new FTPDirectoryCache("/site/wwwroot");
+        cache.prepareParent(ftpClient, "webapps/ROOT/index.html");
+        cache.invalidate("/site/wwwroot/webapps/ROOT");
+        cache.prepareParent(ftpClient, "webapps/ROOT/index.html");
+
+        verify(ftpClient, times(1)).makeDirectory("/site/wwwroot/webapps");
+        verify(ftpClient, times(2)).makeDirectory("/site/wwwroot/webapps/ROOT");
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.jenkins.function.commands;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FTPTreeRemoverTest {
+
+    private static final PrintStream LOGGER = new PrintStream(new ByteArrayOutputStream());
+
+    @Test
+    public void removeTree() throws Exception {
+        FTPClient ftpClient = mock(FTPClient.class);
+        when(ftpClient.changeWorkingDirectory("/site/wwwroot.old")).thenReturn(true);
+        when(ftpClient.listFiles("/site/wwwroot.old")).thenReturn(new FTPFile[]{
+                file(".", true), file("host.json", false), file("bin", true)});
+        when(ftpClient.listFiles("/site/wwwroot.old/bin")).thenReturn(new FTPFile[]{
+                file("a.dll", false), file("b.dll", false)});
+        when(ftpClient.deleteFile(anyString())).thenReturn(true);
+        when(ftpClient.removeDirectory(anyString())).thenReturn(true);
+
+        FTPTreeRemover remover = new FTPTreeRemover(new MockFTPConnector(ftpClient), 2, LOGGER);
+        Assert.assertTrue(remover.remove("/site/wwwroot.old"));
+
+        verify(ftpClient, never()).mlistDir(anyString());
+        verify(ftpClient).deleteFile("/site/wwwroot.old/host.json");
+        verify(ftpClient).deleteFile("/site/wwwroot.old/bin/a.dll");
+        verify(ftpClient).deleteFile("/site/wwwroot.old/bin/b.dll");
+        InOrder order = inOrder(ftpClient);
+        order.verify(ftpClient).removeDirectory("/site/wwwroot.old/bin");
+        order.verify(ftpClient).removeDirectory("/site/wwwroot.old");
+        Assert.assertEquals(3, remover.getDeletedFiles());
+        Assert.assertEquals(2, remover.getRemovedDirectories());
+    }
+
+    @Test
+    public void connectOnceForWholeTree() throws Exception {
+        FTPClient ftpClient = mock(FTPClient.class);
+        when(ftpClient.changeWorkingDirectory("/site/wwwroot.old")).thenReturn(true);
+        when(ftpClient.listFiles("/site/wwwroot.old")).thenReturn(new FTPFile[]{
+                file("host.json", false), file("bin", true), file("lib", true)});
+        when(ftpClient.listFiles("/site/wwwroot.old/bin")).thenReturn(new FTPFile[]{
+                file("a.dll", false), file("sub", true)});
+        when(ftpClient.listFiles("/site/wwwroot.old/bin/sub")).thenReturn(new FTPFile[]{file("b.dll", false)});
+        when(ftpClient.deleteFile(anyString())).thenReturn(true);
+        when(ftpClient.removeDirectory(anyString())).thenReturn(true);
+
+        MockFTPConnector connector = new MockFTPConnector(ftpClient);
+        FTPTreeRemover remover = new FTPTreeRemover(connector, 2, LOGGER);
+        Assert.assertTrue(remover.remove("/site/wwwroot.old"));
+
+        // One listing connection, then the same two connections for the files and all three depths
+        Assert.assertEquals(3, connector.getOpened());
+        InOrder order = inOrder(ftpClient);
+        order.verify(ftpClient).removeDirectory("/site/wwwroot.old/bin/sub");
+        order.verify(ftpClient).removeDirectory("/site/wwwroot.old");
+        Assert.assertEquals(3, remover.getDeletedFiles());
+        Assert.assertEquals(4, remover.getRemovedDirectories());
+    }
+
+    @Test
+    public void failureStopsOtherConnections() throws Exception {
+        // Closed by the listing connection, then by the failing one
+        final CountDownLatch failed = new CountDownLatch(2);
+        final FTPClient ftpClient = mock(FTPClient.class);
+        when(ftpClient.changeWorkingDirectory("/site/wwwroot.old")).thenReturn(true);
+        when(ftpClient.listFiles("/site/wwwroot.old")).thenReturn(new FTPFile[]{
+                file("slow", false), file("broken", false), file("c", false), file("d", false)});
+        when(ftpClient.deleteFile("/site/wwwroot.old/broken")).thenReturn(false);
+        when(ftpClient.deleteFile("/site/wwwroot.old/c")).thenReturn(true);
+        when(ftpClient.deleteFile("/site/wwwroot.old/d")).thenReturn(true);
+        doAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(final InvocationOnMock invocation) throws InterruptedException {
+                // Still busy when the other connection fails
+                failed.await(10, TimeUnit.SECONDS);
+                return true;
+            }
+        }).when(ftpClient).deleteFile("/site/wwwroot.old/slow");
+
+        FTPConnector connector = new FTPConnector() {
+            @Override
+            public FTPClient open() {
+                return ftpClient;
+            }
+
+            @Override
+            public void close(final FTPClient client) {
+                failed.countDown();
+            }
+        };
+        try {
+            new FTPTreeRemover(connector, 2, LOGGER).remove("/site/wwwroot.old");
+            Assert.fail("Removal should have failed");
+        } catch (IOException e) {
+            Assert.assertEquals("Fail to delete file: /site/wwwroot.old/broken", e.getMessage());
+        }
+
+        // The connection busy with the slow file doesn't go on with the rest of the queue
+        verify(ftpClient, never()).deleteFile("/site/wwwroot.old/c");
+        verify(ftpClient, never()).deleteFile("/site/wwwroot.old/d");
+        verify(ftpClient, never()).removeDirectory(anyString());
+    }
+
+    @Test
+    public void removeTreeWithMlsd() throws Exception {
+        FTPClient ftpClient = mock(FTPClient.class);
+        when(ftpClient.hasFeature("MLSD")).thenReturn(true);
+        when(ftpClient.mlistFile("/site/wwwroot/webapps/ROOT")).thenReturn(file("ROOT", true));
+        when(ftpClient.mlistDir("/site/wwwroot/webapps/ROOT")).thenReturn(new FTPFile[]{
+                file("/site/wwwroot/webapps/ROOT", true), file("index.html", false), file("WEB-INF", true)});
+        when(ftpClient.mlistDir("/site/wwwroot/webapps/ROOT/WEB-INF")).thenReturn(new FTPFile[]{
+                file("..", true), file("web.xml", false), null});
+        when(ftpClient.deleteFile(anyString())).thenReturn(true);
+        when(ftpClient.removeDirectory(anyString())).thenReturn(true);
+
+        FTPTreeRemover remover = new FTPTreeRemover(new MockFTPConnector(ftpClient), 4, LOGGER);
+        Assert.assertTrue(remover.remove("/site/wwwroot/webapps/ROOT"));
+
+        verify(ftpClient, never()).changeWorkingDirectory(anyString());
+        verify(ftpClient, never()).listFiles(anyString());
+        verify(ftpClient).deleteFile("/site/wwwroot/webapps/ROOT/index.html");
+        verify(ftpClient).deleteFile("/site/wwwroot/webapps/ROOT/WEB-INF/web.xml");
+        Assert.assertEquals(2, remover.getDeletedFiles());
+        Assert.assertEquals(2, remover.getRemovedDirectories());
+    }
+
+    @Test
+    public void reportProgress() throws Exception {
+        final CountDownLatch reported = new CountDownLatch(1);
+        FTPClient ftpClient = mock(FTPClient.class);
+        when(ftpClient.changeWorkingDirectory("/site/wwwroot.old")).thenReturn(true);
+        when(ftpClient.listFiles("/site/wwwroot.old")).thenReturn(new FTPFile[]{file("host.json", false)});
+        when(ftpClient.removeDirectory(anyString())).thenReturn(true);
+        doAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(final InvocationOnMock invocation) throws InterruptedException {
+                reported.await();
+                return true;
+            }
+        }).when(ftpClient).deleteFile(anyString());
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream logger = new PrintStream(output, true) {
+            @Override
+            public void println(final String line) {
+                super.println(line);
+                if (line.startsWith("Removed ")) {
+                    reported.countDown();
+                }
+            }
+        };
+        new FTPTreeRemover(new MockFTPConnector(ftpClient), 1, logger, 10).remove("/site/wwwroot.old");
+
+        String log = output.toString();
+        Assert.assertTrue(log, log.contains("Removing remote directory /site/wwwroot.old: 1 files, 1 directories"));
+        Assert.assertTrue(log, log.contains("Removed 0 of 2 remote files and directories"));
+    }
+
+    @Test
+    public void missingDirectory() throws Exception {
+        FTPClient ftpClient = mock(FTPClient.class);
+        when(ftpClient.changeWorkingDirectory(anyString())).thenReturn(false);
+
+        FTPTreeRemover remover = new FTPTreeRemover(new MockFTPConnector(ftpClient), 2, LOGGER);
+        Assert.assertFalse(remover.remove("/site/wwwroot.staging"));
+
+        verify(ftpClient, never()).listFiles(anyString());
+        verify(ftpClient, never()).removeDirectory(anyString());
+    }
+
+    @Test(expected = IOException.class)
+    public void failToDelete() throws Exception {
+        FTPClient ftpClient = mock(FTPClient.class);
+        when(ftpClient.changeWorkingDirectory("/site/wwwroot.old")).thenReturn(true);
+        when(ftpClient.listFiles("/site/wwwroot.old")).thenReturn(new FTPFile[]{file("host.json", false)});
+        when(ftpClient.deleteFile(anyString())).thenReturn(false);
+
+        try {
+            new FTPTreeRemover(new MockFTPConnector(ftpClient), 2, LOGGER).remove("/site/wwwroot.old");
+        } finally {
+            verify(ftpClient, times(0)).removeDirectory(anyString());
+        }
+    }
+
+    private static FTPFile file(final String name, final boolean directory) {
+        FTPFile file = new FTPFile();
+        file.setName(name);
+        file.setType(directory ? FTPFile.DIRECTORY_TYPE : FTPFile.FILE_TYPE);
+        return file;
+    }
+}
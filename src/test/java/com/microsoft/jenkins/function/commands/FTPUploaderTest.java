@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.jenkins.function.commands;
+
+import hudson.FilePath;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FTPUploaderTest {
+
+    private static final PrintStream LOGGER = new PrintStream(new ByteArrayOutputStream());
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void uploadOverPool() throws Exception {
+        FilePath sourceDir = createFiles(20);
+        FTPClient ftpClient = mock(FTPClient.class);
+        when(ftpClient.makeDirectory(anyString())).thenReturn(true);
+        when(ftpClient.storeFile(anyString(), any(InputStream.class))).thenReturn(true);
+
+        MockFTPConnector connector = new MockFTPConnector(ftpClient);
+        new FTPUploader(connector, 4, LOGGER, 3, 0)
+                .upload(sourceDir, list(sourceDir), new FTPDirectoryCache("/site/wwwroot"));
+
+        Assert.assertEquals(4, connector.getOpened());
+        for (int i = 0; i < 20; i++) {
+            verify(ftpClient, times(1)).storeFile(eq("/site/wwwroot/d" + (i % 3) + "/f" + i + ".js"),
+                    any(InputStream.class));
+        }
+    }
+
+    @Test
+    public void fewerConnectionsThanFiles() throws Exception {
+        FilePath sourceDir = createFiles(2);
+        FTPClient ftpClient = mock(FTPClient.class);
+        when(ftpClient.makeDirectory(anyString())).thenReturn(true);
+        when(ftpClient.storeFile(anyString(), any(InputStream.class))).thenReturn(true);
+
+        MockFTPConnector connector = new MockFTPConnector(ftpClient);
+        new FTPUploader(connector, 8, LOGGER, 3, 0)
+                .upload(sourceDir, list(sourceDir), new FTPDirectoryCache("/site/wwwroot"));
+
+        Assert.assertEquals(2, connector.getOpened());
+    }
+
+    @Test
+    public void reconnectAfterDroppedConnection() throws Exception {
+        FilePath sourceDir = createFiles(1);
+        FTPClient ftpClient = mock(FTPClient.class);
+        when(ftpClient.makeDirectory(anyString())).thenReturn(true);
+        when(ftpClient.storeFile(anyString(), any(InputStream.class)))
+                .thenThrow(new IOException("Connection closed"))
+                .thenReturn(true);
+
+        MockFTPConnector connector = new MockFTPConnector(ftpClient);
+        new FTPUploader(connector, 1, LOGGER, 3, 0)
+                .upload(sourceDir, list(sourceDir), new FTPDirectoryCache("/site/wwwroot"));
+
+        Assert.assertEquals(2, connector.getOpened());
+        verify(ftpClient, times(2)).storeFile(anyString(), any(InputStream.class));
+    }
+
+    @Test
+    public void failureStopsOtherConnections() throws Exception {
+        FilePath sourceDir = createFiles(50);
+        FTPClient ftpClient = mock(FTPClient.class);
+        when(ftpClient.makeDirectory(anyString())).thenReturn(true);
+        when(ftpClient.storeFile(anyString(), any(InputStream.class))).thenReturn(false);
+
+        try {
+            new FTPUploader(new MockFTPConnector(ftpClient), 2, LOGGER, 3, 0)
+                    .upload(sourceDir, list(sourceDir), new FTPDirectoryCache("/site/wwwroot"));
+            Assert.fail("Upload should have failed");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Fail to upload file to: "));
+        }
+
+        // Each connection gives up on its first file instead of going through the whole queue
+        verify(ftpClient, atMost(2 * 3)).storeFile(anyString(), any(InputStream.class));
+    }
+
+    private FilePath createFiles(final int count) throws IOException {
+        File dir = temporaryFolder.newFolder("source");
+        for (int i = 0; i < count; i++) {
+            FileUtils.write(new File(dir, "d" + (i % 3) + "/f" + i + ".js"), "content " + i);
+        }
+        return new FilePath(dir);
+    }
+
+    private static List<FilePath> list(final FilePath sourceDir) throws IOException, InterruptedException {
+        return new ArrayList<>(Arrays.asList(sourceDir.list("**/*.js")));
+    }
+}
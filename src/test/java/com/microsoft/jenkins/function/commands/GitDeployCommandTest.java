@@ -6,6 +6,7 @@
 package com.microsoft.jenkins.function.commands;
 
 import hudson.FilePath;
+import hudson.plugins.git.GitException;
 import hudson.remoting.VirtualChannel;
 import org.apache.commons.io.FileUtils;
 import org.eclipse.jgit.lib.Constants;
@@ -15,9 +16,12 @@ import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.URIish;
 import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
 import org.jenkinsci.plugins.gitclient.Git;
 import org.jenkinsci.plugins.gitclient.GitClient;
+import org.jenkinsci.plugins.gitclient.InitCommand;
 import org.jenkinsci.plugins.gitclient.RepositoryCallback;
 import org.junit.Assert;
 import org.junit.Rule;
@@ -30,6 +34,13 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Set;
 
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
 public class GitDeployCommandTest {
 
     @Rule
@@ -82,7 +93,7 @@ public class GitDeployCommandTest {
     }
 
     @Test
-    public void cleanWorkingDirectory() throws Exception {
+    public void syncRemovesDeselectedFiles() throws Exception {
         GitDeployCommand command = new GitDeployCommand();
         File repo = workspace.newFolder("repo");
         GitClient git = Git.with(null, null)
@@ -101,7 +112,8 @@ public class GitDeployCommandTest {
 
         git.commit("c1");
 
-        Whitebox.invokeMethod(command, "cleanWorkingDirectory", git);
+        File src = workspace.newFolder("src");
+        Whitebox.invokeMethod(command, "syncWorkingTree", git, new FilePath(src), "", "**/*.txt");
 
         // Files on disk should be removed
         Assert.assertFalse(new File(repo, "f1.txt").exists());
@@ -127,7 +139,7 @@ public class GitDeployCommandTest {
     }
 
     @Test
-    public void copyAndAddFiles() throws Exception {
+    public void syncAddsFiles() throws Exception {
         GitDeployCommand command = new GitDeployCommand();
         File repo = workspace.newFolder("repo");
         GitClient git = Git.with(null, null)
@@ -142,13 +154,13 @@ public class GitDeployCommandTest {
         FileUtils.write(new File(deepDir, "f3.txt"), "f3");
         FileUtils.write(new File(src, "exclude.bak"), "exclude");
 
-        Whitebox.invokeMethod(command, "copyAndAddFiles",
-            git, new FilePath(repo), new FilePath(src), "", "**/*.txt");
+        Whitebox.invokeMethod(command, "syncWorkingTree",
+            git, new FilePath(src), "", "**/*.txt");
 
         // Files should be copied
         Assert.assertTrue(new File(repo, "f1.txt").exists());
         Assert.assertTrue(new File(repo, "f2.txt").exists());
-        Assert.assertTrue(new File(deepDir, "f3.txt").exists());
+        Assert.assertTrue(new File(repo, "deep/f3.txt").exists());
         Assert.assertFalse(new File(repo, "exclude.bak").exists());
 
         // Files should be staged
@@ -171,7 +183,7 @@ public class GitDeployCommandTest {
     }
 
     @Test
-    public void copyAndAddFilesWithSourceDirectory() throws Exception {
+    public void syncAddsFilesWithSourceDirectory() throws Exception {
         GitDeployCommand command = new GitDeployCommand();
         File repo = workspace.newFolder("repo");
         GitClient git = Git.with(null, null)
@@ -183,8 +195,8 @@ public class GitDeployCommandTest {
         deepDir.mkdir();
         FileUtils.write(new File(deepDir, "f.txt"), "f3");
 
-        Whitebox.invokeMethod(command, "copyAndAddFiles",
-                git, new FilePath(repo), new FilePath(deepDir), "", "*.txt");
+        Whitebox.invokeMethod(command, "syncWorkingTree",
+                git, new FilePath(deepDir), "", "*.txt");
 
         // Files should be copied
         Assert.assertTrue(new File(repo, "f.txt").exists());
@@ -206,7 +218,7 @@ public class GitDeployCommandTest {
     }
 
     @Test
-    public void copyAndAddFilesWithTargetDirectory() throws Exception {
+    public void syncAddsFilesWithTargetDirectory() throws Exception {
         GitDeployCommand command = new GitDeployCommand();
         File repo = workspace.newFolder("repo");
         GitClient git = Git.with(null, null)
@@ -221,8 +233,8 @@ public class GitDeployCommandTest {
         FileUtils.write(new File(deepDir, "f3.txt"), "f3");
         FileUtils.write(new File(src, "exclude.bak"), "exclude");
 
-        Whitebox.invokeMethod(command, "copyAndAddFiles",
-                git, new FilePath(repo), new FilePath(src), "target", "**/*.txt");
+        Whitebox.invokeMethod(command, "syncWorkingTree",
+                git, new FilePath(src), "target", "**/*.txt");
 
         File targetDir = new File(repo, "target");
         File targetDeepDir = new File(targetDir, "deep");
@@ -252,6 +264,63 @@ public class GitDeployCommandTest {
         });
     }
 
+    @Test
+    public void syncOnlyWritesChangedFiles() throws Exception {
+        GitDeployCommand command = new GitDeployCommand();
+        File repo = workspace.newFolder("repo");
+        GitClient git = Git.with(null, null)
+                .in(repo)
+                .getClient();
+        git.init();
+        File src = workspace.newFolder("src");
+        FileUtils.write(new File(src, "same.txt"), "same");
+        FileUtils.write(new File(src, "touched.txt"), "touched");
+        FileUtils.write(new File(src, "modified.txt"), "modified");
+        FileUtils.write(new File(src, "removed.txt"), "removed");
+
+        SyncWorkingTreeCallback.Summary summary = Whitebox.invokeMethod(command, "syncWorkingTree",
+                git, new FilePath(src), "", "*.txt");
+        Assert.assertEquals(4, summary.getAdded());
+        git.commit("c1");
+
+        // Only touch the time stamp of one file, change the content of another
+        File same = new File(repo, "same.txt");
+        long sameLastModified = same.lastModified();
+        Assert.assertTrue(new File(src, "touched.txt").setLastModified(sameLastModified - 10000));
+        FileUtils.write(new File(src, "modified.txt"), "modified-changed");
+        Assert.assertTrue(new File(src, "removed.txt").delete());
+        FileUtils.write(new File(src, "added.txt"), "added");
+
+        summary = Whitebox.invokeMethod(command, "syncWorkingTree", git, new FilePath(src), "", "*.txt");
+        Assert.assertEquals(1, summary.getAdded());
+        Assert.assertEquals(1, summary.getModified());
+        Assert.assertEquals(1, summary.getRemoved());
+        Assert.assertEquals(2, summary.getUnchanged());
+
+        Assert.assertEquals(sameLastModified, same.lastModified());
+        Assert.assertEquals("modified-changed", FileUtils.readFileToString(new File(repo, "modified.txt")));
+        Assert.assertFalse(new File(repo, "removed.txt").exists());
+
+        git.withRepository(new RepositoryCallback<Void>() {
+            @Override
+            public Void invoke(Repository repo, VirtualChannel channel) throws IOException, InterruptedException {
+                FileTreeIterator workingTreeIt = new FileTreeIterator(repo);
+                IndexDiff diff = new IndexDiff(repo, Constants.HEAD, workingTreeIt);
+                diff.diff();
+
+                Assert.assertTrue(diff.getAdded().contains("added.txt"));
+                Assert.assertTrue(diff.getChanged().contains("modified.txt"));
+                Assert.assertTrue(diff.getRemoved().contains("removed.txt"));
+                Assert.assertFalse(diff.getChanged().contains("touched.txt"));
+                Assert.assertFalse(diff.getChanged().contains("same.txt"));
+                Assert.assertTrue(diff.getModified().isEmpty());
+                Assert.assertTrue(diff.getUntracked().isEmpty());
+
+                return null;
+            }
+        });
+    }
+
     @Test
     public void isWorkingTreeChanged() throws Exception {
         GitDeployCommand command = new GitDeployCommand();
@@ -291,4 +360,167 @@ public class GitDeployCommandTest {
         changed = Whitebox.<Boolean>invokeMethod(command, "isWorkingTreeChanged", git);
         Assert.assertTrue(changed);
     }
+
+    @Test
+    public void cloneDeployBranch() throws Exception {
+        GitDeployCommand command = new GitDeployCommand();
+        File remote = workspace.newFolder("remote");
+        String remoteUrl = remote.getAbsolutePath();
+        Git.with(null, null)
+                .in(remote)
+                .getClient()
+                .init_().workspace(remoteUrl).bare(true).execute();
+
+        // Remote is empty, so there is nothing to clone
+        File repo1 = workspace.newFolder("repo1");
+        GitClient git1 = Git.with(null, null)
+                .in(repo1)
+                .getClient();
+        Whitebox.invokeMethod(command, "cloneDeployBranch", git1, new FilePath(repo1), remoteUrl, true);
+        Assert.assertTrue(git1.hasGitRepo());
+        Assert.assertEquals(remoteUrl, git1.getRemoteUrl("origin"));
+
+        FileUtils.write(new File(repo1, "f1.txt"), "f1");
+        git1.add("f1.txt");
+        git1.commit("c1");
+        git1.push().ref("master:master").to(new URIish(remoteUrl)).execute();
+
+        // Remote has a master branch now
+        File repo2 = workspace.newFolder("repo2");
+        GitClient git2 = Git.with(null, null)
+                .in(repo2)
+                .getClient();
+        Whitebox.invokeMethod(command, "cloneDeployBranch", git2, new FilePath(repo2), remoteUrl, true);
+        Assert.assertTrue(new File(repo2, "f1.txt").exists());
+        Assert.assertEquals(git1.revParse("master"), git2.revParse("HEAD"));
+    }
+
+    @Test
+    public void updateCachedRepository() throws Exception {
+        GitDeployCommand command = new GitDeployCommand();
+        GitDeployCommand.IGitDeployCommandData context = mock(GitDeployCommand.IGitDeployCommandData.class);
+        File remote = workspace.newFolder("remote");
+        String remoteUrl = remote.getAbsolutePath();
+        Git.with(null, null)
+                .in(remote)
+                .getClient()
+                .init_().workspace(remoteUrl).bare(true).execute();
+
+        File repo1 = workspace.newFolder("repo1");
+        GitClient git1 = Git.with(null, null)
+                .in(repo1)
+                .getClient();
+        Whitebox.invokeMethod(command, "cloneDeployBranch", git1, new FilePath(repo1), remoteUrl, true);
+        FileUtils.write(new File(repo1, "f1.txt"), "f1");
+        git1.add("f1.txt");
+        git1.commit("c1");
+        git1.push().ref("master:master").to(new URIish(remoteUrl)).execute();
+
+        // Cloned the first time
+        File cached = workspace.newFolder("cached");
+        GitClient git2 = Git.with(null, null)
+                .in(cached)
+                .getClient();
+        Whitebox.invokeMethod(command, "updateCachedRepository", context, git2, new FilePath(cached), remoteUrl,
+                true);
+        Assert.assertTrue(new File(cached, "f1.txt").exists());
+
+        // Fetched afterwards, dropping local leftovers
+        FileUtils.write(new File(repo1, "f2.txt"), "f2");
+        git1.add("f2.txt");
+        git1.commit("c2");
+        git1.push().ref("master:master").to(new URIish(remoteUrl)).execute();
+        FileUtils.write(new File(cached, "leftover.txt"), "leftover");
+        Whitebox.invokeMethod(command, "updateCachedRepository", context, git2, new FilePath(cached), remoteUrl,
+                true);
+        Assert.assertTrue(new File(cached, "f2.txt").exists());
+        Assert.assertFalse(new File(cached, "leftover.txt").exists());
+        Assert.assertEquals(git1.revParse("master"), git2.revParse("HEAD"));
+    }
+
+    @Test
+    public void recreateBrokenCachedRepository() throws Exception {
+        GitDeployCommand command = new GitDeployCommand();
+        GitDeployCommand.IGitDeployCommandData context = mock(GitDeployCommand.IGitDeployCommandData.class);
+        File cached = workspace.newFolder("cached");
+        FileUtils.write(new File(cached, "stale.txt"), "stale");
+
+        GitClient git = mock(GitClient.class);
+        InitCommand init = mock(InitCommand.class);
+        when(git.hasGitRepo()).thenReturn(true);
+        doThrow(new GitException("corrupted")).doNothing().when(git).setRemoteUrl(anyString(), anyString());
+        when(git.init_()).thenReturn(init);
+        when(init.workspace(anyString())).thenReturn(init);
+
+        Whitebox.invokeMethod(command, "updateCachedRepository", context, git, new FilePath(cached),
+                "https://example.com/app.git", true);
+
+        // The broken repository is replaced by a fresh one rather than failing the deployment
+        Assert.assertFalse(new File(cached, "stale.txt").exists());
+        verify(init).execute();
+        verify(git, times(2)).setRemoteUrl("origin", "https://example.com/app.git");
+    }
+
+    @Test
+    public void commitWithoutCheckout() throws Exception {
+        GitDeployCommand command = new GitDeployCommand();
+        File remote = workspace.newFolder("remote");
+        String remoteUrl = remote.getAbsolutePath();
+        Git.with(null, null)
+                .in(remote)
+                .getClient()
+                .init_().workspace(remoteUrl).bare(true).execute();
+
+        File repo1 = workspace.newFolder("repo1");
+        final GitClient git1 = Git.with(null, null)
+                .in(repo1)
+                .getClient();
+        git1.init();
+        FileUtils.write(new File(repo1, "f1.txt"), "f1");
+        git1.add("f1.txt");
+        git1.commit("c1");
+        git1.push().ref("master:master").to(new URIish(remoteUrl)).execute();
+
+        File repo2 = workspace.newFolder("repo2");
+        final GitClient git2 = Git.with(null, null)
+                .in(repo2)
+                .getClient();
+        Whitebox.invokeMethod(command, "cloneDeployBranch", git2, new FilePath(repo2), remoteUrl, false);
+        Assert.assertFalse(new File(repo2, "f1.txt").exists());
+
+        // Same content as the remote branch
+        File src = workspace.newFolder("src");
+        FileUtils.write(new File(src, "f1.txt"), "f1");
+        ObjectId commit = Whitebox.invokeMethod(command, "commitWithoutCheckout",
+                git2, new FilePath(src), "", "**/*.txt", "c2");
+        Assert.assertNull(commit);
+
+        FileUtils.write(new File(src, "f1.txt"), "f1-changed");
+        FileUtils.write(new File(src, "deep/f2.txt"), "f2");
+        FileUtils.write(new File(src, "exclude.bak"), "exclude");
+        final ObjectId newCommit = Whitebox.invokeMethod(command, "commitWithoutCheckout",
+                git2, new FilePath(src), "target", "**/*.txt", "c2");
+        Assert.assertNotNull(newCommit);
+        Assert.assertEquals(newCommit, git2.revParse("master"));
+
+        // Nothing is written to the working tree
+        Assert.assertFalse(new File(repo2, "target").exists());
+
+        git2.withRepository(new RepositoryCallback<Void>() {
+            @Override
+            public Void invoke(Repository repo, VirtualChannel channel) throws IOException, InterruptedException {
+                try (RevWalk walk = new RevWalk(repo)) {
+                    RevCommit commit = walk.parseCommit(newCommit);
+                    Assert.assertEquals("c2", commit.getShortMessage());
+                    Assert.assertEquals(git1.revParse("master"), commit.getParent(0));
+
+                    Assert.assertNotNull(TreeWalk.forPath(repo, "target/f1.txt", commit.getTree()));
+                    Assert.assertNotNull(TreeWalk.forPath(repo, "target/deep/f2.txt", commit.getTree()));
+                    Assert.assertNull(TreeWalk.forPath(repo, "target/exclude.bak", commit.getTree()));
+                    Assert.assertNull(TreeWalk.forPath(repo, "f1.txt", commit.getTree()));
+                }
+                return null;
+            }
+        });
+    }
 }
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.jenkins.function.commands;
+
+import org.apache.commons.net.ftp.FTPClient;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connector handing out the same mocked client for every connection of a pool.
+ */
+final class MockFTPConnector implements FTPConnector {
+    private final FTPClient ftpClient;
+    private final AtomicInteger opened = new AtomicInteger();
+
+    MockFTPConnector(final FTPClient ftpClient) {
+        this.ftpClient = ftpClient;
+    }
+
+    @Override
+    public FTPClient open() {
+        opened.incrementAndGet();
+        return ftpClient;
+    }
+
+    @Override
+    public void close(final FTPClient client) {
+    }
+
+    int getOpened() {
+        return opened.get();
+    }
+}
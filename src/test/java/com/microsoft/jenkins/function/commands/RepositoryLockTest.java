@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+package com.microsoft.jenkins.function.commands;
+
+import hudson.FilePath;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class RepositoryLockTest {
+
+    private static final PrintStream LOGGER = new PrintStream(new ByteArrayOutputStream());
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void lockFileNextToRepository() throws Exception {
+        FilePath repo = new FilePath(new File(temporaryFolder.getRoot(), "cache/abc"));
+
+        RepositoryLock lock = RepositoryLock.acquire(repo, LOGGER, 60000, 10);
+        File lockFile = new File(temporaryFolder.getRoot(), "cache/abc.lock");
+        Assert.assertTrue(lockFile.isFile());
+
+        lock.release();
+        Assert.assertFalse(lockFile.exists());
+    }
+
+    @Test
+    public void waitForRelease() throws Exception {
+        final FilePath repo = new FilePath(temporaryFolder.newFolder("repo"));
+        RepositoryLock first = RepositoryLock.acquire(repo, LOGGER, 60000, 10);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<RepositoryLock> second = executor.submit(new Callable<RepositoryLock>() {
+                @Override
+                public RepositoryLock call() throws Exception {
+                    return RepositoryLock.acquire(repo, LOGGER, 60000, 10);
+                }
+            });
+            try {
+                second.get(200, TimeUnit.MILLISECONDS);
+                Assert.fail("Lock should be held by the first build");
+            } catch (TimeoutException e) {
+                // Expected
+            }
+
+            first.release();
+            second.get(10, TimeUnit.SECONDS).release();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void takeOverStaleLock() throws Exception {
+        FilePath repo = new FilePath(temporaryFolder.newFolder("repo"));
+        RepositoryLock stale = RepositoryLock.acquire(repo, LOGGER, 60000, 10);
+        File lockFile = new File(RepositoryLock.getLockFile(repo).getRemote());
+        Assert.assertTrue(lockFile.setLastModified(System.currentTimeMillis() - 120000));
+
+        RepositoryLock lock = RepositoryLock.acquire(repo, LOGGER, 60000, 10);
+
+        // The build that held the stale lock doesn't release the new one
+        stale.release();
+        Assert.assertTrue(lockFile.isFile());
+        lock.release();
+        Assert.assertFalse(lockFile.exists());
+    }
+
+    @Test
+    public void heartbeatKeepsLockFresh() throws Exception {
+        final FilePath repo = new FilePath(temporaryFolder.newFolder("repo"));
+        RepositoryLock first = RepositoryLock.acquire(repo, LOGGER, 400, 10);
+        // Held for longer than the stale timeout
+        Thread.sleep(1000);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<RepositoryLock> second = executor.submit(new Callable<RepositoryLock>() {
+                @Override
+                public RepositoryLock call() throws Exception {
+                    return RepositoryLock.acquire(repo, LOGGER, 400, 10);
+                }
+            });
+            try {
+                second.get(600, TimeUnit.MILLISECONDS);
+                Assert.fail("Lock held by a running build should not be taken over");
+            } catch (TimeoutException e) {
+                // Expected
+            }
+
+            first.release();
+            second.get(10, TimeUnit.SECONDS).release();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void takeOverStaleLockOnce() throws Exception {
+        final FilePath repo = new FilePath(temporaryFolder.newFolder("repo"));
+        RepositoryLock.acquire(repo, LOGGER, 60000, 10).release();
+        File lockFile = new File(RepositoryLock.getLockFile(repo).getRemote());
+        Assert.assertTrue(lockFile.createNewFile());
+        Assert.assertTrue(lockFile.setLastModified(System.currentTimeMillis() - 120000));
+
+        final int waiters = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(waiters);
+        try {
+            List<Future<RepositoryLock>> locks = new ArrayList<>();
+            for (int i = 0; i < waiters; i++) {
+                locks.add(executor.submit(new Callable<RepositoryLock>() {
+                    @Override
+                    public RepositoryLock call() throws Exception {
+                        start.await();
+                        return RepositoryLock.acquire(repo, LOGGER, 60000, 10);
+                    }
+                }));
+            }
+            start.countDown();
+            Thread.sleep(500);
+
+            // Only one of the waiters that found the lock stale takes it over
+            List<RepositoryLock> held = new ArrayList<>();
+            for (Future<RepositoryLock> lock : locks) {
+                if (lock.isDone()) {
+                    held.add(lock.get());
+                }
+            }
+            Assert.assertEquals(1, held.size());
+            held.get(0).release();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -3,20 +3,42 @@ package com.microsoft.jenkins.function.commands;
 import com.microsoft.azure.management.appservice.FunctionApp;
 import com.microsoft.azure.management.appservice.WebAppBase;
 import com.microsoft.jenkins.azurecommons.JobContext;
+import com.microsoft.jenkins.function.util.KuduZipDeployer;
+import com.microsoft.jenkins.function.util.SourceManifest;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import java.io.File;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -56,4 +78,266 @@ public class ZipDeployCommandTest {
         verify(functionApp).zipDeploy(any(InputStream.class));
         verify(context).logStatus(Mockito.matches("Archive 5 target files under.*"));
     }
+
+    @Test
+    public void zipDeployStreaming() throws IOException {
+        temporaryFolder.newFolder("target");
+        temporaryFolder.newFile("target/a.jar");
+        temporaryFolder.newFile("target/host.json");
+        temporaryFolder.newFile("target/local.settings.json");
+        temporaryFolder.newFolder("target", "bin");
+        temporaryFolder.newFile("target/bin/runtime1.dll");
+
+        Run run = mock(Run.class);
+        FilePath workspace = new FilePath(temporaryFolder.getRoot());
+        Launcher launcher = mock(Launcher.class);
+        TaskListener listener = mock(TaskListener.class);
+        JobContext jobContext = new JobContext(run, workspace, launcher, listener);
+
+        ZipDeployCommand.IZipDeployCommandData context = mock(ZipDeployCommand.IZipDeployCommandData.class);
+        when(context.getJobContext()).thenReturn(jobContext);
+        when(context.getSourceDirectory()).thenReturn("target");
+        when(context.isStreamArchive()).thenReturn(true);
+        WebAppBase functionApp = mock(FunctionApp.class);
+        when(context.getWebAppBase()).thenReturn(functionApp);
+        when(context.getFilePath()).thenReturn("**/*.json,**/*.dll,*jar");
+
+        final List<String> entries = new ArrayList<>();
+        final List<String> encodings = new ArrayList<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/zipdeploy", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                encodings.add(exchange.getRequestHeaders().getFirst("Transfer-Encoding"));
+                try (ZipInputStream zip = new ZipInputStream(exchange.getRequestBody())) {
+                    ZipEntry entry;
+                    while ((entry = zip.getNextEntry()) != null) {
+                        entries.add(entry.getName());
+                    }
+                }
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        final KuduZipDeployer deployer = new KuduZipDeployer(
+                String.format("http://127.0.0.1:%d/api/zipdeploy", server.getAddress().getPort()), "$app", "secret");
+
+        ZipDeployCommand command = new ZipDeployCommand() {
+            @Override
+            KuduZipDeployer createDeployer(final IZipDeployCommandData data) {
+                return deployer;
+            }
+        };
+        try {
+            command.execute(context);
+        } finally {
+            server.stop(0);
+        }
+
+        Assert.assertEquals(3, entries.size());
+        Assert.assertTrue(entries.contains("a.jar"));
+        Assert.assertTrue(entries.contains("host.json"));
+        Assert.assertTrue(entries.contains("bin/runtime1.dll"));
+        // Sent in chunks rather than handed to the SDK, which would read it all into memory
+        Assert.assertEquals(Arrays.asList("chunked"), encodings);
+        verify(functionApp, never()).zipDeploy(any(InputStream.class));
+        verify(context).logStatus(Mockito.matches("Archive 3 target files under.*"));
+        // Nothing should be staged in the workspace
+        Assert.assertEquals(1, temporaryFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void zipDeployPrebuiltArchive() throws Exception {
+        temporaryFolder.newFolder("target");
+        temporaryFolder.newFile("target/a.jar");
+        temporaryFolder.newFile("target/host.json");
+
+        FilePath workspace = new FilePath(temporaryFolder.getRoot());
+        FilePath archive = ZipDeployCommand.buildArchive(workspace, "target", "*.json,*.jar", 1);
+        Assert.assertTrue(archive.exists());
+
+        Run run = mock(Run.class);
+        Launcher launcher = mock(Launcher.class);
+        TaskListener listener = mock(TaskListener.class);
+        JobContext jobContext = new JobContext(run, workspace, launcher, listener);
+
+        ZipDeployCommand.IZipDeployCommandData context = mock(ZipDeployCommand.IZipDeployCommandData.class);
+        when(context.getJobContext()).thenReturn(jobContext);
+        when(context.getSourceDirectory()).thenReturn("target");
+        when(context.getPrebuiltArchive()).thenReturn(archive);
+        WebAppBase functionApp = mock(FunctionApp.class);
+        when(context.getWebAppBase()).thenReturn(functionApp);
+        when(context.getFilePath()).thenReturn("*.json,*.jar");
+
+        final List<String> entries = new ArrayList<>();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                try (ZipInputStream zip = new ZipInputStream((InputStream) invocation.getArgument(0))) {
+                    ZipEntry entry;
+                    while ((entry = zip.getNextEntry()) != null) {
+                        entries.add(entry.getName());
+                    }
+                }
+                return null;
+            }
+        }).when(functionApp).zipDeploy(any(InputStream.class));
+
+        ZipDeployCommand command = new ZipDeployCommand();
+        command.execute(context);
+        command.execute(context);
+
+        // The shared archive is deployed as is, without archiving again
+        verify(functionApp, times(2)).zipDeploy(any(InputStream.class));
+        verify(context, never()).logStatus(Mockito.matches("Archive .*"));
+        Assert.assertEquals(Arrays.asList("a.jar", "host.json", "a.jar", "host.json"), entries);
+        Assert.assertTrue(archive.exists());
+    }
+
+    @Test
+    public void zipDeployWithManifest() throws Exception {
+        temporaryFolder.newFolder("target");
+        temporaryFolder.newFile("target/a.jar");
+        temporaryFolder.newFile("target/host.json");
+        temporaryFolder.newFile("target/local.settings.json");
+
+        Run run = mock(Run.class);
+        FilePath workspace = new FilePath(temporaryFolder.getRoot());
+        Launcher launcher = mock(Launcher.class);
+        TaskListener listener = mock(TaskListener.class);
+        JobContext jobContext = new JobContext(run, workspace, launcher, listener);
+
+        // Files created after the scan are not deployed, the tree isn't scanned again
+        SourceManifest manifest = SourceManifest.scan(workspace.child("target"), "*.json,*.jar");
+        temporaryFolder.newFile("target/b.jar");
+
+        ZipDeployCommand.IZipDeployCommandData context = mock(ZipDeployCommand.IZipDeployCommandData.class);
+        when(context.getJobContext()).thenReturn(jobContext);
+        when(context.getSourceDirectory()).thenReturn("target");
+        when(context.getSourceManifest()).thenReturn(manifest);
+        WebAppBase functionApp = mock(FunctionApp.class);
+        when(context.getWebAppBase()).thenReturn(functionApp);
+        when(context.getFilePath()).thenReturn("*.json,*.jar");
+
+        final List<String> entries = new ArrayList<>();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                try (ZipInputStream zip = new ZipInputStream((InputStream) invocation.getArgument(0))) {
+                    ZipEntry entry;
+                    while ((entry = zip.getNextEntry()) != null) {
+                        entries.add(entry.getName());
+                    }
+                }
+                return null;
+            }
+        }).when(functionApp).zipDeploy(any(InputStream.class));
+
+        ZipDeployCommand command = new ZipDeployCommand();
+        command.execute(context);
+
+        Assert.assertEquals(Arrays.asList("a.jar", "host.json"), entries);
+        verify(context).logStatus(Mockito.matches("Archive 2 target files under.*"));
+    }
+
+    @Test
+    public void zipDeploySkipsUnchangedPackage() throws IOException {
+        temporaryFolder.newFolder("target");
+        File jar = temporaryFolder.newFile("target/a.jar");
+        FileUtils.write(jar, "a");
+        temporaryFolder.newFile("target/host.json");
+
+        Run run = mock(Run.class);
+        FilePath workspace = new FilePath(temporaryFolder.getRoot());
+        Launcher launcher = mock(Launcher.class);
+        TaskListener listener = mock(TaskListener.class);
+        JobContext jobContext = new JobContext(run, workspace, launcher, listener);
+
+        ZipDeployCommand.IZipDeployCommandData context = mock(ZipDeployCommand.IZipDeployCommandData.class);
+        when(context.getJobContext()).thenReturn(jobContext);
+        when(context.getSourceDirectory()).thenReturn("target");
+        WebAppBase functionApp = mock(FunctionApp.class);
+        when(functionApp.id()).thenReturn("/subscriptions/s/resourceGroups/rg/providers/Microsoft.Web/sites/skip");
+        when(context.getWebAppBase()).thenReturn(functionApp);
+        when(context.getFilePath()).thenReturn("*.json,*.jar");
+
+        ZipDeployCommand command = new ZipDeployCommand();
+        command.execute(context);
+        verify(functionApp, times(1)).zipDeploy(any(InputStream.class));
+
+        // Same content, only the time stamp changed
+        Assert.assertTrue(jar.setLastModified(jar.lastModified() - 10000));
+        command.execute(context);
+        verify(functionApp, times(1)).zipDeploy(any(InputStream.class));
+        verify(context).logStatus(Mockito.matches("Package under .* is unchanged .*"));
+
+        FileUtils.write(jar, "a-changed");
+        command.execute(context);
+        verify(functionApp, times(2)).zipDeploy(any(InputStream.class));
+
+        when(context.isForceRedeploy()).thenReturn(true);
+        command.execute(context);
+        verify(functionApp, times(3)).zipDeploy(any(InputStream.class));
+
+        // Going back to the deployed package after a failed deployment must not be skipped
+        when(context.isForceRedeploy()).thenReturn(false);
+        FileUtils.write(jar, "a-broken");
+        doThrow(new IOException("failed")).when(functionApp).zipDeploy(any(InputStream.class));
+        command.execute(context);
+        verify(functionApp, times(4)).zipDeploy(any(InputStream.class));
+
+        FileUtils.write(jar, "a-changed");
+        doNothing().when(functionApp).zipDeploy(any(InputStream.class));
+        command.execute(context);
+        verify(functionApp, times(5)).zipDeploy(any(InputStream.class));
+    }
+
+    @Test
+    public void zipDeployUncheckedFailure() throws IOException {
+        temporaryFolder.newFolder("target");
+        temporaryFolder.newFile("target/a.jar");
+        temporaryFolder.newFile("target/host.json");
+
+        Run run = mock(Run.class);
+        FilePath workspace = new FilePath(temporaryFolder.getRoot());
+        Launcher launcher = mock(Launcher.class);
+        TaskListener listener = mock(TaskListener.class);
+        JobContext jobContext = new JobContext(run, workspace, launcher, listener);
+
+        ZipDeployCommand.IZipDeployCommandData context = mock(ZipDeployCommand.IZipDeployCommandData.class);
+        when(context.getJobContext()).thenReturn(jobContext);
+        when(context.getSourceDirectory()).thenReturn("target");
+        WebAppBase functionApp = mock(FunctionApp.class);
+        when(functionApp.id()).thenReturn("/subscriptions/s/resourceGroups/rg/providers/Microsoft.Web/sites/unchecked");
+        when(context.getWebAppBase()).thenReturn(functionApp);
+        when(context.getFilePath()).thenReturn("*.json,*.jar");
+
+        ZipDeployCommand command = new ZipDeployCommand();
+        command.execute(context);
+        verify(functionApp, times(1)).zipDeploy(any(InputStream.class));
+
+        // Management calls of the SDK fail with unchecked exceptions
+        final IllegalStateException failure = new IllegalStateException("Conflict");
+        when(context.isForceRedeploy()).thenReturn(true);
+        doThrow(failure).when(functionApp).zipDeploy(any(InputStream.class));
+        command.execute(context);
+        verify(context).logError("Fail to deploy to zip: ", failure);
+
+        // The package of the failed deployment is not left in the workspace
+        File[] archives = temporaryFolder.getRoot().listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.startsWith("fileArchive");
+            }
+        });
+        Assert.assertNotNull(archives);
+        Assert.assertEquals(0, archives.length);
+
+        // The failed deployment is not taken for the deployed package
+        when(context.isForceRedeploy()).thenReturn(false);
+        doNothing().when(functionApp).zipDeploy(any(InputStream.class));
+        command.execute(context);
+        verify(functionApp, times(3)).zipDeploy(any(InputStream.class));
+    }
 }
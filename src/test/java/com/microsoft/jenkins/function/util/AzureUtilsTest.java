@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import com.microsoft.azure.management.Azure;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Mockito.mock;
+
+public class AzureUtilsTest {
+
+    private final AtomicInteger created = new AtomicInteger();
+
+    private final Callable<Azure> factory = new Callable<Azure>() {
+        @Override
+        public Azure call() {
+            created.incrementAndGet();
+            return mock(Azure.class);
+        }
+    };
+
+    // The client cache is shared by all tests, so each test uses credential ids of its own
+
+    @Test
+    public void reuseClientOfSameCredential() {
+        final AzureUtils.ClientKey key = new AzureUtils.ClientKey("job", "reuse", "digest");
+        final Azure client = AzureUtils.getClient(key, factory);
+        Assert.assertSame(client, AzureUtils.getClient(new AzureUtils.ClientKey("job", "reuse", "digest"), factory));
+        Assert.assertEquals(1, created.get());
+    }
+
+    @Test
+    public void updatedCredentialEvictsOlderClient() {
+        final Azure old = AzureUtils.getClient(new AzureUtils.ClientKey("job", "updated", "v1"), factory);
+        final Azure updated = AzureUtils.getClient(new AzureUtils.ClientKey("job", "updated", "v2"), factory);
+        Assert.assertNotSame(old, updated);
+        Assert.assertEquals(2, created.get());
+
+        // The client built from the older credential data is gone
+        Assert.assertNotSame(old, AzureUtils.getClient(new AzureUtils.ClientKey("job", "updated", "v1"), factory));
+        Assert.assertEquals(3, created.get());
+    }
+
+    @Test
+    public void ownersDontEvictEachOther() {
+        // Folders may define different credentials under the same id
+        final AzureUtils.ClientKey firstKey = new AzureUtils.ClientKey("folder1/job", "shared", "a");
+        final AzureUtils.ClientKey secondKey = new AzureUtils.ClientKey("folder2/job", "shared", "b");
+        final Azure first = AzureUtils.getClient(firstKey, factory);
+        final Azure second = AzureUtils.getClient(secondKey, factory);
+        Assert.assertNotSame(first, second);
+
+        Assert.assertSame(first, AzureUtils.getClient(firstKey, factory));
+        Assert.assertSame(second, AzureUtils.getClient(secondKey, factory));
+        Assert.assertEquals(2, created.get());
+    }
+
+    @Test
+    public void invalidateClientOfOwner() {
+        final Azure first = AzureUtils.getClient(new AzureUtils.ClientKey("job1", "invalid", "a"), factory);
+        final Azure second = AzureUtils.getClient(new AzureUtils.ClientKey("job2", "invalid", "a"), factory);
+
+        AzureUtils.invalidateClient("job1", "invalid");
+        Assert.assertNotSame(first, AzureUtils.getClient(new AzureUtils.ClientKey("job1", "invalid", "a"), factory));
+        Assert.assertSame(second, AzureUtils.getClient(new AzureUtils.ClientKey("job2", "invalid", "a"), factory));
+        Assert.assertEquals(3, created.get());
+    }
+
+    @Test
+    public void countHitsAndMisses() {
+        final long hits = AzureUtils.getClientCacheStats().hitCount();
+        final long misses = AzureUtils.getClientCacheStats().missCount();
+        AzureUtils.getClient(new AzureUtils.ClientKey("job", "stats", "digest"), factory);
+        AzureUtils.getClient(new AzureUtils.ClientKey("job", "stats", "digest"), factory);
+        Assert.assertTrue(AzureUtils.getClientCacheStats().missCount() > misses);
+        Assert.assertTrue(AzureUtils.getClientCacheStats().hitCount() > hits);
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class DeploymentMetricsTest {
+
+    @Test
+    public void telemetryGauges() {
+        final TelemetryQueue queue = TelemetryQueue.get();
+        final long submitted = queue.getSubmittedCount();
+        queue.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+
+        final Map<String, Metric> metrics = new DeploymentMetrics.TelemetryMetrics().getMetricSet().getMetrics();
+        Assert.assertEquals(4, metrics.size());
+        Assert.assertTrue(metrics.get("azure-function.telemetry.depth") instanceof Gauge);
+        final Gauge<?> gauge = (Gauge<?>) metrics.get("azure-function.telemetry.submitted");
+        Assert.assertEquals(submitted + 1, gauge.getValue());
+        Assert.assertEquals(queue.getDroppedCount(), ((Gauge<?>) metrics.get("azure-function.telemetry.dropped"))
+                .getValue());
+        Assert.assertEquals(queue.getFailedCount(), ((Gauge<?>) metrics.get("azure-function.telemetry.failed"))
+                .getValue());
+    }
+}
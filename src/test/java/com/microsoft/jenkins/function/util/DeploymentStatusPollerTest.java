@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Poll a local stand-in of the Kudu deployment status endpoint, answering with queued responses.
+ */
+public class DeploymentStatusPollerTest {
+
+    private HttpServer server;
+    private final ConcurrentLinkedQueue<Response> responses = new ConcurrentLinkedQueue<>();
+    private volatile Response last;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/deployments", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final Response next = responses.poll();
+                final Response response = next != null ? next : last;
+                last = response;
+                final byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(response.code, body.length == 0 ? -1 : body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void waitForSuccess() throws Exception {
+        responses.add(new Response(404, ""));
+        responses.add(status(202, 0, false));
+        responses.add(status(202, 1, false));
+        responses.add(status(202, 1, false));
+        responses.add(new Response(502, ""));
+        responses.add(status(202, 2, false));
+        responses.add(status(200, 4, true));
+
+        final List<String> states = new ArrayList<>();
+        final DeploymentStatusPoller poller = createPoller();
+        final DeploymentStatusPoller.Status status = poller.waitFor(getStatusUrl(), null, 10000,
+                new DeploymentStatusPoller.Listener() {
+                    @Override
+                    public void onStatus(final String state, final long elapsedMillis) {
+                        states.add(state);
+                    }
+                });
+
+        Assert.assertTrue(status.isSucceeded());
+        Assert.assertEquals("d1", status.getId());
+        Assert.assertEquals(7, poller.getPolls());
+        Assert.assertEquals(Arrays.asList("Pending", "Building", "HTTP 502", "Deploying", "Success"), states);
+        Assert.assertTrue(poller.getHistory(), poller.getHistory().startsWith("Pending x2 ("));
+        Assert.assertTrue(poller.getHistory(), poller.getHistory().contains("Building x2 ("));
+    }
+
+    @Test
+    public void deploymentFailed() throws Exception {
+        responses.add(status(202, 1, false));
+        responses.add(new Response(200, "{\"id\": \"d1\", \"status\": 3, \"status_text\": \"Build failed\", "
+                + "\"complete\": true}"));
+
+        try {
+            createPoller().waitFor(getStatusUrl(), null, 10000, null);
+            Assert.fail("Deployment should have failed");
+        } catch (IOException e) {
+            Assert.assertEquals("Deployment d1 failed: Build failed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        responses.add(status(202, 1, false));
+
+        final DeploymentStatusPoller poller = createPoller();
+        try {
+            poller.waitFor(getStatusUrl(), null, 100, null);
+            Assert.fail("Polling should have timed out");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("last status: Building"));
+        }
+        Assert.assertTrue(poller.getPolls() > 1);
+    }
+
+    @Test
+    public void skipPreviousDeployment() throws Exception {
+        // The latest deployment is the previous one until Kudu records the new one
+        responses.add(new Response(200, "{\"id\": \"d0\", \"status\": 4, \"complete\": true}"));
+        responses.add(new Response(200, "{\"id\": \"d0\", \"status\": 4, \"complete\": true}"));
+        responses.add(status(202, 1, false));
+        responses.add(status(200, 4, true));
+
+        final DeploymentStatusPoller poller = createPoller();
+        final DeploymentStatusPoller.Status status = poller.waitFor(
+                new KuduZipDeployer.Submission(1, getStatusUrl(), "d0"), 10000, null);
+
+        Assert.assertEquals("d1", status.getId());
+        Assert.assertEquals(4, poller.getPolls());
+        Assert.assertTrue(poller.getHistory(), poller.getHistory().startsWith("Not recorded x2 ("));
+    }
+
+    @Test
+    public void newDeploymentNotRecorded() throws Exception {
+        responses.add(new Response(200, "{\"id\": \"d0\", \"status\": 4, \"complete\": true}"));
+
+        try {
+            createPoller().waitFor(getStatusUrl(), "d0", 100, null);
+            Assert.fail("The previous deployment should not be taken for the new one");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("not recorded"));
+            Assert.assertTrue(e.getMessage(), e.getMessage().endsWith(": d0"));
+        }
+    }
+
+    @Test
+    public void unauthorized() throws Exception {
+        responses.add(new Response(401, "Unauthorized"));
+
+        try {
+            createPoller().waitFor(getStatusUrl(), null, 10000, null);
+            Assert.fail("Polling should have failed");
+        } catch (KuduZipDeployer.ZipDeployException e) {
+            Assert.assertEquals(401, e.getStatusCode());
+        }
+    }
+
+    private DeploymentStatusPoller createPoller() {
+        final KuduZipDeployer deployer = new KuduZipDeployer(
+                String.format("http://127.0.0.1:%d/api/zipdeploy", server.getAddress().getPort()), "$app", "secret");
+        return new DeploymentStatusPoller(deployer, 1, 10);
+    }
+
+    private String getStatusUrl() {
+        return String.format("http://127.0.0.1:%d/api/deployments/latest", server.getAddress().getPort());
+    }
+
+    private static Response status(final int code, final int status, final boolean complete) {
+        return new Response(code, String.format("{\"id\": \"d1\", \"status\": %d, \"status_text\": \"\", "
+                + "\"complete\": %b}", status, complete));
+    }
+
+    private static final class Response {
+        private final int code;
+        private final String body;
+
+        Response(final int code, final String body) {
+            this.code = code;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class DeploymentTimingsTest {
+
+    @Test
+    public void phases() throws Exception {
+        final DeploymentTimings timings = new DeploymentTimings();
+        final DeploymentTimings.Phase archive = timings.start("Archive");
+        Thread.sleep(20);
+        archive.end().addBytes(100);
+        final DeploymentTimings.Phase upload = timings.start("Upload");
+
+        final List<DeploymentTimings.Phase> phases = timings.getPhases();
+        Assert.assertEquals(2, phases.size());
+        Assert.assertEquals("Archive", phases.get(0).getName());
+        Assert.assertTrue(phases.get(0).getDurationMillis() >= 20);
+        Assert.assertEquals(100, phases.get(0).getBytes());
+        Assert.assertEquals("Upload", phases.get(1).getName());
+        Assert.assertEquals(-1, phases.get(1).getDurationMillis());
+
+        // Ending again keeps the first duration
+        final long duration = archive.getDurationMillis();
+        Thread.sleep(20);
+        archive.end();
+        Assert.assertEquals(duration, archive.getDurationMillis());
+
+        upload.end();
+        Assert.assertTrue(upload.getDurationMillis() >= 0);
+    }
+
+    @Test
+    public void nonNull() {
+        final DeploymentTimings timings = new DeploymentTimings();
+        Assert.assertSame(timings, DeploymentTimings.nonNull(timings));
+        Assert.assertNotNull(DeploymentTimings.nonNull(null));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import com.microsoft.azure.management.Azure;
+import com.microsoft.azure.management.appservice.FunctionApp;
+import com.microsoft.azure.management.appservice.PublishingProfile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FunctionAppCacheTest {
+
+    @After
+    public void tearDown() {
+        FunctionAppCache.get().invalidateAll();
+    }
+
+    @Test
+    public void getFunctionApp() {
+        final Azure azure = mock(Azure.class, Mockito.RETURNS_DEEP_STUBS);
+        when(azure.subscriptionId()).thenReturn("sub");
+        final FunctionApp app = mock(FunctionApp.class);
+        when(azure.appServices().functionApps().getByResourceGroup("rg", "app")).thenReturn(app);
+
+        final FunctionAppCache cache = FunctionAppCache.get();
+        Assert.assertSame(app, cache.getFunctionApp(azure, "cred", "rg", "app"));
+        Assert.assertSame(app, cache.getFunctionApp(azure, "cred", "RG", "app"));
+        verify(azure.appServices().functionApps(), times(1)).getByResourceGroup("rg", "app");
+
+        // Another item or version of the credential may not see the same apps
+        cache.getFunctionApp(azure, "other", "rg", "app");
+        verify(azure.appServices().functionApps(), times(2)).getByResourceGroup("rg", "app");
+
+        cache.invalidate(azure, "cred", "rg", "app");
+        Assert.assertSame(app, cache.getFunctionApp(azure, "cred", "rg", "app"));
+        verify(azure.appServices().functionApps(), times(3)).getByResourceGroup("rg", "app");
+    }
+
+    @Test
+    public void getMissingFunctionApp() {
+        final Azure azure = mock(Azure.class, Mockito.RETURNS_DEEP_STUBS);
+        when(azure.subscriptionId()).thenReturn("sub");
+
+        final FunctionAppCache cache = FunctionAppCache.get();
+        Assert.assertNull(cache.getFunctionApp(azure, "cred", "rg", "missing"));
+        Assert.assertNull(cache.getFunctionApp(azure, "cred", "rg", "missing"));
+        // A missing app isn't cached, it may be created later
+        verify(azure.appServices().functionApps(), times(2)).getByResourceGroup("rg", "missing");
+    }
+
+    @Test
+    public void refreshThroughCallerClient() {
+        final FunctionApp app = mock(FunctionApp.class);
+        final Azure stale = mock(Azure.class, Mockito.RETURNS_DEEP_STUBS);
+        when(stale.subscriptionId()).thenReturn("sub");
+        when(stale.appServices().functionApps().getByResourceGroup("rg", "app")).thenReturn(app);
+        final Azure current = mock(Azure.class, Mockito.RETURNS_DEEP_STUBS);
+        when(current.subscriptionId()).thenReturn("sub");
+        when(current.appServices().functionApps().getByResourceGroup("rg", "app")).thenReturn(app);
+
+        // Refresh on every access, in the calling thread
+        final FunctionAppCache cache = new FunctionAppCache(0, new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                command.run();
+            }
+        });
+        Assert.assertSame(app, cache.getFunctionApp(stale, "cred", "rg", "app"));
+        verify(stale.appServices().functionApps(), times(2)).getByResourceGroup("rg", "app");
+
+        // Once the first client is replaced, the entry it loaded is refreshed with the client of the caller
+        Assert.assertSame(app, cache.getFunctionApp(current, "cred", "rg", "app"));
+        verify(current.appServices().functionApps(), times(1)).getByResourceGroup("rg", "app");
+        verify(stale.appServices().functionApps(), times(2)).getByResourceGroup("rg", "app");
+    }
+
+    @Test
+    public void publishingPasswordsKeptEncrypted() {
+        final Azure azure = mock(Azure.class, Mockito.RETURNS_DEEP_STUBS);
+        when(azure.subscriptionId()).thenReturn("sub");
+        final FunctionApp app = mock(FunctionApp.class);
+        when(azure.appServices().functionApps().getByResourceGroup("rg", "app")).thenReturn(app);
+        final PublishingProfile profile = mock(PublishingProfile.class);
+        when(profile.ftpUsername()).thenReturn("app\\$app");
+        when(profile.ftpPassword()).thenReturn("ftp-secret");
+        when(profile.gitPassword()).thenReturn("git-secret");
+        when(app.getPublishingProfile()).thenReturn(profile);
+
+        final PublishingProfile cached = FunctionAppCache.get().getPublishingProfile(azure, "cred", "rg", "app");
+        Assert.assertEquals("app\\$app", cached.ftpUsername());
+        Assert.assertEquals("ftp-secret", cached.ftpPassword());
+        Assert.assertEquals("git-secret", cached.gitPassword());
+
+        final FunctionAppCache.SealedPassword sealed = FunctionAppCache.SealedPassword.seal("git-secret");
+        Assert.assertFalse(new String(sealed.getData(), StandardCharsets.UTF_8).contains("git-secret"));
+        Assert.assertEquals("git-secret", FunctionAppCache.SealedPassword.unseal(sealed));
+        // Each password gets its own IV
+        Assert.assertFalse(Arrays.equals(sealed.getData(),
+                FunctionAppCache.SealedPassword.seal("git-secret").getData()));
+        Assert.assertNull(FunctionAppCache.SealedPassword.unseal(FunctionAppCache.SealedPassword.seal(null)));
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import hudson.FilePath;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class KuduZipDeployerTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private HttpServer server;
+    private volatile int responseCode = 200;
+    private volatile byte[] body;
+    private volatile String authorization;
+    private volatile String transferEncoding;
+    private volatile String query;
+    private volatile int latestResponseCode = 404;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/zipdeploy", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                authorization = exchange.getRequestHeaders().getFirst("Authorization");
+                transferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+                body = IOUtils.toByteArray(exchange.getRequestBody());
+                final byte[] response = "deployment failed".getBytes(StandardCharsets.UTF_8);
+                query = exchange.getRequestURI().getQuery();
+                if ("isAsync=true".equals(query) && responseCode == 200) {
+                    exchange.getResponseHeaders().add("Location", "/api/deployments/latest?deployer=Push-Deployer");
+                    exchange.sendResponseHeaders(202, response.length);
+                } else {
+                    exchange.sendResponseHeaders(responseCode, response.length);
+                }
+                exchange.getResponseBody().write(response);
+                exchange.close();
+            }
+        });
+        server.createContext("/api/deployments/latest", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final byte[] response = "{\"id\": \"previous\", \"status\": 4, \"complete\": true}"
+                        .getBytes(StandardCharsets.UTF_8);
+                if (latestResponseCode == 200) {
+                    exchange.sendResponseHeaders(200, response.length);
+                    exchange.getResponseBody().write(response);
+                } else {
+                    exchange.sendResponseHeaders(latestResponseCode, -1);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void deployDirectory() throws Exception {
+        final File root = temporaryFolder.newFolder("target");
+        FileUtils.write(new File(root, "a.jar"), "jar");
+        FileUtils.write(new File(root, "host.json"), "{}");
+
+        final int count = createDeployer().deploy(new FilePath(root),
+                new ReproducibleZipArchiver(Arrays.asList("host.json", "a.jar"), 6, 1));
+
+        Assert.assertEquals(2, count);
+        Assert.assertEquals("Basic " + Base64.getEncoder().encodeToString(
+                "$app:secret".getBytes(StandardCharsets.UTF_8)), authorization);
+        Assert.assertEquals("chunked", transferEncoding);
+        final List<String> entries = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(body))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                entries.add(entry.getName());
+            }
+        }
+        Assert.assertEquals(Arrays.asList("a.jar", "host.json"), entries);
+    }
+
+    @Test
+    public void deployArchive() throws Exception {
+        final File archive = temporaryFolder.newFile("archive.zip");
+        FileUtils.write(archive, "zip content");
+
+        createDeployer().deploy(new FilePath(archive));
+
+        Assert.assertEquals("zip content", new String(body, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void deployAsync() throws Exception {
+        final File archive = temporaryFolder.newFile("archive.zip");
+        FileUtils.write(archive, "zip content");
+
+        final KuduZipDeployer.Submission submission = createDeployer().upload(new FilePath(archive), true);
+
+        Assert.assertEquals("isAsync=true", query);
+        Assert.assertEquals(String.format("http://127.0.0.1:%d/api/deployments/latest?deployer=Push-Deployer",
+                server.getAddress().getPort()), submission.getStatusUrl());
+        Assert.assertEquals("zip content", new String(body, StandardCharsets.UTF_8));
+        // Never deployed before
+        Assert.assertNull(submission.getPreviousDeploymentId());
+    }
+
+    @Test
+    public void deployAsyncAfterPreviousDeployment() throws Exception {
+        final File archive = temporaryFolder.newFile("archive.zip");
+        latestResponseCode = 200;
+
+        final KuduZipDeployer.Submission submission = createDeployer().upload(new FilePath(archive), true);
+
+        Assert.assertEquals("previous", submission.getPreviousDeploymentId());
+    }
+
+    @Test
+    public void deployFailure() throws Exception {
+        final File archive = temporaryFolder.newFile("archive.zip");
+        responseCode = 500;
+
+        try {
+            createDeployer().deploy(new FilePath(archive));
+            Assert.fail("Deployment should have failed");
+        } catch (KuduZipDeployer.ZipDeployException e) {
+            Assert.assertEquals(500, e.getStatusCode());
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("HTTP 500: deployment failed"));
+        }
+    }
+
+    @Test
+    public void getScmHost() {
+        Assert.assertEquals("app.scm.azurewebsites.net",
+                KuduZipDeployer.getScmHost("https://$app@app.scm.azurewebsites.net:443/app.git"));
+        Assert.assertEquals("app.scm.azurewebsites.net",
+                KuduZipDeployer.getScmHost("app.scm.azurewebsites.net:443/app.git"));
+    }
+
+    private KuduZipDeployer createDeployer() {
+        return new KuduZipDeployer(String.format("http://127.0.0.1:%d/api/zipdeploy", server.getAddress().getPort()),
+                "$app", "secret");
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class ReproducibleZipArchiverTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void sameContentSameBytes() throws Exception {
+        File dir1 = temporaryFolder.newFolder("dir1");
+        FileUtils.write(new File(dir1, "host.json"), "{}");
+        FileUtils.write(new File(dir1, "lib/b.jar"), "b");
+        FileUtils.write(new File(dir1, "a.jar"), "a");
+        FileUtils.write(new File(dir1, "skip.bak"), "skip");
+
+        // Same files created in another order, with other time stamps
+        File dir2 = temporaryFolder.newFolder("dir2");
+        FileUtils.write(new File(dir2, "a.jar"), "a");
+        FileUtils.write(new File(dir2, "lib/b.jar"), "b");
+        FileUtils.write(new File(dir2, "host.json"), "{}");
+        Assert.assertTrue(new File(dir2, "host.json").setLastModified(10000));
+        Assert.assertTrue(new File(dir2, "a.jar").setLastModified(20000));
+
+        ReproducibleZipArchiver archiver = new ReproducibleZipArchiver("**/*.json,**/*.jar", "", 6);
+        ByteArrayOutputStream out1 = new ByteArrayOutputStream();
+        ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+        Assert.assertEquals(3, archiver.archive(dir1, out1));
+        Assert.assertEquals(3, archiver.archive(dir2, out2));
+        Assert.assertArrayEquals(out1.toByteArray(), out2.toByteArray());
+
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out1.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                names.add(entry.getName());
+                Assert.assertEquals(entry.getName().endsWith(".jar") ? ZipEntry.STORED : ZipEntry.DEFLATED,
+                        entry.getMethod());
+            }
+        }
+        Assert.assertEquals(Arrays.asList("a.jar", "host.json", "lib/b.jar"), names);
+    }
+
+    @Test
+    public void sameBytesWithAnyThreadCount() throws Exception {
+        File dir = temporaryFolder.newFolder("dir");
+        Random random = new Random(0);
+        for (int i = 0; i < 50; i++) {
+            // Mix of compressible and incompressible content, some beyond the in-memory threshold
+            byte[] data = new byte[i % 10 == 0 ? 5 * 1024 * 1024 : random.nextInt(100000)];
+            if (i % 2 == 0) {
+                random.nextBytes(data);
+            }
+            FileUtils.writeByteArrayToFile(new File(dir, "d" + (i % 3) + "/f" + i + (i % 7 == 0 ? ".jar" : ".class")),
+                    data);
+        }
+
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        Assert.assertEquals(50, new ReproducibleZipArchiver("**/*", "", 6, 1).archive(dir, single));
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        Assert.assertEquals(50, new ReproducibleZipArchiver("**/*", "", 6, 4).archive(dir, parallel));
+        Assert.assertArrayEquals(single.toByteArray(), parallel.toByteArray());
+
+        int count = 0;
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(parallel.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                byte[] expected = FileUtils.readFileToByteArray(new File(dir, entry.getName()));
+                Assert.assertArrayEquals(expected, IOUtils.toByteArray(zip));
+                count++;
+            }
+        }
+        Assert.assertEquals(50, count);
+    }
+
+    @Test
+    public void isStored() {
+        Assert.assertTrue(ReproducibleZipArchiver.isStored("lib/a.jar"));
+        Assert.assertTrue(ReproducibleZipArchiver.isStored("bin/Runtime.DLL"));
+        Assert.assertFalse(ReproducibleZipArchiver.isStored("host.json"));
+    }
+
+    @Test
+    public void fileMode() throws Exception {
+        File script = temporaryFolder.newFile("run.sh");
+        File data = temporaryFolder.newFile("data.json");
+        if (Files.getFileAttributeView(script.toPath(), PosixFileAttributeView.class) == null) {
+            // Without POSIX permissions every file gets the same mode
+            Assert.assertEquals(0644, ReproducibleZipArchiver.getFileMode(script));
+            Assert.assertEquals(0644, ReproducibleZipArchiver.getFileMode(data));
+            return;
+        }
+        Files.setPosixFilePermissions(script.toPath(), PosixFilePermissions.fromString("rwxr-x---"));
+        Files.setPosixFilePermissions(data.toPath(), PosixFilePermissions.fromString("rw-rw-rw-"));
+        Assert.assertEquals(0755, ReproducibleZipArchiver.getFileMode(script));
+        Assert.assertEquals(0644, ReproducibleZipArchiver.getFileMode(data));
+    }
+
+    @Test
+    public void failureDeletesSpillFiles() throws Exception {
+        File dir = temporaryFolder.newFolder("spill");
+        // Random data doesn't compress, so each entry is spilled to a temporary file
+        Random random = new Random(1);
+        byte[] data = new byte[5 * 1024 * 1024];
+        for (int i = 0; i < 6; i++) {
+            random.nextBytes(data);
+            FileUtils.writeByteArrayToFile(new File(dir, "file" + i + ".bin"), data);
+        }
+        File tempDir = new File(System.getProperty("java.io.tmpdir"));
+        Set<String> before = new HashSet<>(Arrays.asList(listSpillFiles(tempDir)));
+
+        ReproducibleZipArchiver archiver = new ReproducibleZipArchiver("**/*.bin", "", 6, 3);
+        try {
+            archiver.archive(dir, new OutputStream() {
+                @Override
+                public void write(final int b) throws IOException {
+                    throw new IOException("upload failed");
+                }
+            });
+            Assert.fail("Archiving should have failed");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        // Entries still compressing when the archive failed delete their spill files once done
+        Set<String> left = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            left = new HashSet<>(Arrays.asList(listSpillFiles(tempDir)));
+            left.removeAll(before);
+            if (left.isEmpty()) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(Collections.<String>emptySet(), left);
+    }
+
+    private static String[] listSpillFiles(final File dir) {
+        final String[] names = dir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(final File parent, final String name) {
+                return name.startsWith("zip-entry");
+            }
+        });
+        return names != null ? names : new String[0];
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ResourceNameCacheTest {
+
+    @Test
+    public void getNames() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final Callable<List<String>> lister = new Callable<List<String>>() {
+            @Override
+            public List<String> call() {
+                calls.incrementAndGet();
+                return Arrays.asList("a", "b");
+            }
+        };
+
+        final ResourceNameCache cache = ResourceNameCache.get();
+        Assert.assertEquals(Arrays.asList("a", "b"), cache.getNames("getNames", lister));
+        Assert.assertEquals(Arrays.asList("a", "b"), cache.getNames("getNames", lister));
+        Assert.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void getNamesWhileListing() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<List<String>> lister = new Callable<List<String>>() {
+            @Override
+            public List<String> call() throws InterruptedException {
+                release.await();
+                return Arrays.asList("slow");
+            }
+        };
+
+        final ResourceNameCache cache = ResourceNameCache.get();
+        Assert.assertNull(cache.getNames("getNamesWhileListing", lister));
+        release.countDown();
+        Assert.assertEquals(Arrays.asList("slow"), cache.getNames("getNamesWhileListing", lister));
+    }
+
+    @Test
+    public void failedListingIsRetried() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final Callable<List<String>> lister = new Callable<List<String>>() {
+            @Override
+            public List<String> call() {
+                if (calls.incrementAndGet() == 1) {
+                    throw new IllegalStateException("throttled");
+                }
+                return Arrays.asList("a");
+            }
+        };
+
+        final ResourceNameCache cache = ResourceNameCache.get();
+        try {
+            cache.getNames("failedListingIsRetried", lister);
+            Assert.fail("Listing should have failed");
+        } catch (ExecutionException e) {
+            Assert.assertEquals("throttled", e.getCause().getMessage());
+        }
+        Assert.assertEquals(Arrays.asList("a"), cache.getNames("failedListingIsRetried", lister));
+    }
+}
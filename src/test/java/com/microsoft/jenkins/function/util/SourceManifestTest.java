@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import hudson.FilePath;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+public class SourceManifestTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void scanJavaFunction() throws Exception {
+        final File root = temporaryFolder.getRoot();
+        FileUtils.write(new File(root, "b/function.json"), "{\"scriptFile\": \"../app.jar\"}");
+        FileUtils.write(new File(root, "app.jar"), "jar");
+        FileUtils.write(new File(root, "host.json"), "{}");
+        FileUtils.write(new File(root, "local.settings.json"), "{}");
+        FileUtils.write(new File(root, "readme.md"), "skipped");
+
+        final SourceManifest manifest = SourceManifest.scan(new FilePath(root), "**/*.json,*.jar");
+        Assert.assertTrue(manifest.isJavaFunction());
+        Assert.assertEquals(Arrays.asList("app.jar", "b/function.json", "host.json", "local.settings.json"),
+                manifest.getPaths());
+        Assert.assertEquals(3, manifest.getEntries().get(0).getSize());
+        Assert.assertEquals(new File(root, "app.jar").lastModified(),
+                manifest.getEntries().get(0).getLastModified());
+
+        final SourceManifest excluded = manifest.exclude("local.settings.json,**/fileArchive*/archive.zip");
+        Assert.assertEquals(Arrays.asList("app.jar", "b/function.json", "host.json"), excluded.getPaths());
+        Assert.assertTrue(excluded.isJavaFunction());
+    }
+
+    @Test
+    public void scanScriptFunction() throws Exception {
+        final File root = temporaryFolder.getRoot();
+        FileUtils.write(new File(root, "a/function.json"), "{\"scriptFile\": \"index.js\"}");
+        FileUtils.write(new File(root, "a/index.js"), "module.exports = {};");
+        FileUtils.write(new File(root, "b/function.json"), "{}");
+
+        final SourceManifest manifest = SourceManifest.scan(new FilePath(root), "**/*");
+        Assert.assertFalse(manifest.isJavaFunction());
+        Assert.assertEquals(3, manifest.getEntries().size());
+    }
+
+    @Test
+    public void scanMissingDirectory() throws Exception {
+        final SourceManifest manifest = SourceManifest.scan(
+                new FilePath(new File(temporaryFolder.getRoot(), "missing")), "**/*");
+        Assert.assertFalse(manifest.isJavaFunction());
+        Assert.assertTrue(manifest.getEntries().isEmpty());
+    }
+}
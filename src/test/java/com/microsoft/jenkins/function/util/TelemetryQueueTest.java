@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+public class TelemetryQueueTest {
+
+    @Test
+    public void submit() throws Exception {
+        final TelemetryQueue queue = new TelemetryQueue(10);
+        final CountDownLatch done = new CountDownLatch(3);
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        };
+        Assert.assertTrue(queue.submit(task));
+        Assert.assertTrue(queue.submit(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("failed");
+            }
+        }));
+        Assert.assertTrue(queue.submit(task));
+        Assert.assertTrue(queue.submit(task));
+
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(4, queue.getSubmittedCount());
+        Assert.assertEquals(0, queue.getDroppedCount());
+        Assert.assertEquals(1, queue.getFailedCount());
+    }
+
+    @Test
+    public void dropWhenFull() throws Exception {
+        final TelemetryQueue queue = new TelemetryQueue(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        queue.submit(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        final Runnable noop = new Runnable() {
+            @Override
+            public void run() {
+                // Nothing to send
+            }
+        };
+        // The flusher is busy, one task fits in the queue and the next one is dropped without blocking
+        Assert.assertTrue(queue.submit(noop));
+        Assert.assertFalse(queue.submit(noop));
+        Assert.assertEquals(1, queue.getDepth());
+        Assert.assertEquals(1, queue.getDroppedCount());
+
+        // Dropped tasks are logged once the queue is drained
+        final CountDownLatch reported = new CountDownLatch(1);
+        final Handler handler = new Handler() {
+            @Override
+            public void publish(final LogRecord record) {
+                if (record.getLevel() == Level.WARNING && record.getMessage().startsWith("Dropped")
+                        && Long.valueOf(1).equals(record.getParameters()[0])) {
+                    reported.countDown();
+                }
+            }
+
+            @Override
+            public void flush() {
+                // Nothing buffered
+            }
+
+            @Override
+            public void close() {
+                // Nothing to release
+            }
+        };
+        final Logger logger = Logger.getLogger(TelemetryQueue.class.getName());
+        logger.addHandler(handler);
+        try {
+            release.countDown();
+            Assert.assertTrue(reported.await(10, TimeUnit.SECONDS));
+        } finally {
+            logger.removeHandler(handler);
+        }
+    }
+}
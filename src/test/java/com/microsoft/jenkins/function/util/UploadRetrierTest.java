@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.jenkins.function.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class UploadRetrierTest {
+
+    @Test
+    public void retryUntilSucceeded() throws Exception {
+        final List<Integer> retried = new ArrayList<>();
+        final UploadRetrier retrier = new UploadRetrier(4, 1, 10, new UploadRetrier.Listener() {
+            @Override
+            public void onRetry(final int attempt, final int maxAttempts, final Exception e, final long delayMillis) {
+                retried.add(attempt);
+            }
+        });
+        final String result = retrier.call(new UploadRetrier.Upload<String>() {
+            private int calls;
+
+            @Override
+            public String run(final AtomicLong sent) throws IOException {
+                calls++;
+                sent.set(100);
+                if (calls == 1) {
+                    throw new SocketException("Connection reset");
+                }
+                if (calls == 2) {
+                    throw new KuduZipDeployer.ZipDeployException(502, "Bad Gateway");
+                }
+                return "deployed";
+            }
+        });
+
+        Assert.assertEquals("deployed", result);
+        Assert.assertEquals(3, retrier.getAttempts());
+        Assert.assertEquals(300, retrier.getBytesSent());
+        Assert.assertEquals(200, retrier.getBytesResent());
+        Assert.assertEquals(2, retried.size());
+    }
+
+    @Test
+    public void failFastOnFatalError() throws Exception {
+        final UploadRetrier retrier = new UploadRetrier(4, 1, 10, null);
+        try {
+            retrier.call(new UploadRetrier.Upload<Void>() {
+                @Override
+                public Void run(final AtomicLong sent) throws IOException {
+                    throw new KuduZipDeployer.ZipDeployException(401, "Unauthorized");
+                }
+            });
+            Assert.fail("Should have failed");
+        } catch (KuduZipDeployer.ZipDeployException e) {
+            Assert.assertEquals(401, e.getStatusCode());
+        }
+        Assert.assertEquals(1, retrier.getAttempts());
+    }
+
+    @Test
+    public void giveUpAfterMaxAttempts() throws Exception {
+        final UploadRetrier retrier = new UploadRetrier(3, 1, 10, null);
+        try {
+            retrier.call(new UploadRetrier.Upload<Void>() {
+                @Override
+                public Void run(final AtomicLong sent) throws IOException {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+            });
+            Assert.fail("Should have failed");
+        } catch (SocketTimeoutException e) {
+            Assert.assertEquals(3, retrier.getAttempts());
+        }
+    }
+
+    @Test
+    public void interruptedWhileWaiting() throws Exception {
+        final UploadRetrier retrier = new UploadRetrier(4, 60000, 60000, null);
+        Thread.currentThread().interrupt();
+        try {
+            retrier.call(new UploadRetrier.Upload<Void>() {
+                @Override
+                public Void run(final AtomicLong sent) throws IOException {
+                    throw new SocketException("Connection reset");
+                }
+            });
+            Assert.fail("Should have been interrupted");
+        } catch (InterruptedException e) {
+            Assert.assertEquals(1, retrier.getAttempts());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void isRetryable() {
+        Assert.assertTrue(UploadRetrier.isRetryable(new SocketException("Connection reset")));
+        Assert.assertTrue(UploadRetrier.isRetryable(new RuntimeException(new SocketTimeoutException())));
+        Assert.assertTrue(UploadRetrier.isRetryable(new KuduZipDeployer.ZipDeployException(409, "Conflict")));
+        Assert.assertFalse(UploadRetrier.isRetryable(new KuduZipDeployer.ZipDeployException(403, "Forbidden")));
+        Assert.assertFalse(UploadRetrier.isRetryable(new FileNotFoundException("archive.zip")));
+        Assert.assertFalse(UploadRetrier.isRetryable(new IOException("failed")));
+    }
+
+    @Test
+    public void getDelayMillis() {
+        final UploadRetrier retrier = new UploadRetrier(10, 1000, 5000, null);
+        for (int i = 0; i < 20; i++) {
+            final long first = retrier.getDelayMillis(1);
+            Assert.assertTrue(first >= 500 && first <= 1000);
+            final long third = retrier.getDelayMillis(3);
+            Assert.assertTrue(third >= 2000 && third <= 4000);
+            final long capped = retrier.getDelayMillis(8);
+            Assert.assertTrue(capped >= 2500 && capped <= 5000);
+        }
+    }
+}